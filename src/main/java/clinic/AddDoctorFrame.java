@@ -4,9 +4,13 @@ import javax.swing.*;
 import java.awt.*;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
 
 public class AddDoctorFrame extends JFrame {
 
+    private static final String[] COLUMNS = { "name", "specialization", "phone", "email", "status" };
+
     private JTextField nameField;
     private JTextField specializationField;
     private JTextField phoneField;
@@ -86,6 +90,8 @@ public class AddDoctorFrame extends JFrame {
     }
 
     private void onSave() {
+        if (!Session.check(this, Permission.ADD_DOCTOR)) return;
+
         String name = nameField.getText().trim();
         String specialization = specializationField.getText().trim();
 
@@ -124,7 +130,7 @@ public class AddDoctorFrame extends JFrame {
                      "VALUES (?, ?, ?, ?, ?)";
 
         try (Connection conn = Database.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
+             PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
 
             ps.setString(1, name);
             ps.setString(2, specialization);
@@ -134,11 +140,18 @@ public class AddDoctorFrame extends JFrame {
 
             ps.executeUpdate();
 
+            try (ResultSet keys = ps.getGeneratedKeys()) {
+                if (keys.next()) {
+                    AuditLog.inserted("doctors", keys.getLong(1), COLUMNS, new Object[] {
+                            name, specialization, phoneDigits, email.isEmpty() ? null : email, status });
+                }
+            }
+
             JOptionPane.showMessageDialog(this, "Doctor saved.");
             dispose();
 
         } catch (Exception ex) {
-            JOptionPane.showMessageDialog(this, "Error saving doctor: " + ex.getMessage());
+            AppLog.showError(this, "saving doctor", ex, sql);
         }
     }
 }
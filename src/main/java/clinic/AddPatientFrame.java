@@ -4,11 +4,16 @@ import javax.swing.*;
 import java.awt.*;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
 import java.time.LocalDate;
 import java.time.format.DateTimeParseException;
+import java.util.List;
 
 public class AddPatientFrame extends JFrame {
 
+    private static final String[] COLUMNS = { "first_name", "last_name", "gender", "dob", "phone", "email", "address" };
+
     private JTextField firstNameField;
     private JTextField lastNameField;
     private JTextField dobField;
@@ -108,6 +113,8 @@ public class AddPatientFrame extends JFrame {
     }
 
     private void onSave() {
+        if (!Session.check(this, Permission.ADD_PATIENT)) return;
+
         String firstName = firstNameField.getText().trim();
         String lastName  = lastNameField.getText().trim();
         String dobText   = dobField.getText().trim();
@@ -156,27 +163,68 @@ public class AddPatientFrame extends JFrame {
             }
         }
 
-        String sql = "INSERT INTO patients (first_name, last_name, gender, dob, phone, email, address) " +
-                     "VALUES (?, ?, ?, ?, ?, ?, ?)";
+        String sql = "INSERT INTO patients (first_name, last_name, gender, dob, phone, email, address, name_key, " +
+                     "dob_bidx, phone_bidx, email_bidx) " +
+                     "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
 
         try (Connection conn = Database.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
+             PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+
+            // same person already registered under a slightly different spelling?
+            PatientDeduplicator.Person probe = new PatientDeduplicator.Person();
+            probe.firstName = firstName;
+            probe.lastName = lastName;
+            probe.dob = dob.toString();
+            probe.phone = phoneDigits;
+            probe.email = email.isEmpty() ? null : email;
+
+            List<PatientDeduplicator.Match> dups = PatientDeduplicator.findDuplicates(conn, probe);
+            if (!dups.isEmpty() && !confirmNotDuplicate(dups)) {
+                return;
+            }
 
             ps.setString(1, firstName);
             ps.setString(2, lastName);
             ps.setString(3, gender);
-            ps.setString(4, dob.toString());       // normalized YYYY-MM-DD
-            ps.setString(5, phoneDigits);          // digits only
-            ps.setString(6, email.isEmpty() ? null : email);
-            ps.setString(7, address.isEmpty() ? null : address);
+            ps.setString(4, FieldCrypto.encrypt("dob", dob.toString()));   // normalized YYYY-MM-DD
+            ps.setString(5, FieldCrypto.encrypt("phone", phoneDigits));    // digits only
+            ps.setString(6, FieldCrypto.encrypt("email", email.isEmpty() ? null : email));
+            ps.setString(7, FieldCrypto.encrypt("address", address.isEmpty() ? null : address));
+            ps.setString(8, PatientDeduplicator.nameKey(lastName));
+            ps.setString(9, FieldCrypto.blindIndex("dob", dob.toString()));
+            ps.setString(10, FieldCrypto.blindIndex("phone", phoneDigits));
+            ps.setString(11, FieldCrypto.blindIndex("email", email));
 
             ps.executeUpdate();
 
+            try (ResultSet keys = ps.getGeneratedKeys()) {
+                if (keys.next()) {
+                    AuditLog.inserted("patients", keys.getLong(1), COLUMNS, new Object[] {
+                            firstName, lastName, gender, dob.toString(), phoneDigits,
+                            email.isEmpty() ? null : email, address.isEmpty() ? null : address });
+                }
+            }
+
             JOptionPane.showMessageDialog(this, "Patient saved.");
             dispose();
 
         } catch (Exception ex) {
-            JOptionPane.showMessageDialog(this, "Error saving patient: " + ex.getMessage());
+            AppLog.showError(this, "saving patient", ex, sql);
         }
     }
+
+    private boolean confirmNotDuplicate(List<PatientDeduplicator.Match> dups) {
+        StringBuilder sb = new StringBuilder("This patient may already be registered:\n");
+        for (int i = 0; i < Math.min(3, dups.size()); i++) {
+            PatientDeduplicator.Person p = dups.get(i).b;
+            sb.append("\n  ").append(p.displayName())
+              .append(", DOB ").append(p.dob)
+              .append(", phone ").append(p.phone)
+              .append(String.format(" (%.0f%% match)", dups.get(i).score * 100));
+        }
+        sb.append("\n\nSave as a new patient anyway?");
+
+        int choice = JOptionPane.showConfirmDialog(this, sb.toString(), "Possible duplicate", JOptionPane.YES_NO_OPTION);
+        return choice == JOptionPane.YES_OPTION;
+    }
 }
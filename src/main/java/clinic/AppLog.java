@@ -0,0 +1,239 @@
+package clinic;
+
+import javax.swing.JOptionPane;
+import java.awt.Component;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Application log, for finding out afterwards what went wrong on a desk.
+//
+// Every failure shown to the user (and every failed background job) is also written as one JSON
+// line with the operation, user, exception with stack trace, SQLite error code and, where known,
+// the SQL. The calling thread (often the EDT) only drops the entry into a lock-free ring buffer;
+// a writer thread of its own formats and appends it, so logging never waits on the disk.
+// If the ring is full the entry is dropped and counted rather than blocking the window.
+//
+//   clinic.log.dir    folder of clinic.log (default "logs"; in memory mode the log goes to stderr)
+//   clinic.log.maxMb  size at which clinic.log is rolled over to clinic.log.1 (default 10)
+//   clinic.log.files  rolled files kept (default 5)
+public class AppLog {
+
+    private static final String DIR = System.getProperty("clinic.log.dir",
+            Boolean.getBoolean("clinic.db.memory") ? null : "logs");
+    private static final long MAX_BYTES = Long.getLong("clinic.log.maxMb", 10) * 1024 * 1024;
+    private static final int FILES = Integer.getInteger("clinic.log.files", 5);
+
+    private static final int CAPACITY = 4096;
+    private static final int BATCH = 500;
+    private static final long FLUSH_MILLIS = 200;
+
+    private static final RingBuffer<Entry> BUFFER = new RingBuffer<>(CAPACITY);
+    private static final AtomicLong dropped = new AtomicLong();
+
+    // writer thread only
+    private static Writer out;
+    private static long size;
+
+    // kept as given; the stack trace and JSON are built on the writer thread
+    private static final class Entry {
+        final long at = System.currentTimeMillis();
+        final String thread = Thread.currentThread().getName();
+        final String username = Session.username();
+        final String level;
+        final String operation;
+        final String message;
+        final Throwable error;
+        final String sql;
+
+        Entry(String level, String operation, String message, Throwable error, String sql) {
+            this.level = level;
+            this.operation = operation;
+            this.message = message;
+            this.error = error;
+            this.sql = sql;
+        }
+    }
+
+    private AppLog() {
+    }
+
+    public static void start() {
+        ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "clinic-log");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        writer.scheduleWithFixedDelay(AppLog::flush, FLUSH_MILLIS, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(AppLog::flush, "log-shutdown"));
+
+        // anything that escapes to the top of a thread (including the EDT) ends up here too
+        Thread.setDefaultUncaughtExceptionHandler((t, ex) -> {
+            error("uncaught in " + t.getName(), ex);
+            ex.printStackTrace();
+        });
+    }
+
+    public static void info(String operation, String message) {
+        record(new Entry("INFO", operation, message, null, null));
+    }
+
+    public static void warn(String operation, String message) {
+        record(new Entry("WARN", operation, message, null, null));
+    }
+
+    public static void error(String operation, Throwable ex) {
+        error(operation, ex, null);
+    }
+
+    public static void error(String operation, Throwable ex, String sql) {
+        record(new Entry("ERROR", operation, ex.getMessage(), ex, sql));
+    }
+
+    /** Logs the failure, then tells the user "Error <operation>: <message>". */
+    public static void showError(Component parent, String operation, Throwable ex) {
+        showError(parent, operation, ex, null);
+    }
+
+    public static void showError(Component parent, String operation, Throwable ex, String sql) {
+        error(operation, ex, sql);
+        JOptionPane.showMessageDialog(parent, "Error " + operation + ": " + ex.getMessage());
+    }
+
+    private static void record(Entry entry) {
+        if (!BUFFER.offer(entry)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /** Writes everything buffered so far. */
+    public static synchronized void flush() {
+        StringBuilder lines = new StringBuilder();
+        long lost = dropped.getAndSet(0);
+        if (lost > 0) {
+            json(lines, new Entry("WARN", "logging", lost + " log entries dropped, the log could not keep up", null, null));
+        }
+        while (BUFFER.drain(e -> json(lines, e), BATCH) > 0) {
+            if (lines.length() > 0) write(lines);
+        }
+        if (lines.length() > 0) write(lines);
+    }
+
+    private static void write(StringBuilder lines) {
+        String text = lines.toString();
+        lines.setLength(0);
+
+        if (DIR == null) {
+            System.err.print(text);
+            return;
+        }
+        try {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            if (out != null && size + bytes.length > MAX_BYTES) {
+                roll();
+            }
+            if (out == null) {
+                Path file = Paths.get(DIR, "clinic.log");
+                Files.createDirectories(file.getParent());
+                out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                                              StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                size = Files.size(file);
+            }
+            out.write(text);
+            out.flush();
+            size += bytes.length;
+        } catch (IOException ex) {
+            // nowhere better to report it; the entries still reach the console
+            System.err.print(text);
+            System.err.println("Could not write " + DIR + "/clinic.log: " + ex.getMessage());
+            closeQuietly();
+        }
+    }
+
+    // clinic.log -> clinic.log.1 -> ... -> clinic.log.<files>, the oldest is deleted
+    private static void roll() throws IOException {
+        closeQuietly();
+        Path dir = Paths.get(DIR);
+        Files.deleteIfExists(dir.resolve("clinic.log." + FILES));
+        for (int i = FILES - 1; i >= 1; i--) {
+            Path from = dir.resolve("clinic.log." + i);
+            if (Files.exists(from)) {
+                Files.move(from, dir.resolve("clinic.log." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (FILES > 0) {
+            Files.move(dir.resolve("clinic.log"), dir.resolve("clinic.log.1"), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.deleteIfExists(dir.resolve("clinic.log"));
+        }
+    }
+
+    private static void closeQuietly() {
+        if (out == null) return;
+        try {
+            out.close();
+        } catch (IOException ignored) {
+            // reopened on the next write
+        }
+        out = null;
+    }
+
+    private static void json(StringBuilder sb, Entry e) {
+        sb.append("{\"ts\":\"").append(OffsetDateTime.ofInstant(Instant.ofEpochMilli(e.at), ZoneId.systemDefault())).append('"');
+        field(sb, "level", e.level);
+        field(sb, "thread", e.thread);
+        field(sb, "user", e.username);
+        field(sb, "operation", e.operation);
+        field(sb, "message", e.message);
+        if (e.error != null) {
+            field(sb, "exception", e.error.getClass().getName());
+            if (e.error instanceof SQLException) {
+                SQLException sqlEx = (SQLException) e.error;
+                sb.append(",\"errorCode\":").append(sqlEx.getErrorCode());
+                field(sb, "sqlState", sqlEx.getSQLState());
+            }
+        }
+        field(sb, "sql", e.sql);
+        if (e.error != null) {
+            StringWriter trace = new StringWriter();
+            e.error.printStackTrace(new PrintWriter(trace));
+            field(sb, "stack", trace.toString());
+        }
+        sb.append("}\n");
+    }
+
+    private static void field(StringBuilder sb, String name, String value) {
+        if (value == null) return;
+        sb.append(",\"").append(name).append("\":\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+}
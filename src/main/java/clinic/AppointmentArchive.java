@@ -0,0 +1,123 @@
+package clinic;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+// Moves closed (COMPLETED / CANCELLED) appointments older than the horizon out of the hot
+// appointments table into a separate archive database file, attached as schema "archive".
+//
+// Settings (system properties):
+//   clinic.archive.file          archive database file (default "clinic-archive.db")
+//   clinic.archive.horizonDays   closed appointments older than this are archived (default 365)
+public class AppointmentArchive {
+
+    private static final String ARCHIVE_FILE = System.getProperty("clinic.archive.file", "clinic-archive.db");
+    private static final int HORIZON_DAYS = Integer.getInteger("clinic.archive.horizonDays", 365);
+
+    // rows moved per transaction; keeps each write lock short
+    private static final int BATCH = 1000;
+
+    private AppointmentArchive() {
+    }
+
+    public static void startScheduled() {
+        BackgroundJobs.schedule("archive", () -> {
+            try {
+                archiveClosed();
+            } catch (SQLException ex) {
+                throw new RuntimeException(ex);
+            }
+        }, 10, 24 * 60, TimeUnit.MINUTES);
+    }
+
+    /** First day that is still kept in the hot table; anything earlier may be in the archive. */
+    public static LocalDate horizon() {
+        return LocalDate.now().minusDays(HORIZON_DAYS);
+    }
+
+    /** True once anything has been archived (the archive file is created on first attach). */
+    public static boolean exists() {
+        return Files.exists(Paths.get(ARCHIVE_FILE));
+    }
+
+    /** Attaches the archive to conn as schema "archive", creating it on first use. */
+    public static void attach(Connection conn) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("ATTACH DATABASE ? AS archive")) {
+            ps.setString(1, ARCHIVE_FILE);
+            ps.execute();
+        }
+
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS archive.appointments (" +
+                         "  id INTEGER PRIMARY KEY," +
+                         "  patient_id INTEGER NOT NULL," +
+                         "  doctor_id INTEGER NOT NULL," +
+                         "  appointment_datetime TEXT NOT NULL," +
+                         "  reason TEXT," +
+                         "  status TEXT NOT NULL," +
+                         "  archived_at TEXT NOT NULL DEFAULT (datetime('now')))");
+            stmt.execute("CREATE INDEX IF NOT EXISTS archive.idx_archive_datetime " +
+                         "ON appointments(appointment_datetime)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS archive.idx_archive_patient " +
+                         "ON appointments(patient_id)");
+        }
+    }
+
+    /** Archives everything past the horizon in batches. Returns the number of appointments moved. */
+    public static int archiveClosed() throws SQLException {
+        String cutoff = horizon().toString(); // compares below any "YYYY-MM-DD HH:MM" on that day
+        int moved = 0;
+
+        try (Connection conn = Database.getConnection()) {
+            attach(conn);
+
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("CREATE TEMP TABLE IF NOT EXISTS archive_batch (id INTEGER PRIMARY KEY)");
+            }
+
+            String pickSql =
+                    "INSERT INTO temp.archive_batch (id) " +
+                    "SELECT id FROM main.appointments " +
+                    "WHERE appointment_datetime < ? AND status IN ('COMPLETED', 'CANCELLED') " +
+                    "ORDER BY appointment_datetime LIMIT " + BATCH;
+
+            // OR REPLACE: a batch copied but not deleted (e.g. crash between the two files) is simply redone
+            String copySql =
+                    "INSERT OR REPLACE INTO archive.appointments " +
+                    "  (id, patient_id, doctor_id, appointment_datetime, reason, status) " +
+                    "SELECT id, patient_id, doctor_id, appointment_datetime, reason, status " +
+                    "FROM main.appointments WHERE id IN (SELECT id FROM temp.archive_batch)";
+
+            String deleteSql = "DELETE FROM main.appointments WHERE id IN (SELECT id FROM temp.archive_batch)";
+
+            while (true) {
+                int batch;
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("BEGIN IMMEDIATE");
+                    try {
+                        stmt.execute("DELETE FROM temp.archive_batch");
+                        try (PreparedStatement pick = conn.prepareStatement(pickSql)) {
+                            pick.setString(1, cutoff);
+                            batch = pick.executeUpdate();
+                        }
+                        stmt.executeUpdate(copySql);
+                        stmt.executeUpdate(deleteSql);
+                        stmt.execute("COMMIT");
+                    } catch (SQLException ex) {
+                        stmt.execute("ROLLBACK");
+                        throw ex;
+                    }
+                }
+
+                moved += batch;
+                if (batch < BATCH) return moved;
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package clinic;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+// Books a series of appointments for one patient/doctor. Slots are "YYYY-MM-DD HH:MM" strings
+// (the stored format). All slots are checked against the doctor's BOOKED appointments in one
+// query, and the free ones are inserted in a single transaction.
+public class AppointmentSeries {
+
+    // columns recorded in the audit trail for a new appointment
+    static final String[] AUDIT_COLUMNS = { "patient_id", "doctor_id", "appointment_datetime", "reason", "status" };
+
+    public static class Result {
+        public final List<String> booked = new ArrayList<>();
+        public final List<Long> ids = new ArrayList<>();
+        public final List<String> conflicts = new ArrayList<>();
+    }
+
+    private AppointmentSeries() {
+    }
+
+    /** Slots the doctor already has a BOOKED appointment at. One round trip for the whole series. */
+    public static Set<String> findConflicts(Connection conn, int doctorId, List<String> slots) throws SQLException {
+        Set<String> taken = new LinkedHashSet<>();
+        if (slots.isEmpty()) return taken;
+
+        // WITH c(dt) AS (VALUES (?), (?), ...) -- joined through uq_doctor_time_booked
+        StringBuilder sql = new StringBuilder("WITH c(dt) AS (VALUES ");
+        for (int i = 0; i < slots.size(); i++) {
+            sql.append(i == 0 ? "(?)" : ", (?)");
+        }
+        sql.append(") SELECT c.dt FROM c JOIN appointments a " +
+                   "ON a.doctor_id = ? AND a.appointment_datetime = c.dt AND a.status = 'BOOKED'");
+
+        try (PreparedStatement ps = conn.prepareStatement(sql.toString())) {
+            int i = 1;
+            for (String slot : slots) {
+                ps.setString(i++, slot);
+            }
+            ps.setInt(i, doctorId);
+
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    taken.add(rs.getString(1));
+                }
+            }
+        }
+        return taken;
+    }
+
+    /**
+     * Books every slot that is still free. The conflict check is repeated under the write lock,
+     * so slots taken by another desk since the preview are reported instead of failing the batch.
+     */
+    public static Result book(int patientId, int doctorId, List<String> slots, String reason) throws SQLException {
+        Session.require(Permission.BOOK_APPOINTMENT);
+
+        Result result = new Result();
+
+        String sql = "INSERT INTO appointments (patient_id, doctor_id, appointment_datetime, reason, status) " +
+                     "VALUES (?, ?, ?, ?, 'BOOKED')";
+
+        try (Connection conn = Database.getConnection();
+             Statement tx = conn.createStatement()) {
+
+            tx.execute("BEGIN IMMEDIATE");
+            try {
+                Set<String> taken = findConflicts(conn, doctorId, slots);
+
+                try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                    for (String slot : slots) {
+                        if (taken.contains(slot)) {
+                            result.conflicts.add(slot);
+                            continue;
+                        }
+                        ps.setInt(1, patientId);
+                        ps.setInt(2, doctorId);
+                        ps.setString(3, slot);
+                        ps.setString(4, reason);
+                        ps.addBatch();
+                        result.booked.add(slot);
+                    }
+                    ps.executeBatch();
+                }
+
+                // ids of the new rows for the audit trail (one BOOKED row per doctor and time)
+                try (PreparedStatement ps = conn.prepareStatement(
+                        "SELECT id FROM appointments WHERE doctor_id = ? AND appointment_datetime = ? AND status = 'BOOKED'")) {
+                    for (String slot : result.booked) {
+                        ps.setInt(1, doctorId);
+                        ps.setString(2, slot);
+                        try (ResultSet rs = ps.executeQuery()) {
+                            if (rs.next()) result.ids.add(rs.getLong(1));
+                        }
+                    }
+                }
+
+                tx.execute("COMMIT");
+            } catch (SQLException ex) {
+                tx.execute("ROLLBACK");
+                throw ex;
+            }
+        }
+
+        Metrics.booked("series", result.booked.size());
+        for (int i = 0; i < result.ids.size(); i++) {
+            AuditLog.inserted("appointments", result.ids.get(i), AUDIT_COLUMNS,
+                              new Object[] { patientId, doctorId, result.booked.get(i), reason, "BOOKED" });
+        }
+        return result;
+    }
+}
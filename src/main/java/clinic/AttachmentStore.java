@@ -0,0 +1,332 @@
+package clinic;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Scanned referrals, lab reports and images kept with a patient.
+//
+// The files are stored outside clinic.db, in the attachment folder under the SHA-256 of their
+// content (attachments/ab/ab12...): the same document attached twice, or to two patients, is
+// stored once, and a stored file never changes. The attachments table (migration 15) links
+// patients to files; a file is deleted when the last attachment using it is removed, after that
+// removal has committed (a crash in between leaves an unused file behind, never a missing one).
+// Files are copied channel to channel in small direct buffers, never loaded onto the heap.
+// Unlike the patient fields in clinic.db (see FieldCrypto), the files are NOT encrypted: protect
+// the attachment folder and its backups like any other folder of patient records.
+//
+//   clinic.attachments.dir         the attachment folder (default "attachments"); back it up
+//                                  along with the backups folder
+//   clinic.attachments.maxMb       largest file accepted (default 100)
+//   clinic.attachments.thumbnails  thumbnails kept in memory (default 200)
+public class AttachmentStore {
+
+    public static final class Attachment {
+        public long id;
+        public int patientId;
+        public String sha256;
+        public String fileName;
+        public long size;
+        public String addedAt;
+        public String addedBy;
+    }
+
+    private static final Path ROOT = Paths.get(System.getProperty("clinic.attachments.dir", "attachments"));
+    private static final long MAX_BYTES = Long.getLong("clinic.attachments.maxMb", 100) * 1024 * 1024;
+    private static final int THUMBNAILS = Integer.getInteger("clinic.attachments.thumbnails", 200);
+
+    public static final int THUMB_SIZE = 64;
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private static final String[] COLUMNS = { "patient_id", "file_name", "sha256", "size" };
+
+    // not an image (or unreadable); cached too, so it isn't tried again
+    private static final BufferedImage NO_THUMBNAIL = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+
+    // by sha256, least recently shown dropped first
+    private static final Map<String, BufferedImage> THUMB_CACHE = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, BufferedImage> eldest) {
+            return size() > THUMBNAILS;
+        }
+    };
+
+    private AttachmentStore() {
+    }
+
+    public static List<Attachment> list(int patientId) throws SQLException {
+        String sql = "SELECT id, patient_id, sha256, file_name, size, added_at, added_by FROM attachments " +
+                     "WHERE patient_id = ? ORDER BY added_at DESC, id DESC";
+        List<Attachment> out = new ArrayList<>();
+
+        try (Connection conn = Database.getReadConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, patientId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Attachment a = new Attachment();
+                    a.id = rs.getLong("id");
+                    a.patientId = rs.getInt("patient_id");
+                    a.sha256 = rs.getString("sha256");
+                    a.fileName = rs.getString("file_name");
+                    a.size = rs.getLong("size");
+                    a.addedAt = rs.getString("added_at");
+                    a.addedBy = rs.getString("added_by");
+                    out.add(a);
+                }
+            }
+        }
+        return out;
+    }
+
+    /** Attaches a copy of source to the patient. */
+    public static Attachment add(int patientId, Path source) throws SQLException, IOException {
+        Session.require(Permission.EDIT_PATIENT);
+
+        long size = Files.size(source);
+        if (size > MAX_BYTES) {
+            throw new IOException(source.getFileName() + " is larger than " + (MAX_BYTES / (1024 * 1024)) + " MB");
+        }
+
+        Path tmpDir = ROOT.resolve("tmp");
+        Files.createDirectories(tmpDir);
+        Path tmp = Files.createTempFile(tmpDir, "upload-", ".part");
+
+        try {
+            // one pass: the hash needs every byte anyway, so they go through one small direct buffer
+            String sha256;
+            MessageDigest digest = sha256();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+            try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                while (in.read(buffer) != -1) {
+                    buffer.flip();
+                    digest.update(buffer.duplicate());
+                    while (buffer.hasRemaining()) out.write(buffer);
+                    buffer.clear();
+                }
+                out.force(true);
+            }
+            sha256 = hex(digest.digest());
+
+            Attachment a = new Attachment();
+            a.patientId = patientId;
+            a.sha256 = sha256;
+            a.fileName = source.getFileName().toString();
+            a.size = Files.size(tmp);
+            a.addedBy = Session.username();
+
+            try (Connection conn = Database.getConnection();
+                 Statement tx = conn.createStatement()) {
+
+                // under the write lock, so a concurrent remove can't delete the file we rely on
+                tx.execute("BEGIN IMMEDIATE");
+                Path blob = blobPath(sha256);
+                boolean placed = false;
+                try {
+                    if (!Files.exists(blob)) {
+                        Files.createDirectories(blob.getParent());
+                        Files.move(tmp, blob, StandardCopyOption.ATOMIC_MOVE);
+                        placed = true;
+                    }
+
+                    try (PreparedStatement ps = conn.prepareStatement(
+                            "INSERT INTO attachments (patient_id, sha256, file_name, size, added_by) VALUES (?, ?, ?, ?, ?)",
+                            Statement.RETURN_GENERATED_KEYS)) {
+                        ps.setInt(1, patientId);
+                        ps.setString(2, sha256);
+                        ps.setString(3, a.fileName);
+                        ps.setLong(4, a.size);
+                        ps.setString(5, a.addedBy);
+                        ps.executeUpdate();
+                        try (ResultSet keys = ps.getGeneratedKeys()) {
+                            keys.next();
+                            a.id = keys.getLong(1);
+                        }
+                    }
+                    tx.execute("COMMIT");
+                } catch (SQLException | IOException | RuntimeException ex) {
+                    tx.execute("ROLLBACK");
+                    if (placed) Files.deleteIfExists(blob); // no row points at it
+                    throw ex;
+                }
+            }
+
+            AuditLog.inserted("attachments", a.id, COLUMNS, new Object[] { patientId, a.fileName, sha256, a.size });
+            return a;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /** Removes the attachment; its file goes too unless another attachment uses it. */
+    public static void remove(Attachment a) throws SQLException {
+        Session.require(Permission.EDIT_PATIENT);
+
+        try (Connection conn = Database.getConnection();
+             Statement tx = conn.createStatement()) {
+
+            try (PreparedStatement ps = conn.prepareStatement("DELETE FROM attachments WHERE id = ?")) {
+                ps.setLong(1, a.id);
+                ps.executeUpdate();
+            }
+
+            // only once the row is gone for good: a file nothing points at is harmless, a row
+            // pointing at a deleted file is not. The write lock keeps add() from reusing it meanwhile.
+            tx.execute("BEGIN IMMEDIATE");
+            try {
+                boolean stillUsed;
+                try (PreparedStatement ps = conn.prepareStatement("SELECT 1 FROM attachments WHERE sha256 = ? LIMIT 1")) {
+                    ps.setString(1, a.sha256);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        stillUsed = rs.next();
+                    }
+                }
+                if (!stillUsed) {
+                    try {
+                        Files.deleteIfExists(blobPath(a.sha256));
+                    } catch (IOException ex) {
+                        // the attachment is gone all the same; the file is just left over
+                        AppLog.warn("removing attachment", "could not delete " + blobPath(a.sha256) + ": " + ex);
+                    }
+                }
+                tx.execute("COMMIT");
+            } catch (SQLException | RuntimeException ex) {
+                tx.execute("ROLLBACK");
+                throw ex;
+            }
+        }
+
+        AuditLog.deleted("attachments", a.id, COLUMNS, new Object[] { a.patientId, a.fileName, a.sha256, a.size });
+    }
+
+    /** Copies the attachment to target; the kernel moves the bytes file to file (transferTo). */
+    public static void export(Attachment a, Path target) throws IOException {
+        try (FileChannel in = FileChannel.open(blobPath(a.sha256), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE,
+                                                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            long done = 0;
+            // transferTo may move less than asked (e.g. 2 GB per call on some systems)
+            while (done < size) {
+                done += in.transferTo(done, size - done, out);
+            }
+        }
+    }
+
+    /**
+     * Small preview of an image attachment, or null for other files. Decodes only a subsample of
+     * big scans, so a 50 MB photo doesn't end up on the heap. Call off the EDT.
+     */
+    public static BufferedImage thumbnail(Attachment a) {
+        synchronized (THUMB_CACHE) {
+            BufferedImage cached = THUMB_CACHE.get(a.sha256);
+            if (cached != null) return cached == NO_THUMBNAIL ? null : cached;
+        }
+
+        BufferedImage thumb = null;
+        try {
+            thumb = readThumbnail(blobPath(a.sha256));
+        } catch (IOException | RuntimeException ex) {
+            // damaged or unsupported image: shown without a preview
+        }
+
+        synchronized (THUMB_CACHE) {
+            THUMB_CACHE.put(a.sha256, thumb == null ? NO_THUMBNAIL : thumb);
+        }
+        return thumb;
+    }
+
+    /** The thumbnail if it is already in memory, without reading anything. */
+    public static BufferedImage cachedThumbnail(Attachment a) {
+        synchronized (THUMB_CACHE) {
+            BufferedImage cached = THUMB_CACHE.get(a.sha256);
+            Metrics.cacheLookup("thumbnails", cached != null);
+            return cached == NO_THUMBNAIL ? null : cached;
+        }
+    }
+
+    public static boolean hasCachedThumbnail(Attachment a) {
+        synchronized (THUMB_CACHE) {
+            return THUMB_CACHE.containsKey(a.sha256);
+        }
+    }
+
+    private static BufferedImage readThumbnail(Path file) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file.toFile())) {
+            if (in == null) return null;
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) return null;
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int w = reader.getWidth(0);
+                int h = reader.getHeight(0);
+
+                // read every n-th pixel, keeping about twice the thumbnail size for a smooth scale-down
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = Math.max(1, Math.max(w, h) / (THUMB_SIZE * 2));
+                param.setSourceSubsampling(step, step, 0, 0);
+                BufferedImage image = reader.read(0, param);
+
+                double scale = Math.min(1.0, (double) THUMB_SIZE / Math.max(image.getWidth(), image.getHeight()));
+                int tw = Math.max(1, (int) Math.round(image.getWidth() * scale));
+                int th = Math.max(1, (int) Math.round(image.getHeight() * scale));
+
+                BufferedImage thumb = new BufferedImage(tw, th, BufferedImage.TYPE_INT_ARGB);
+                Graphics2D g = thumb.createGraphics();
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.drawImage(image, 0, 0, tw, th, null);
+                g.dispose();
+                return thumb;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static Path blobPath(String sha256) {
+        return ROOT.resolve(sha256.substring(0, 2)).resolve(sha256);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
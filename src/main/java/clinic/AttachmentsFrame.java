@@ -0,0 +1,217 @@
+package clinic;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+// Documents of one patient: scanned referrals, lab reports, images (see AttachmentStore)
+public class AttachmentsFrame extends JFrame {
+
+    private final int patientId;
+    private final DefaultListModel<AttachmentStore.Attachment> listModel = new DefaultListModel<>();
+    private JList<AttachmentStore.Attachment> list;
+
+    // thumbnails being read in the background
+    private final Set<String> loading = new HashSet<>();
+
+    private static final Icon FILE_ICON = UIManager.getIcon("FileView.fileIcon");
+
+    public AttachmentsFrame(int patientId, String patientName) {
+        this.patientId = patientId;
+
+        setTitle("Documents - " + patientName);
+        setSize(560, 440);
+        setLocationRelativeTo(null);
+        setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+
+        initComponents();
+        loadAttachments();
+    }
+
+    private void initComponents() {
+        setLayout(new BorderLayout());
+
+        list = new JList<>(listModel);
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        list.setCellRenderer(new AttachmentRenderer());
+        list.setFixedCellHeight(AttachmentStore.THUMB_SIZE + 8);
+        add(new JScrollPane(list), BorderLayout.CENTER);
+
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        JButton addButton = new JButton("Add...");
+        JButton openButton = new JButton("Open");
+        JButton saveButton = new JButton("Save As...");
+        JButton removeButton = new JButton("Remove");
+        JButton closeButton = new JButton("Close");
+        buttonPanel.add(addButton);
+        buttonPanel.add(openButton);
+        buttonPanel.add(saveButton);
+        buttonPanel.add(removeButton);
+        buttonPanel.add(closeButton);
+        add(buttonPanel, BorderLayout.SOUTH);
+
+        addButton.addActionListener(e -> onAdd());
+        openButton.addActionListener(e -> onOpen());
+        saveButton.addActionListener(e -> onSaveAs());
+        removeButton.addActionListener(e -> onRemove());
+        closeButton.addActionListener(e -> dispose());
+    }
+
+    private void loadAttachments() {
+        listModel.clear();
+        try {
+            for (AttachmentStore.Attachment a : AttachmentStore.list(patientId)) {
+                listModel.addElement(a);
+            }
+        } catch (Exception ex) {
+            AppLog.showError(this, "loading documents", ex);
+        }
+    }
+
+    private void onAdd() {
+        if (!Session.check(this, Permission.EDIT_PATIENT)) return;
+
+        JFileChooser chooser = new JFileChooser();
+        chooser.setMultiSelectionEnabled(true);
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        File[] files = chooser.getSelectedFiles();
+
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        // large scans take a moment to copy; keep the window responsive
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                for (File f : files) {
+                    AttachmentStore.add(patientId, f.toPath());
+                }
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                setCursor(Cursor.getDefaultCursor());
+                try {
+                    get();
+                } catch (Exception ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    AppLog.showError(AttachmentsFrame.this, "adding document", cause);
+                }
+                loadAttachments();
+            }
+        }.execute();
+    }
+
+    private void onOpen() {
+        AttachmentStore.Attachment a = selected();
+        if (a == null) return;
+
+        if (!Desktop.isDesktopSupported() || !Desktop.getDesktop().isSupported(Desktop.Action.OPEN)) {
+            JOptionPane.showMessageDialog(this, "Opening files is not supported here. Use Save As... instead.");
+            return;
+        }
+        try {
+            // a copy under its own name, so the system picks the right program
+            Path dir = Files.createTempDirectory("clinic-doc-");
+            Path copy = dir.resolve(a.fileName);
+            AttachmentStore.export(a, copy);
+            copy.toFile().deleteOnExit();
+            dir.toFile().deleteOnExit();
+            Desktop.getDesktop().open(copy.toFile());
+        } catch (Exception ex) {
+            AppLog.showError(this, "opening document", ex);
+        }
+    }
+
+    private void onSaveAs() {
+        AttachmentStore.Attachment a = selected();
+        if (a == null) return;
+
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File(a.fileName));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+
+        try {
+            AttachmentStore.export(a, chooser.getSelectedFile().toPath());
+        } catch (Exception ex) {
+            AppLog.showError(this, "saving document", ex);
+        }
+    }
+
+    private void onRemove() {
+        if (!Session.check(this, Permission.EDIT_PATIENT)) return;
+        AttachmentStore.Attachment a = selected();
+        if (a == null) return;
+
+        int choice = JOptionPane.showConfirmDialog(this, "Remove " + a.fileName + " from this patient?",
+                                                   "Remove document", JOptionPane.OK_CANCEL_OPTION);
+        if (choice != JOptionPane.OK_OPTION) return;
+
+        try {
+            AttachmentStore.remove(a);
+        } catch (Exception ex) {
+            AppLog.showError(this, "removing document", ex);
+        }
+        loadAttachments();
+    }
+
+    private AttachmentStore.Attachment selected() {
+        AttachmentStore.Attachment a = list.getSelectedValue();
+        if (a == null) {
+            JOptionPane.showMessageDialog(this, "Select a document first.");
+        }
+        return a;
+    }
+
+    // reads the thumbnail off the EDT the first time a row is painted, then repaints the list
+    private void requestThumbnail(AttachmentStore.Attachment a) {
+        if (!loading.add(a.sha256)) return;
+
+        new SwingWorker<BufferedImage, Void>() {
+            @Override
+            protected BufferedImage doInBackground() {
+                return AttachmentStore.thumbnail(a);
+            }
+
+            @Override
+            protected void done() {
+                loading.remove(a.sha256);
+                list.repaint();
+            }
+        }.execute();
+    }
+
+    private static String formatSize(long bytes) {
+        if (bytes < 1024) return bytes + " B";
+        if (bytes < 1024 * 1024) return (bytes / 1024) + " KB";
+        return String.format("%.1f MB", bytes / (1024.0 * 1024));
+    }
+
+    private class AttachmentRenderer extends DefaultListCellRenderer {
+        @Override
+        public Component getListCellRendererComponent(JList<?> l, Object value, int index,
+                                                      boolean isSelected, boolean cellHasFocus) {
+            super.getListCellRendererComponent(l, value, index, isSelected, cellHasFocus);
+            AttachmentStore.Attachment a = (AttachmentStore.Attachment) value;
+
+            setText("<html><b>" + escape(a.fileName) + "</b><br>" + formatSize(a.size) + " - added " +
+                    a.addedAt + (a.addedBy == null ? "" : " by " + escape(a.addedBy)) + "</html>");
+
+            BufferedImage thumb = AttachmentStore.cachedThumbnail(a);
+            if (thumb == null && !AttachmentStore.hasCachedThumbnail(a)) {
+                requestThumbnail(a);
+            }
+            setIcon(thumb != null ? new ImageIcon(thumb) : FILE_ICON);
+            setIconTextGap(10);
+            return this;
+        }
+    }
+
+    private static String escape(String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+}
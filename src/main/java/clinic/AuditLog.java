@@ -0,0 +1,189 @@
+package clinic;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Who changed what, for compliance. Save paths only drop an entry into a lock-free ring buffer;
+// the background job thread drains it and appends the entries to audit_log in one transaction
+// per batch. audit_log rejects UPDATE and DELETE (see migration 9), so the trail is append-only.
+public class AuditLog {
+
+    private static final int CAPACITY = 4096;
+    private static final int BATCH = 500;
+    private static final long FLUSH_MILLIS = 500;
+
+    private static final DateTimeFormatter TS_FMT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+
+    private static final RingBuffer<Entry> BUFFER = new RingBuffer<>(CAPACITY);
+
+    // entries that didn't fit in the ring, or whose write failed; written first on the next flush
+    private static final List<Entry> pending = new ArrayList<>();
+
+    // values are kept as given and only turned into JSON on the flush thread
+    private static final class Entry {
+        final long at = System.currentTimeMillis();
+        final String username = Session.username();
+        final String action;
+        final String table;
+        final long rowId;
+        final String[] columns;
+        final Object[] before;
+        final Object[] after;
+
+        Entry(String action, String table, long rowId, String[] columns, Object[] before, Object[] after) {
+            this.action = action;
+            this.table = table;
+            this.rowId = rowId;
+            this.columns = columns;
+            this.before = before;
+            this.after = after;
+        }
+    }
+
+    private AuditLog() {
+    }
+
+    public static void start() {
+        BackgroundJobs.schedule("audit", AuditLog::flush, FLUSH_MILLIS, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(AuditLog::flush, "audit-shutdown"));
+    }
+
+    public static void inserted(String table, long rowId, String[] columns, Object[] values) {
+        record(new Entry("INSERT", table, rowId, columns, null, values));
+    }
+
+    /** Records only the columns whose value changed; nothing if none did. */
+    public static void updated(String table, long rowId, String[] columns, Object[] before, Object[] after) {
+        List<Integer> changed = new ArrayList<>();
+        for (int i = 0; i < columns.length; i++) {
+            if (!String.valueOf(before[i]).equals(String.valueOf(after[i]))) changed.add(i);
+        }
+        if (changed.isEmpty()) return;
+
+        String[] cols = new String[changed.size()];
+        Object[] b = new Object[changed.size()];
+        Object[] a = new Object[changed.size()];
+        for (int k = 0; k < cols.length; k++) {
+            int i = changed.get(k);
+            cols[k] = columns[i];
+            b[k] = before[i];
+            a[k] = after[i];
+        }
+        record(new Entry("UPDATE", table, rowId, cols, b, a));
+    }
+
+    public static void deleted(String table, long rowId, String[] columns, Object[] values) {
+        record(new Entry("DELETE", table, rowId, columns, values, null));
+    }
+
+    private static void record(Entry entry) {
+        if (!BUFFER.offer(entry)) {
+            // ring full (flush thread busy with a backup?): park it rather than lose it
+            synchronized (pending) {
+                pending.add(entry);
+            }
+        }
+    }
+
+    /** Writes everything buffered so far. */
+    public static synchronized void flush() {
+        List<Entry> batch;
+        synchronized (pending) {
+            batch = new ArrayList<>(pending);
+            pending.clear();
+        }
+
+        do {
+            if (!batch.isEmpty()) {
+                try {
+                    write(batch);
+                } catch (SQLException ex) {
+                    // keep them for the next run; they are still in order ahead of newer entries
+                    synchronized (pending) {
+                        pending.addAll(0, batch);
+                    }
+                    AppLog.error("writing audit log", ex);
+                    return;
+                }
+                batch.clear();
+            }
+        } while (BUFFER.drain(batch::add, BATCH) > 0);
+    }
+
+    private static void write(List<Entry> batch) throws SQLException {
+        String sql = "INSERT INTO audit_log (at, username, action, table_name, row_id, before_values, after_values) " +
+                     "VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+        try (Connection conn = Database.getConnection();
+             Statement tx = conn.createStatement();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+
+            tx.execute("BEGIN IMMEDIATE");
+            try {
+                for (Entry e : batch) {
+                    ps.setString(1, TS_FMT.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(e.at), ZoneId.systemDefault())));
+                    ps.setString(2, e.username);
+                    ps.setString(3, e.action);
+                    ps.setString(4, e.table);
+                    ps.setLong(5, e.rowId);
+                    ps.setString(6, json(e.table, e.columns, e.before));
+                    ps.setString(7, json(e.table, e.columns, e.after));
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                tx.execute("COMMIT");
+            } catch (SQLException ex) {
+                tx.execute("ROLLBACK");
+                throw ex;
+            }
+        }
+    }
+
+    // {"column":"value",...}; null when there is no before (insert) or after (delete) image.
+    // Encrypted patient columns stay encrypted here too.
+    static String json(String table, String[] columns, Object[] values) {
+        if (values == null) return null;
+
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) sb.append(',');
+            quote(sb, columns[i]).append(':');
+            Object v = FieldCrypto.protect(table, columns[i], values[i]);
+            if (v == null) {
+                sb.append("null");
+            } else if (v instanceof Number) {
+                sb.append(v);
+            } else {
+                quote(sb, v.toString());
+            }
+        }
+        return sb.append('}').toString();
+    }
+
+    private static StringBuilder quote(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+            }
+        }
+        return sb.append('"');
+    }
+}
@@ -0,0 +1,40 @@
+package clinic;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// One daemon thread for periodic maintenance (backups, archiving, ...).
+// Jobs run one at a time, so they never compete with each other for the database write lock.
+public class BackgroundJobs {
+
+    private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "clinic-jobs");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    private BackgroundJobs() {
+    }
+
+    public static ScheduledFuture<?> schedule(String name, Runnable job, long initialDelay, long period, TimeUnit unit) {
+        return EXECUTOR.scheduleWithFixedDelay(guarded(name, job), initialDelay, period, unit);
+    }
+
+    public static void runOnce(String name, Runnable job) {
+        EXECUTOR.execute(guarded(name, job));
+    }
+
+    // an exception would otherwise cancel all future runs of a periodic job
+    private static Runnable guarded(String name, Runnable job) {
+        return () -> {
+            try {
+                job.run();
+            } catch (RuntimeException ex) {
+                AppLog.error("background job " + name, ex);
+            }
+        };
+    }
+}
@@ -0,0 +1,163 @@
+package clinic;
+
+import org.sqlite.SQLiteConnection;
+import org.sqlite.core.DB;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Hot backups of clinic.db using SQLite's online backup API, so the app can keep running.
+// Snapshots are gzip'd into the backup folder as clinic-yyyyMMdd-HHmmss.db.gz and rotated.
+//
+// Settings (system properties):
+//   clinic.backup.dir              folder for snapshots (default "backups")
+//   clinic.backup.intervalMinutes  minutes between scheduled snapshots, 0 = off (default 60)
+//   clinic.backup.keep             snapshots to keep (default 24)
+//   clinic.backup.pagesPerStep     pages copied per step (default 64)
+//   clinic.backup.stepPauseMs      pause between steps, lets bookings get the lock (default 20)
+public class BackupService {
+
+    private static final Path BACKUP_DIR = Paths.get(System.getProperty("clinic.backup.dir", "backups"));
+    private static final long INTERVAL_MINUTES = Long.getLong("clinic.backup.intervalMinutes", 60);
+    private static final int KEEP = Integer.getInteger("clinic.backup.keep", 24);
+    private static final int PAGES_PER_STEP = Integer.getInteger("clinic.backup.pagesPerStep", 64);
+    private static final long STEP_PAUSE_MS = Long.getLong("clinic.backup.stepPauseMs", 20);
+
+    private static final String PREFIX = "clinic-";
+    private static final String SUFFIX = ".db.gz";
+    private static final DateTimeFormatter STAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    // how often the backup API retries a step when the source is locked, and how long it waits
+    private static final int BUSY_RETRIES = 100;
+    private static final int BUSY_SLEEP_MS = 50;
+
+    private BackupService() {
+    }
+
+    public static void startScheduled() {
+        if (INTERVAL_MINUTES <= 0) return;
+
+        BackgroundJobs.schedule("backup", () -> {
+            try {
+                snapshot();
+            } catch (IOException | SQLException ex) {
+                throw new RuntimeException(ex);
+            }
+        }, INTERVAL_MINUTES, INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /** Takes one compressed snapshot and rotates old ones. Returns the snapshot file. */
+    public static Path snapshot() throws IOException, SQLException {
+        Files.createDirectories(BACKUP_DIR);
+
+        Path target = BACKUP_DIR.resolve(PREFIX + LocalDateTime.now().format(STAMP) + SUFFIX);
+        Path raw = Files.createTempFile(BACKUP_DIR, "snapshot-", ".db");
+
+        try {
+            try (Connection conn = Database.getConnection()) {
+                DB db = conn.unwrap(SQLiteConnection.class).getDatabase();
+
+                // the observer runs between steps; sleeping here releases the read lock for writers
+                DB.ProgressObserver throttle = (remaining, pageCount) -> {
+                    if (remaining > 0 && STEP_PAUSE_MS > 0) {
+                        try {
+                            Thread.sleep(STEP_PAUSE_MS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                };
+
+                int rc = db.backup("main", raw.toString(), throttle, BUSY_SLEEP_MS, BUSY_RETRIES, PAGES_PER_STEP);
+                if (rc != 0) {
+                    throw new SQLException("SQLite backup failed with code " + rc);
+                }
+            }
+
+            try (InputStream in = Files.newInputStream(raw);
+                 OutputStream out = new GZIPOutputStream(Files.newOutputStream(target), 64 * 1024)) {
+                in.transferTo(out);
+            }
+        } finally {
+            Files.deleteIfExists(raw);
+        }
+
+        rotate();
+        return target;
+    }
+
+    /**
+     * Replaces the live database with a snapshot after checking it with PRAGMA integrity_check.
+     * Meant for the --restore command line, with no other desk using clinic.db.
+     */
+    public static void restore(Path snapshot) throws IOException, SQLException {
+        Path raw = Files.createTempFile("clinic-restore-", ".db");
+
+        try {
+            try (InputStream in = new GZIPInputStream(Files.newInputStream(snapshot), 64 * 1024);
+                 OutputStream out = Files.newOutputStream(raw)) {
+                in.transferTo(out);
+            }
+
+            String check = integrityCheck(raw);
+            if (!"ok".equalsIgnoreCase(check)) {
+                throw new SQLException("Snapshot " + snapshot + " failed integrity_check: " + check);
+            }
+
+            try (Connection conn = Database.getConnection()) {
+                DB db = conn.unwrap(SQLiteConnection.class).getDatabase();
+                int rc = db.restore("main", raw.toString(), null, BUSY_SLEEP_MS, BUSY_RETRIES, -1);
+                if (rc != 0) {
+                    throw new SQLException("SQLite restore failed with code " + rc);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(raw);
+        }
+    }
+
+    private static String integrityCheck(Path dbFile) throws SQLException {
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile);
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA integrity_check")) {
+
+            StringBuilder sb = new StringBuilder();
+            while (rs.next()) {
+                if (sb.length() > 0) sb.append("; ");
+                sb.append(rs.getString(1));
+            }
+            return sb.toString();
+        }
+    }
+
+    // timestamped names sort chronologically, so the oldest come first
+    private static void rotate() throws IOException {
+        List<Path> snapshots = new ArrayList<>();
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(BACKUP_DIR, PREFIX + "*" + SUFFIX)) {
+            dir.forEach(snapshots::add);
+        }
+        Collections.sort(snapshots);
+
+        for (int i = 0; i < snapshots.size() - KEEP; i++) {
+            Files.deleteIfExists(snapshots.get(i));
+        }
+    }
+}
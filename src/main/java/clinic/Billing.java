@@ -0,0 +1,479 @@
+package clinic;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Fees, invoices and payments.
+//
+// Completed appointments are invoiced by an end-of-day job: one INSERT ... SELECT per batch turns
+// every COMPLETED appointment without an invoice into one, priced by the fee for the doctor's
+// specialization. invoices.appointment_id is unique, so running it twice (or on two desks) is
+// harmless. Appointments completed before billing was switched on (billing_state.since), or whose
+// status was set more than lookbackDays after the day, are left to be invoiced by hand.
+// Open, unpaid invoices whose appointment is no longer COMPLETED are voided by the same job (and
+// reopened if it is set back to COMPLETED).
+//
+// Outstanding lists are read a page at a time with keyset pagination (WHERE key > last key seen),
+// on partial indexes over OPEN invoices, so a page costs the same however far down the list it is.
+//
+// Settings (system properties):
+//   clinic.billing.runAt         time of the end-of-day run (default 20:00; it also runs shortly
+//                                after start, to catch up on a day the app wasn't open)
+//   clinic.billing.lookbackDays  how far back completed appointments are picked up (default 30)
+public class Billing {
+
+    public static class Fee {
+        public String specialization;
+        public String service;
+        public long feeCents;
+    }
+
+    public static class Invoice {
+        public long id;
+        public String issuedOn;
+        public String patient;
+        public String doctor;
+        public String service;
+        public long amountCents;
+        public long paidCents;
+
+        public long balanceCents() {
+            return amountCents - paidCents;
+        }
+    }
+
+    public static class PatientBalance {
+        public int patientId;
+        public String patient;
+        public int openInvoices;
+        public long balanceCents;
+        public String oldest;
+    }
+
+    public static class RunResult {
+        public int invoiced;
+        public int voided;
+        public int reopened;
+        public int withoutFee; // completed but no fee for the doctor's specialization
+
+        @Override
+        public String toString() {
+            return invoiced + " invoices created, " + voided + " voided, " + reopened + " reopened" +
+                   (withoutFee > 0 ? "; " + withoutFee + " completed appointments have no fee for their specialization" : "");
+        }
+    }
+
+    private static final LocalTime RUN_AT = LocalTime.parse(System.getProperty("clinic.billing.runAt", "20:00"));
+    private static final int LOOKBACK_DAYS = Integer.getInteger("clinic.billing.lookbackDays", 30);
+
+    // invoices created per transaction; keeps each write lock short
+    private static final int BATCH = 500;
+
+    private static final String[] INVOICE_COLUMNS = { "appointment_id", "patient_id", "service", "amount_cents" };
+    private static final String[] PAYMENT_COLUMNS = { "invoice_id", "amount_cents", "method" };
+    private static final String[] INVOICE_STATE = { "paid_cents", "status" };
+    private static final String[] STATUS = { "status" };
+    private static final String[] FEE_COLUMNS = { "specialization", "service", "fee_cents" };
+
+    private Billing() {
+    }
+
+    public static void startScheduled() {
+        long untilRun = Duration.between(LocalDateTime.now(), LocalDate.now().atTime(RUN_AT)).toMinutes();
+        if (untilRun < 0) untilRun += 24 * 60;
+
+        Runnable job = () -> {
+            try {
+                generateInvoices();
+            } catch (SQLException ex) {
+                throw new RuntimeException(ex);
+            }
+        };
+        BackgroundJobs.runOnce("billing", job);
+        BackgroundJobs.schedule("billing", job, untilRun, 24 * 60, TimeUnit.MINUTES);
+    }
+
+    /** Invoices newly completed appointments and voids invoices of un-completed ones. */
+    public static RunResult generateInvoices() throws SQLException {
+        RunResult result = new RunResult();
+
+        String until = LocalDate.now().plusDays(1).toString();
+        String insertSql =
+                "INSERT INTO invoices (appointment_id, patient_id, doctor_id, service, amount_cents, issued_on) " +
+                "SELECT a.id, a.patient_id, a.doctor_id, f.service, f.fee_cents, ? " +
+                "FROM appointments a " +
+                "JOIN doctors d ON a.doctor_id = d.id " +
+                "JOIN fees f ON f.specialization = trim(d.specialization) " +
+                "WHERE a.status = 'COMPLETED' AND a.appointment_datetime >= ? AND a.appointment_datetime < ? " +
+                "  AND NOT EXISTS (SELECT 1 FROM invoices i WHERE i.appointment_id = a.id) " +
+                "ORDER BY a.appointment_datetime LIMIT " + BATCH + " " +
+                "RETURNING id, appointment_id, patient_id, service, amount_cents";
+
+        // a status changed back after invoicing: nothing was paid yet, so the invoice just goes,
+        // and comes back if the appointment is set to COMPLETED again
+        String voidSql =
+                "UPDATE invoices SET status = 'VOID', void_reason = 'NOT_COMPLETED' " +
+                "WHERE status = 'OPEN' AND paid_cents = 0 AND appointment_id IN (" +
+                "  SELECT id FROM appointments WHERE status <> 'COMPLETED' AND appointment_datetime >= ?) " +
+                "RETURNING id";
+        String reopenSql =
+                "UPDATE invoices SET status = 'OPEN', void_reason = NULL " +
+                "WHERE status = 'VOID' AND void_reason = 'NOT_COMPLETED' AND appointment_id IN (" +
+                "  SELECT id FROM appointments WHERE status = 'COMPLETED' AND appointment_datetime >= ?) " +
+                "RETURNING id";
+
+        List<Object[]> created = new ArrayList<>();
+        List<Long> voided = new ArrayList<>();
+        List<Long> reopened = new ArrayList<>();
+
+        try (Connection conn = Database.getConnection();
+             Statement tx = conn.createStatement()) {
+
+            String from = windowStart(conn);
+
+            while (true) {
+                int batch = 0;
+                tx.execute("BEGIN IMMEDIATE");
+                try (PreparedStatement ps = conn.prepareStatement(insertSql)) {
+                    ps.setString(1, LocalDate.now().toString());
+                    ps.setString(2, from);
+                    ps.setString(3, until);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            batch++;
+                            created.add(new Object[] { rs.getLong("id"), rs.getLong("appointment_id"),
+                                    rs.getInt("patient_id"), rs.getString("service"), rs.getLong("amount_cents") });
+                        }
+                    }
+                    tx.execute("COMMIT");
+                } catch (SQLException ex) {
+                    tx.execute("ROLLBACK");
+                    throw ex;
+                }
+                result.invoiced += batch;
+                if (batch < BATCH) break;
+            }
+
+            tx.execute("BEGIN IMMEDIATE");
+            try (PreparedStatement voiding = conn.prepareStatement(voidSql);
+                 PreparedStatement reopening = conn.prepareStatement(reopenSql)) {
+                voiding.setString(1, from);
+                try (ResultSet rs = voiding.executeQuery()) {
+                    while (rs.next()) voided.add(rs.getLong(1));
+                }
+                reopening.setString(1, from);
+                try (ResultSet rs = reopening.executeQuery()) {
+                    while (rs.next()) reopened.add(rs.getLong(1));
+                }
+                tx.execute("COMMIT");
+            } catch (SQLException ex) {
+                tx.execute("ROLLBACK");
+                throw ex;
+            }
+            result.voided = voided.size();
+            result.reopened = reopened.size();
+
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "SELECT COUNT(*) FROM appointments a JOIN doctors d ON a.doctor_id = d.id " +
+                    "WHERE a.status = 'COMPLETED' AND a.appointment_datetime >= ? AND a.appointment_datetime < ? " +
+                    "  AND NOT EXISTS (SELECT 1 FROM invoices i WHERE i.appointment_id = a.id) " +
+                    "  AND NOT EXISTS (SELECT 1 FROM fees f WHERE f.specialization = trim(d.specialization))")) {
+                ps.setString(1, from);
+                ps.setString(2, until);
+                try (ResultSet rs = ps.executeQuery()) {
+                    result.withoutFee = rs.next() ? rs.getInt(1) : 0;
+                }
+            }
+        }
+
+        for (Object[] c : created) {
+            AuditLog.inserted("invoices", (Long) c[0], INVOICE_COLUMNS, new Object[] { c[1], c[2], c[3], c[4] });
+        }
+        for (long id : voided) {
+            AuditLog.updated("invoices", id, STATUS, new Object[] { "OPEN" }, new Object[] { "VOID" });
+        }
+        for (long id : reopened) {
+            AuditLog.updated("invoices", id, STATUS, new Object[] { "VOID" }, new Object[] { "OPEN" });
+        }
+        return result;
+    }
+
+    // the later of: when billing was switched on, and lookbackDays ago
+    private static String windowStart(Connection conn) throws SQLException {
+        String lookback = LocalDate.now().minusDays(LOOKBACK_DAYS).toString();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT since FROM billing_state WHERE id = 1")) {
+            String since = rs.next() ? rs.getString(1) : lookback;
+            return since.compareTo(lookback) > 0 ? since : lookback;
+        }
+    }
+
+    /** Records a payment against an open invoice; it becomes PAID once fully paid. */
+    public static void recordPayment(long invoiceId, long amountCents, String method) throws SQLException {
+        Session.require(Permission.TAKE_PAYMENTS);
+        if (amountCents <= 0) throw new IllegalArgumentException("Amount must be more than zero.");
+
+        long paidBefore;
+        String statusAfter;
+        long paymentId;
+
+        try (Connection conn = Database.getConnection();
+             Statement tx = conn.createStatement()) {
+
+            tx.execute("BEGIN IMMEDIATE");
+            try {
+                long amount;
+                try (PreparedStatement ps = conn.prepareStatement(
+                        "SELECT amount_cents, paid_cents, status FROM invoices WHERE id = ?")) {
+                    ps.setLong(1, invoiceId);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (!rs.next()) throw new SQLException("Invoice " + invoiceId + " not found");
+                        if (!"OPEN".equals(rs.getString("status"))) {
+                            throw new IllegalStateException("Invoice " + invoiceId + " is " + rs.getString("status"));
+                        }
+                        amount = rs.getLong("amount_cents");
+                        paidBefore = rs.getLong("paid_cents");
+                    }
+                }
+                if (amountCents > amount - paidBefore) {
+                    throw new IllegalArgumentException("The open balance is only " + formatCents(amount - paidBefore) + ".");
+                }
+                statusAfter = paidBefore + amountCents == amount ? "PAID" : "OPEN";
+
+                try (PreparedStatement ps = conn.prepareStatement(
+                        "INSERT INTO payments (invoice_id, amount_cents, method, received_by) VALUES (?, ?, ?, ?)",
+                        Statement.RETURN_GENERATED_KEYS)) {
+                    ps.setLong(1, invoiceId);
+                    ps.setLong(2, amountCents);
+                    ps.setString(3, method);
+                    ps.setString(4, Session.username());
+                    ps.executeUpdate();
+                    try (ResultSet keys = ps.getGeneratedKeys()) {
+                        keys.next();
+                        paymentId = keys.getLong(1);
+                    }
+                }
+                try (PreparedStatement ps = conn.prepareStatement(
+                        "UPDATE invoices SET paid_cents = ?, status = ? WHERE id = ?")) {
+                    ps.setLong(1, paidBefore + amountCents);
+                    ps.setString(2, statusAfter);
+                    ps.setLong(3, invoiceId);
+                    ps.executeUpdate();
+                }
+                tx.execute("COMMIT");
+            } catch (SQLException | RuntimeException ex) {
+                tx.execute("ROLLBACK");
+                throw ex;
+            }
+        }
+
+        AuditLog.inserted("payments", paymentId, PAYMENT_COLUMNS, new Object[] { invoiceId, amountCents, method });
+        AuditLog.updated("invoices", invoiceId, INVOICE_STATE,
+                         new Object[] { paidBefore, "OPEN" }, new Object[] { paidBefore + amountCents, statusAfter });
+    }
+
+    /** Cancels an open invoice that was issued by mistake. Invoices with payments can't be voided. */
+    public static void voidInvoice(long invoiceId) throws SQLException {
+        Session.require(Permission.MANAGE_BILLING);
+
+        try (Connection conn = Database.getConnection();
+             PreparedStatement ps = conn.prepareStatement(
+                     "UPDATE invoices SET status = 'VOID', void_reason = 'MANUAL' " +
+                     "WHERE id = ? AND status = 'OPEN' AND paid_cents = 0")) {
+            ps.setLong(1, invoiceId);
+            if (ps.executeUpdate() == 0) {
+                throw new IllegalStateException("Only open invoices without payments can be voided.");
+            }
+        }
+        AuditLog.updated("invoices", invoiceId, STATUS, new Object[] { "OPEN" }, new Object[] { "VOID" });
+    }
+
+    /**
+     * One page of open invoices, oldest first. Pass the issuedOn and id of the last invoice of the
+     * previous page (null and 0 for the first page).
+     */
+    public static List<Invoice> outstandingInvoices(String afterIssuedOn, long afterId, int limit) throws SQLException {
+        Session.require(Permission.TAKE_PAYMENTS);
+
+        String sql = "SELECT i.id, i.issued_on, p.first_name, p.last_name, d.name AS doctor_name, " +
+                     "       i.service, i.amount_cents, i.paid_cents " +
+                     "FROM invoices i " +
+                     "JOIN patients p ON i.patient_id = p.id " +
+                     "JOIN doctors d ON i.doctor_id = d.id " +
+                     "WHERE i.status = 'OPEN' AND (i.issued_on, i.id) > (?, ?) " +
+                     "ORDER BY i.issued_on, i.id LIMIT ?";
+        List<Invoice> out = new ArrayList<>();
+
+        try (Connection conn = Database.getReadConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, afterIssuedOn == null ? "" : afterIssuedOn);
+            ps.setLong(2, afterId);
+            ps.setInt(3, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Invoice inv = new Invoice();
+                    inv.id = rs.getLong("id");
+                    inv.issuedOn = rs.getString("issued_on");
+                    inv.patient = rs.getString("first_name") + " " + rs.getString("last_name");
+                    inv.doctor = rs.getString("doctor_name");
+                    inv.service = rs.getString("service");
+                    inv.amountCents = rs.getLong("amount_cents");
+                    inv.paidCents = rs.getLong("paid_cents");
+                    out.add(inv);
+                }
+            }
+        }
+        return out;
+    }
+
+    /** One page of patients with an open balance, by patient id; pass the last id of the previous page. */
+    public static List<PatientBalance> balances(int afterPatientId, int limit) throws SQLException {
+        Session.require(Permission.TAKE_PAYMENTS);
+
+        // grouped on the covering partial index first, names joined for the page only
+        String sql = "SELECT b.patient_id, p.first_name, p.last_name, b.open_invoices, b.balance, b.oldest " +
+                     "FROM (SELECT patient_id, COUNT(*) AS open_invoices, " +
+                     "             SUM(amount_cents - paid_cents) AS balance, MIN(issued_on) AS oldest " +
+                     "      FROM invoices " +
+                     "      WHERE status = 'OPEN' AND patient_id > ? " +
+                     "      GROUP BY patient_id ORDER BY patient_id LIMIT ?) b " +
+                     "JOIN patients p ON b.patient_id = p.id " +
+                     "ORDER BY b.patient_id";
+        List<PatientBalance> out = new ArrayList<>();
+
+        try (Connection conn = Database.getReadConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, afterPatientId);
+            ps.setInt(2, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    PatientBalance b = new PatientBalance();
+                    b.patientId = rs.getInt("patient_id");
+                    b.patient = rs.getString("first_name") + " " + rs.getString("last_name");
+                    b.openInvoices = rs.getInt("open_invoices");
+                    b.balanceCents = rs.getLong("balance");
+                    b.oldest = rs.getString("oldest");
+                    out.add(b);
+                }
+            }
+        }
+        return out;
+    }
+
+    public static List<Fee> fees() throws SQLException {
+        List<Fee> out = new ArrayList<>();
+        try (Connection conn = Database.getReadConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT specialization, service, fee_cents FROM fees ORDER BY specialization")) {
+            while (rs.next()) {
+                Fee f = new Fee();
+                f.specialization = rs.getString(1);
+                f.service = rs.getString(2);
+                f.feeCents = rs.getLong(3);
+                out.add(f);
+            }
+        }
+        return out;
+    }
+
+    /** Specializations of the doctors, for picking one when adding a fee. */
+    public static List<String> specializations() throws SQLException {
+        List<String> out = new ArrayList<>();
+        try (Connection conn = Database.getReadConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(
+                     "SELECT DISTINCT trim(specialization) AS s FROM doctors ORDER BY s COLLATE NOCASE")) {
+            while (rs.next()) out.add(rs.getString(1));
+        }
+        return out;
+    }
+
+    /** Adds or changes the fee for a specialization. Invoices already issued keep their amount. */
+    public static void saveFee(String specialization, String service, long feeCents) throws SQLException {
+        Session.require(Permission.MANAGE_BILLING);
+
+        Object[] before = null;
+        long rowId;
+
+        try (Connection conn = Database.getConnection();
+             Statement tx = conn.createStatement()) {
+
+            tx.execute("BEGIN IMMEDIATE");
+            try {
+                try (PreparedStatement ps = conn.prepareStatement(
+                        "SELECT rowid, specialization, service, fee_cents FROM fees WHERE specialization = ?")) {
+                    ps.setString(1, specialization.trim());
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (rs.next()) {
+                            before = new Object[] { rs.getString(2), rs.getString(3), rs.getLong(4) };
+                        }
+                    }
+                }
+                try (PreparedStatement ps = conn.prepareStatement(
+                        "INSERT INTO fees (specialization, service, fee_cents) VALUES (?, ?, ?) " +
+                        "ON CONFLICT (specialization) DO UPDATE SET service = excluded.service, " +
+                        "  fee_cents = excluded.fee_cents " +
+                        "RETURNING rowid")) {
+                    ps.setString(1, specialization.trim());
+                    ps.setString(2, service.trim());
+                    ps.setLong(3, feeCents);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        rs.next();
+                        rowId = rs.getLong(1);
+                    }
+                }
+                tx.execute("COMMIT");
+            } catch (SQLException ex) {
+                tx.execute("ROLLBACK");
+                throw ex;
+            }
+        }
+
+        // an existing fee keeps the spelling of its specialization
+        Object[] after = { before == null ? specialization.trim() : before[0], service.trim(), feeCents };
+        if (before == null) {
+            AuditLog.inserted("fees", rowId, FEE_COLUMNS, after);
+        } else {
+            AuditLog.updated("fees", rowId, FEE_COLUMNS, before, after);
+        }
+    }
+
+    public static void removeFee(Fee fee) throws SQLException {
+        Session.require(Permission.MANAGE_BILLING);
+
+        long rowId;
+        try (Connection conn = Database.getConnection();
+             PreparedStatement ps = conn.prepareStatement("DELETE FROM fees WHERE specialization = ? RETURNING rowid")) {
+            ps.setString(1, fee.specialization);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) return;
+                rowId = rs.getLong(1);
+            }
+        }
+        AuditLog.deleted("fees", rowId, FEE_COLUMNS, new Object[] { fee.specialization, fee.service, fee.feeCents });
+    }
+
+    public static String formatCents(long cents) {
+        return BigDecimal.valueOf(cents, 2).toPlainString();
+    }
+
+    /** "45", "45.5" or "45.50" -> 4550. */
+    public static long parseCents(String text) {
+        try {
+            return new BigDecimal(text.trim()).movePointRight(2).longValueExact();
+        } catch (ArithmeticException | NumberFormatException ex) {
+            throw new IllegalArgumentException("Enter an amount like 45.00");
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package clinic;
+
+import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+
+// Front desk billing: open invoices, balances by patient and the fee list (see Billing)
+public class BillingFrame extends JFrame {
+
+    // rows fetched per "Load more"
+    private static final int PAGE = 100;
+
+    private static final String[] METHODS = { "Cash", "Card", "Bank transfer", "Insurance" };
+
+    private DefaultTableModel invoiceModel;
+    private DefaultTableModel balanceModel;
+    private DefaultTableModel feeModel;
+    private JTable invoiceTable;
+    private JTable feeTable;
+    private JButton moreInvoicesButton;
+    private JButton moreBalancesButton;
+
+    // rows as loaded, in table order; the last one is where the next page starts
+    private final List<Billing.Invoice> invoices = new ArrayList<>();
+    private final List<Billing.PatientBalance> balances = new ArrayList<>();
+    private final List<Billing.Fee> fees = new ArrayList<>();
+
+    public BillingFrame() {
+        setTitle("Billing");
+        setSize(820, 500);
+        setLocationRelativeTo(null);
+        setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+
+        initComponents();
+        reloadAll();
+    }
+
+    private void initComponents() {
+        setLayout(new BorderLayout());
+
+        JPanel topPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        JButton generateButton = new JButton("Generate invoices now");
+        JButton refreshButton = new JButton("Refresh");
+        topPanel.add(generateButton);
+        topPanel.add(refreshButton);
+        generateButton.addActionListener(e -> onGenerate(generateButton));
+        refreshButton.addActionListener(e -> reloadAll());
+        add(topPanel, BorderLayout.NORTH);
+
+        invoiceModel = readOnlyModel("Invoice", "Issued", "Patient", "Doctor", "Service", "Amount", "Paid", "Balance");
+        invoiceTable = new JTable(invoiceModel);
+        invoiceTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        JPanel invoiceButtons = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        JButton payButton = new JButton("Record payment...");
+        JButton voidButton = new JButton("Void invoice");
+        moreInvoicesButton = new JButton("Load more");
+        invoiceButtons.add(payButton);
+        invoiceButtons.add(voidButton);
+        invoiceButtons.add(moreInvoicesButton);
+        payButton.addActionListener(e -> onRecordPayment());
+        voidButton.addActionListener(e -> onVoid());
+        moreInvoicesButton.addActionListener(e -> loadInvoices());
+
+        JPanel invoicePanel = new JPanel(new BorderLayout());
+        invoicePanel.add(new JScrollPane(invoiceTable), BorderLayout.CENTER);
+        invoicePanel.add(invoiceButtons, BorderLayout.SOUTH);
+
+        balanceModel = readOnlyModel("Patient ID", "Patient", "Open invoices", "Balance", "Oldest");
+        JPanel balanceButtons = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        moreBalancesButton = new JButton("Load more");
+        balanceButtons.add(moreBalancesButton);
+        moreBalancesButton.addActionListener(e -> loadBalances());
+
+        JPanel balancePanel = new JPanel(new BorderLayout());
+        balancePanel.add(new JScrollPane(new JTable(balanceModel)), BorderLayout.CENTER);
+        balancePanel.add(balanceButtons, BorderLayout.SOUTH);
+
+        feeModel = readOnlyModel("Specialization", "Service", "Fee");
+        feeTable = new JTable(feeModel);
+        feeTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        JPanel feeButtons = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        JButton feeSaveButton = new JButton("Add / Change...");
+        JButton feeRemoveButton = new JButton("Remove");
+        feeButtons.add(feeSaveButton);
+        feeButtons.add(feeRemoveButton);
+        feeSaveButton.addActionListener(e -> onSaveFee());
+        feeRemoveButton.addActionListener(e -> onRemoveFee());
+
+        JPanel feePanel = new JPanel(new BorderLayout());
+        feePanel.add(new JScrollPane(feeTable), BorderLayout.CENTER);
+        feePanel.add(feeButtons, BorderLayout.SOUTH);
+
+        JTabbedPane tabs = new JTabbedPane();
+        tabs.addTab("Outstanding invoices", invoicePanel);
+        tabs.addTab("Balances by patient", balancePanel);
+        tabs.addTab("Fees", feePanel);
+        add(tabs, BorderLayout.CENTER);
+    }
+
+    private static DefaultTableModel readOnlyModel(Object... columns) {
+        return new DefaultTableModel(columns, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+    }
+
+    private void reloadAll() {
+        invoices.clear();
+        invoiceModel.setRowCount(0);
+        balances.clear();
+        balanceModel.setRowCount(0);
+        loadInvoices();
+        loadBalances();
+        loadFees();
+    }
+
+    private void loadInvoices() {
+        Billing.Invoice last = invoices.isEmpty() ? null : invoices.get(invoices.size() - 1);
+        try {
+            List<Billing.Invoice> page = Billing.outstandingInvoices(last == null ? null : last.issuedOn,
+                                                                     last == null ? 0 : last.id, PAGE);
+            for (Billing.Invoice inv : page) {
+                invoices.add(inv);
+                invoiceModel.addRow(new Object[] { inv.id, inv.issuedOn, inv.patient, inv.doctor, inv.service,
+                        Billing.formatCents(inv.amountCents), Billing.formatCents(inv.paidCents),
+                        Billing.formatCents(inv.balanceCents()) });
+            }
+            moreInvoicesButton.setEnabled(page.size() == PAGE);
+        } catch (Exception ex) {
+            AppLog.showError(this, "loading invoices", ex);
+        }
+    }
+
+    private void loadBalances() {
+        int afterId = balances.isEmpty() ? 0 : balances.get(balances.size() - 1).patientId;
+        try {
+            List<Billing.PatientBalance> page = Billing.balances(afterId, PAGE);
+            for (Billing.PatientBalance b : page) {
+                balances.add(b);
+                balanceModel.addRow(new Object[] { b.patientId, b.patient, b.openInvoices,
+                        Billing.formatCents(b.balanceCents), b.oldest });
+            }
+            moreBalancesButton.setEnabled(page.size() == PAGE);
+        } catch (Exception ex) {
+            AppLog.showError(this, "loading balances", ex);
+        }
+    }
+
+    private void loadFees() {
+        fees.clear();
+        feeModel.setRowCount(0);
+        try {
+            for (Billing.Fee f : Billing.fees()) {
+                fees.add(f);
+                feeModel.addRow(new Object[] { f.specialization, f.service, Billing.formatCents(f.feeCents) });
+            }
+        } catch (Exception ex) {
+            AppLog.showError(this, "loading fees", ex);
+        }
+    }
+
+    private void onGenerate(JButton button) {
+        if (!Session.check(this, Permission.MANAGE_BILLING)) return;
+
+        button.setEnabled(false);
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        new SwingWorker<Billing.RunResult, Void>() {
+            @Override
+            protected Billing.RunResult doInBackground() throws Exception {
+                return Billing.generateInvoices();
+            }
+
+            @Override
+            protected void done() {
+                button.setEnabled(true);
+                setCursor(Cursor.getDefaultCursor());
+                try {
+                    JOptionPane.showMessageDialog(BillingFrame.this, get().toString());
+                } catch (Exception ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    AppLog.showError(BillingFrame.this, "generating invoices", cause);
+                }
+                reloadAll();
+            }
+        }.execute();
+    }
+
+    private void onRecordPayment() {
+        if (!Session.check(this, Permission.TAKE_PAYMENTS)) return;
+        Billing.Invoice inv = selectedInvoice();
+        if (inv == null) return;
+
+        JTextField amountField = new JTextField(Billing.formatCents(inv.balanceCents()), 10);
+        JComboBox<String> methodBox = new JComboBox<>(METHODS);
+        JPanel form = new JPanel(new GridLayout(2, 2, 6, 6));
+        form.add(new JLabel("Amount:"));
+        form.add(amountField);
+        form.add(new JLabel("Method:"));
+        form.add(methodBox);
+
+        int choice = JOptionPane.showConfirmDialog(this, form, "Payment for invoice " + inv.id,
+                                                   JOptionPane.OK_CANCEL_OPTION);
+        if (choice != JOptionPane.OK_OPTION) return;
+
+        try {
+            Billing.recordPayment(inv.id, Billing.parseCents(amountField.getText()), (String) methodBox.getSelectedItem());
+        } catch (Exception ex) {
+            AppLog.showError(this, "recording payment", ex);
+            return;
+        }
+        reloadAll();
+    }
+
+    private void onVoid() {
+        if (!Session.check(this, Permission.MANAGE_BILLING)) return;
+        Billing.Invoice inv = selectedInvoice();
+        if (inv == null) return;
+
+        int choice = JOptionPane.showConfirmDialog(this, "Void invoice " + inv.id + " for " + inv.patient + "?",
+                                                   "Void invoice", JOptionPane.OK_CANCEL_OPTION);
+        if (choice != JOptionPane.OK_OPTION) return;
+
+        try {
+            Billing.voidInvoice(inv.id);
+        } catch (Exception ex) {
+            AppLog.showError(this, "voiding invoice", ex);
+            return;
+        }
+        reloadAll();
+    }
+
+    private void onSaveFee() {
+        if (!Session.check(this, Permission.MANAGE_BILLING)) return;
+
+        JComboBox<String> specBox = new JComboBox<>();
+        specBox.setEditable(true);
+        try {
+            for (String s : Billing.specializations()) specBox.addItem(s);
+        } catch (Exception ex) {
+            AppLog.showError(this, "loading specializations", ex);
+            return;
+        }
+        JTextField serviceField = new JTextField("Consultation", 16);
+        JTextField feeField = new JTextField(10);
+
+        int row = feeTable.getSelectedRow();
+        if (row >= 0) {
+            Billing.Fee f = fees.get(row);
+            specBox.setSelectedItem(f.specialization);
+            serviceField.setText(f.service);
+            feeField.setText(Billing.formatCents(f.feeCents));
+        }
+
+        JPanel form = new JPanel(new GridLayout(3, 2, 6, 6));
+        form.add(new JLabel("Specialization:"));
+        form.add(specBox);
+        form.add(new JLabel("Service:"));
+        form.add(serviceField);
+        form.add(new JLabel("Fee:"));
+        form.add(feeField);
+
+        int choice = JOptionPane.showConfirmDialog(this, form, "Fee", JOptionPane.OK_CANCEL_OPTION);
+        if (choice != JOptionPane.OK_OPTION) return;
+
+        Object spec = specBox.getSelectedItem();
+        if (spec == null || spec.toString().trim().isEmpty() || serviceField.getText().trim().isEmpty()) {
+            JOptionPane.showMessageDialog(this, "Specialization and service are required.");
+            return;
+        }
+        try {
+            Billing.saveFee(spec.toString(), serviceField.getText(), Billing.parseCents(feeField.getText()));
+        } catch (Exception ex) {
+            AppLog.showError(this, "saving fee", ex);
+            return;
+        }
+        loadFees();
+    }
+
+    private void onRemoveFee() {
+        if (!Session.check(this, Permission.MANAGE_BILLING)) return;
+        int row = feeTable.getSelectedRow();
+        if (row < 0) {
+            JOptionPane.showMessageDialog(this, "Select a fee first.");
+            return;
+        }
+        Billing.Fee f = fees.get(row);
+
+        int choice = JOptionPane.showConfirmDialog(this, "Remove the fee for " + f.specialization + "?",
+                                                   "Remove fee", JOptionPane.OK_CANCEL_OPTION);
+        if (choice != JOptionPane.OK_OPTION) return;
+
+        try {
+            Billing.removeFee(f);
+        } catch (Exception ex) {
+            AppLog.showError(this, "removing fee", ex);
+            return;
+        }
+        loadFees();
+    }
+
+    private Billing.Invoice selectedInvoice() {
+        int row = invoiceTable.getSelectedRow();
+        if (row < 0) {
+            JOptionPane.showMessageDialog(this, "Select an invoice first.");
+            return null;
+        }
+        return invoices.get(row);
+    }
+}
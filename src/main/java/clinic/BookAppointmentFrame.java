@@ -5,48 +5,32 @@ import java.awt.*;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.ResolverStyle;
 import java.time.format.DateTimeParseException;
-
-// Simple wrapper so JComboBox can show names but keep IDs
-class PatientItem {
-    int id;
-    String name;
-
-    PatientItem(int id, String name) {
-        this.id = id;
-        this.name = name;
-    }
-
-    @Override
-    public String toString() {
-        return name; 
-    }
-}
-
-class DoctorItem {
-    int id;
-    String name;
-
-    DoctorItem(int id, String name) {
-        this.id = id;
-        this.name = name;
-    }
-
-    @Override
-    public String toString() {
-        return name;
-    }
-}
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
 
 public class BookAppointmentFrame extends JFrame {
 
-    private JComboBox<PatientItem> patientBox;
-    private JComboBox<DoctorItem> doctorBox;
+    private JComboBox<Integer> patientBox;
+    private JComboBox<Integer> doctorBox;
+    private PersonComboModel patientModel;
+    private PersonComboModel doctorModel;
     private JTextField datetimeField;
     private JTextArea reasonArea;
+    private JComboBox<String> repeatBox;
+    private JSpinner occurrencesSpinner;
+
+    // repeat choices and the RecurrenceRule each one maps to (COUNT is added from the spinner)
+    private static final String[] REPEAT_LABELS = { "Does not repeat", "Daily", "Weekly", "Every 2 weeks", "Monthly" };
+    private static final String[] REPEAT_RULES = {
+            null, "FREQ=DAILY", "FREQ=WEEKLY", "FREQ=WEEKLY;INTERVAL=2", "FREQ=MONTHLY"
+    };
 
     // Strict formatter: rejects invalid dates/times (e.g., 2021-02-30, 45:75)
     private static final DateTimeFormatter APPT_FMT =
@@ -54,7 +38,7 @@ public class BookAppointmentFrame extends JFrame {
 
     public BookAppointmentFrame() {
         setTitle("Book Appointment");
-        setSize(450, 350);
+        setSize(450, 400);
         setLocationRelativeTo(null);
         setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
 
@@ -71,9 +55,15 @@ public class BookAppointmentFrame extends JFrame {
 
         patientBox = new JComboBox<>();
         doctorBox = new JComboBox<>();
+        patientModel = PersonComboModel.install(patientBox);
+        doctorModel = PersonComboModel.install(doctorBox);
         datetimeField = new JTextField(20); 
         reasonArea = new JTextArea(3, 20);
         JScrollPane reasonScroll = new JScrollPane(reasonArea);
+        repeatBox = new JComboBox<>(REPEAT_LABELS);
+        occurrencesSpinner = new JSpinner(new SpinnerNumberModel(10, 2, 50, 1));
+        occurrencesSpinner.setEnabled(false);
+        repeatBox.addActionListener(e -> occurrencesSpinner.setEnabled(repeatBox.getSelectedIndex() > 0));
 
         int row = 0;
 
@@ -105,13 +95,30 @@ public class BookAppointmentFrame extends JFrame {
         formPanel.add(reasonScroll, gbc);
         row++;
 
+        // repeat
+        gbc.gridx = 0; gbc.gridy = row;
+        formPanel.add(new JLabel("Repeat:"), gbc);
+        gbc.gridx = 1;
+        formPanel.add(repeatBox, gbc);
+        row++;
+
+        // number of visits in the series
+        gbc.gridx = 0; gbc.gridy = row;
+        formPanel.add(new JLabel("Occurrences:"), gbc);
+        gbc.gridx = 1;
+        formPanel.add(occurrencesSpinner, gbc);
+        row++;
+
         JPanel buttonPanel = new JPanel();
         JButton saveButton = new JButton("Book");
+        JButton waitlistButton = new JButton("Add to Waitlist");
         JButton cancelButton = new JButton("Cancel");
         buttonPanel.add(saveButton);
+        buttonPanel.add(waitlistButton);
         buttonPanel.add(cancelButton);
 
         saveButton.addActionListener(e -> onSave());
+        waitlistButton.addActionListener(e -> onAddToWaitlist());
         cancelButton.addActionListener(e -> dispose());
 
         getContentPane().setLayout(new BorderLayout());
@@ -121,51 +128,57 @@ public class BookAppointmentFrame extends JFrame {
 
     private void loadPatients() {
         String sql = "SELECT id, first_name, last_name FROM patients ORDER BY last_name, first_name";
+        PersonDirectory directory = new PersonDirectory();
 
         try (Connection conn = Database.getConnection();
              PreparedStatement ps = conn.prepareStatement(sql);
              ResultSet rs = ps.executeQuery()) {
 
             while (rs.next()) {
-                int id = rs.getInt("id");
-                String name = rs.getString("first_name") + " " + rs.getString("last_name");
-                patientBox.addItem(new PatientItem(id, name));
+                directory.add(rs.getInt("id"), rs.getString("first_name"), rs.getString("last_name"));
             }
 
         } catch (Exception ex) {
-            JOptionPane.showMessageDialog(this, "Error loading patients: " + ex.getMessage());
+            AppLog.showError(this, "loading patients", ex, sql);
         }
+
+        directory.finish();
+        patientModel.setDirectory(directory);
     }
 
     private void loadDoctors() {
         String sql = "SELECT id, name FROM doctors WHERE status = 'ACTIVE' ORDER BY name";
+        PersonDirectory directory = new PersonDirectory();
 
         try (Connection conn = Database.getConnection();
              PreparedStatement ps = conn.prepareStatement(sql);
              ResultSet rs = ps.executeQuery()) {
 
             while (rs.next()) {
-                int id = rs.getInt("id");
-                String name = rs.getString("name");
-                doctorBox.addItem(new DoctorItem(id, name));
+                directory.add(rs.getInt("id"), rs.getString("name"), "");
             }
 
         } catch (Exception ex) {
-            JOptionPane.showMessageDialog(this, "Error loading doctors: " + ex.getMessage());
+            AppLog.showError(this, "loading doctors", ex, sql);
         }
+
+        directory.finish();
+        doctorModel.setDirectory(directory);
     }
 
     private void onSave() {
-        PatientItem selectedPatient = (PatientItem) patientBox.getSelectedItem();
-        DoctorItem selectedDoctor = (DoctorItem) doctorBox.getSelectedItem();
+        if (!Session.check(this, Permission.BOOK_APPOINTMENT)) return;
+
+        int patientId = patientModel.getSelectedId();
+        int doctorId = doctorModel.getSelectedId();
         String datetimeText = datetimeField.getText().trim();
         String reason = reasonArea.getText().trim();
 
-        if (selectedPatient == null) {
+        if (patientId < 0) {
             JOptionPane.showMessageDialog(this, "Select a patient.");
             return;
         }
-        if (selectedDoctor == null) {
+        if (doctorId < 0) {
             JOptionPane.showMessageDialog(this, "Select a doctor.");
             return;
         }
@@ -188,6 +201,13 @@ public class BookAppointmentFrame extends JFrame {
             return;
         }
 
+        String rule = REPEAT_RULES[repeatBox.getSelectedIndex()];
+        if (rule != null) {
+            int count = (Integer) occurrencesSpinner.getValue();
+            onSaveSeries(patientId, doctorId, dt, RecurrenceRule.parse(rule + ";COUNT=" + count), reason);
+            return;
+        }
+
         // Store in normalized format that matches DB CHECK constraint
         String normalized = dt.format(APPT_FMT);
 
@@ -195,14 +215,22 @@ public class BookAppointmentFrame extends JFrame {
                      "VALUES (?, ?, ?, ?, 'BOOKED')";
 
         try (Connection conn = Database.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
+             PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
 
-            ps.setInt(1, selectedPatient.id);
-            ps.setInt(2, selectedDoctor.id);
+            ps.setInt(1, patientId);
+            ps.setInt(2, doctorId);
             ps.setString(3, normalized);
             ps.setString(4, reason.isEmpty() ? null : reason);
 
             ps.executeUpdate();
+            Metrics.booked("desk", 1);
+
+            try (ResultSet keys = ps.getGeneratedKeys()) {
+                if (keys.next()) {
+                    AuditLog.inserted("appointments", keys.getLong(1), AppointmentSeries.AUDIT_COLUMNS,
+                                      new Object[] { patientId, doctorId, normalized, reason.isEmpty() ? null : reason, "BOOKED" });
+                }
+            }
 
             JOptionPane.showMessageDialog(this, "Appointment booked.");
             dispose();
@@ -217,7 +245,101 @@ public class BookAppointmentFrame extends JFrame {
                 return;
             }
 
-            JOptionPane.showMessageDialog(this, "Error booking appointment: " + ex.getMessage());
+            AppLog.showError(this, "booking appointment", ex, sql);
+        }
+    }
+
+    private void onSaveSeries(int patientId, int doctorId, LocalDateTime first,
+                              RecurrenceRule rule, String reason) {
+        List<String> slots = new ArrayList<>();
+        for (LocalDateTime t : rule.expand(first)) {
+            slots.add(t.format(APPT_FMT));
+        }
+
+        try {
+            // preview: which occurrences clash with the doctor's existing bookings
+            Set<String> taken;
+            try (Connection conn = Database.getConnection()) {
+                taken = AppointmentSeries.findConflicts(conn, doctorId, slots);
+            }
+
+            if (taken.size() == slots.size()) {
+                JOptionPane.showMessageDialog(this, "The doctor is already booked at every time in this series.");
+                return;
+            }
+            if (!taken.isEmpty()) {
+                int choice = JOptionPane.showConfirmDialog(
+                        this,
+                        "The doctor is already booked at:\n  " + String.join("\n  ", taken) + "\n\n" +
+                        "Book the other " + (slots.size() - taken.size()) + " of " + slots.size() + " appointments?",
+                        "Conflicts",
+                        JOptionPane.YES_NO_OPTION
+                );
+                if (choice != JOptionPane.YES_OPTION) {
+                    return;
+                }
+            }
+
+            AppointmentSeries.Result result =
+                    AppointmentSeries.book(patientId, doctorId, slots, reason.isEmpty() ? null : reason);
+
+            String msg = "Booked " + result.booked.size() + " appointments.";
+            if (!result.conflicts.isEmpty()) {
+                msg += "\nSkipped (doctor busy):\n  " + String.join("\n  ", result.conflicts);
+            }
+            JOptionPane.showMessageDialog(this, msg);
+            dispose();
+
+        } catch (Exception ex) {
+            AppLog.showError(this, "booking appointments", ex);
+        }
+    }
+
+    // No suitable slot now: queue the patient for the doctor's next cancellation
+    private void onAddToWaitlist() {
+        if (!Session.check(this, Permission.BOOK_APPOINTMENT)) return;
+
+        int patientId = patientModel.getSelectedId();
+        int doctorId = doctorModel.getSelectedId();
+        String reason = reasonArea.getText().trim();
+
+        if (patientId < 0 || doctorId < 0) {
+            JOptionPane.showMessageDialog(this, "Select a patient and a doctor.");
+            return;
+        }
+        String patientName = patientModel.getDirectory().displayName(patientId);
+        String doctorName = doctorModel.getDirectory().displayName(doctorId);
+
+        Object[] priorities = { "Normal", "Urgent" };
+        int priority = JOptionPane.showOptionDialog(
+                this, "Waitlist priority for " + patientName + ":", "Add to Waitlist",
+                JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, priorities, priorities[0]
+        );
+        if (priority < 0) return;
+
+        String latest = JOptionPane.showInputDialog(this, "Latest acceptable date (YYYY-MM-DD, empty = any):");
+        if (latest == null) return;
+        latest = latest.trim();
+        if (!latest.isEmpty()) {
+            try {
+                latest = LocalDate.parse(latest).toString();
+            } catch (DateTimeParseException ex) {
+                JOptionPane.showMessageDialog(this, "Invalid date. Use YYYY-MM-DD (e.g., 2026-01-10).");
+                return;
+            }
+        }
+
+        try {
+            Waitlist.add(patientId, doctorId,
+                         priority == 1 ? Waitlist.URGENT : Waitlist.NORMAL,
+                         latest.isEmpty() ? null : latest,
+                         reason.isEmpty() ? null : reason);
+
+            JOptionPane.showMessageDialog(this, patientName + " added to " + doctorName + "'s waitlist.");
+            dispose();
+
+        } catch (Exception ex) {
+            AppLog.showError(this, "adding to waitlist", ex);
         }
     }
 }
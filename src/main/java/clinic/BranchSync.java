@@ -0,0 +1,536 @@
+package clinic;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.CipherOutputStream;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Keeps patients and doctors in step between branches that each run their own clinic.db.
+//
+// Triggers log every change of a synced field to change_log (migration 14). A bundle for a peer
+// holds the latest change of each field since the last bundle sent to that peer; the receiving
+// branch applies it field by field. Each field carries a version clock (one counter per branch):
+// a change that has already been seen is skipped, a newer one wins, and for concurrent edits at two
+// branches the later edit wins (ties by branch id), so all branches end up with the same values.
+// Applied changes are logged again, so A -> B -> C passes A's edits on to C.
+// Only the latest entry of a field is ever sent, to any peer, so the entries it supersedes are
+// deleted on every export and import (the latest stays: a new peer's first bundle needs it).
+//
+// Bundles are gzip'd and encrypted (AES-GCM, key from a passphrase shared by the branches);
+// patient fields travel as plaintext inside and are encrypted with the receiving branch's key.
+// Appointments stay local to their branch, and deletions are not synced.
+public class BranchSync {
+
+    private static final byte[] MAGIC = "CLINICSYNC1".getBytes(StandardCharsets.US_ASCII);
+    private static final int SALT_BYTES = 16;
+    private static final int IV_BYTES = 12;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    // synced columns; the first ones of each table are NOT NULL and get '' until their value arrives
+    private static final Map<String, List<String>> COLUMNS = Map.of(
+            "patients", List.of("first_name", "last_name", "phone", "gender", "dob", "email", "address"),
+            "doctors", List.of("name", "specialization", "phone", "email", "status"));
+    private static final Map<String, Integer> REQUIRED = Map.of("patients", 3, "doctors", 3);
+
+    /** One field change as carried in a bundle. */
+    static final class Change {
+        String table;
+        String uid;
+        String column;
+        String value;
+        String at;
+        String site;
+        Map<String, Long> clock;
+    }
+
+    /** What an import did. */
+    public static final class Result {
+        public int applied;
+        public int alreadySeen;
+        public int conflictsWon;   // concurrent edits where the incoming value won
+        public int conflictsLost;  // concurrent edits where the local value stayed
+        public int created;
+
+        @Override
+        public String toString() {
+            return applied + " changes applied (" + created + " new records), " + alreadySeen + " already known, " +
+                   "concurrent edits: " + conflictsWon + " taken from the other branch, " + conflictsLost + " kept";
+        }
+    }
+
+    private BranchSync() {
+    }
+
+    public static String siteId() throws SQLException {
+        try (Connection conn = Database.getConnection()) {
+            return siteId(conn);
+        }
+    }
+
+    /**
+     * Gives this database a new branch id. Run once on a branch set up from a copy of another
+     * branch's clinic.db, before its first sync, so the two don't share version counters.
+     */
+    public static String newSiteId() throws SQLException {
+        Session.require(Permission.SYNC_BRANCHES);
+
+        try (Connection conn = Database.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("UPDATE sync_site SET site_id = lower(hex(randomblob(4)))");
+            return siteId(conn);
+        }
+    }
+
+    /** Writes the changes the peer hasn't been sent yet. Returns the number of field changes. */
+    public static int exportBundle(String peer, Path file, char[] passphrase)
+            throws SQLException, IOException, GeneralSecurityException {
+        Session.require(Permission.SYNC_BRANCHES);
+
+        String site;
+        List<Change> changes = new ArrayList<>();
+        long upTo;
+
+        try (Connection conn = Database.getConnection();
+             Statement tx = conn.createStatement()) {
+
+            tx.execute("BEGIN IMMEDIATE");
+            try {
+                site = siteId(conn);
+                stamp(conn, site);
+                compact(conn);
+
+                long since = 0;
+                try (PreparedStatement ps = conn.prepareStatement("SELECT last_sent_seq FROM sync_peers WHERE peer = ?")) {
+                    ps.setString(1, peer);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (rs.next()) since = rs.getLong(1);
+                    }
+                }
+
+                // only the latest change per field: its clock covers the earlier ones
+                String sql = "SELECT c.* FROM change_log c JOIN (" +
+                             "  SELECT MAX(seq) AS seq FROM change_log WHERE seq > ? " +
+                             "  GROUP BY table_name, uid, column_name) latest ON c.seq = latest.seq " +
+                             "ORDER BY c.seq";
+                upTo = since;
+                try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                    ps.setLong(1, since);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            Change c = new Change();
+                            c.table = rs.getString("table_name");
+                            c.uid = rs.getString("uid");
+                            c.column = rs.getString("column_name");
+                            c.value = plain(c.table, c.column, rs.getString("value"));
+                            c.at = rs.getString("at");
+                            c.site = rs.getString("site_id");
+                            c.clock = parseClock(rs.getString("clock"));
+                            changes.add(c);
+                            upTo = Math.max(upTo, rs.getLong("seq"));
+                        }
+                    }
+                }
+                tx.execute("COMMIT");
+            } catch (SQLException | RuntimeException ex) {
+                tx.execute("ROLLBACK");
+                throw ex;
+            }
+        }
+
+        writeBundle(file, site, changes, passphrase);
+
+        // only once the file is written; sending the same changes twice is harmless
+        try (Connection conn = Database.getConnection();
+             PreparedStatement ps = conn.prepareStatement(
+                     "INSERT INTO sync_peers (peer, last_sent_seq) VALUES (?, ?) " +
+                     "ON CONFLICT(peer) DO UPDATE SET last_sent_seq = MAX(last_sent_seq, excluded.last_sent_seq)")) {
+            ps.setString(1, peer);
+            ps.setLong(2, upTo);
+            ps.executeUpdate();
+        }
+        return changes.size();
+    }
+
+    /** Applies a bundle from another branch in one transaction. */
+    public static Result importBundle(Path file, char[] passphrase)
+            throws SQLException, IOException, GeneralSecurityException {
+        Session.require(Permission.SYNC_BRANCHES);
+
+        List<Change> changes = new ArrayList<>();
+        String from = readBundle(file, passphrase, changes);
+
+        Result result = new Result();
+        List<Object[]> audit = new ArrayList<>();
+
+        try (Connection conn = Database.getConnection();
+             Statement tx = conn.createStatement()) {
+
+            tx.execute("BEGIN IMMEDIATE");
+            try {
+                String site = siteId(conn);
+                if (site.equals(from)) {
+                    throw new SQLException("This bundle was written by this branch");
+                }
+                // local edits get their clocks first, so they are compared like any other
+                stamp(conn, site);
+
+                tx.executeUpdate("UPDATE sync_site SET applying = 1");
+                for (Change c : changes) {
+                    apply(conn, c, result, audit);
+                }
+                tx.executeUpdate("UPDATE sync_site SET applying = 0");
+                compact(conn);
+                tx.execute("COMMIT");
+            } catch (SQLException | RuntimeException ex) {
+                tx.execute("ROLLBACK");
+                throw ex;
+            }
+        }
+
+        for (Object[] a : audit) {
+            AuditLog.updated((String) a[0], (Long) a[1], new String[] { (String) a[2] },
+                             new Object[] { a[3] }, new Object[] { a[4] });
+        }
+        return result;
+    }
+
+    private static void apply(Connection conn, Change c, Result result, List<Object[]> audit) throws SQLException {
+        List<String> columns = COLUMNS.get(c.table);
+        if (columns == null || !columns.contains(c.column)) return; // from a newer version; not ours to write
+
+        Map<String, Long> localClock = null;
+        String localAt = null;
+        String localSite = null;
+        try (PreparedStatement ps = conn.prepareStatement(
+                "SELECT clock, at, site_id FROM sync_fields WHERE table_name = ? AND uid = ? AND column_name = ?")) {
+            ps.setString(1, c.table);
+            ps.setString(2, c.uid);
+            ps.setString(3, c.column);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    localClock = parseClock(rs.getString("clock"));
+                    localAt = rs.getString("at");
+                    localSite = rs.getString("site_id");
+                }
+            }
+        }
+
+        boolean take;
+        if (localClock != null && covers(localClock, c.clock)) {
+            result.alreadySeen++;  // includes our own changes coming back from a peer
+            return;
+        } else if (localClock == null || covers(c.clock, localClock)) {
+            take = true;
+        } else {
+            // concurrent edits: the later one wins, the same way at every branch
+            int cmp = c.at.compareTo(localAt);
+            take = cmp > 0 || (cmp == 0 && c.site.compareTo(localSite) > 0);
+            if (take) result.conflictsWon++;
+            else result.conflictsLost++;
+        }
+
+        Map<String, Long> merged = new TreeMap<>(c.clock);
+        if (localClock != null) localClock.forEach((s, n) -> merged.merge(s, n, Math::max));
+
+        String at = take ? c.at : localAt;
+        String site = take ? c.site : localSite;
+        String stored;
+
+        if (take) {
+            Object[] row = findRow(conn, c);
+            if (row == null) {
+                row = createRow(conn, c);
+                result.created++;
+            }
+            stored = write(conn, c);
+            audit.add(new Object[] { c.table, row[0], c.column, row[1], c.value });
+            result.applied++;
+        } else {
+            stored = currentValue(conn, c);
+        }
+
+        try (PreparedStatement ps = conn.prepareStatement(
+                "INSERT OR REPLACE INTO sync_fields (table_name, uid, column_name, clock, at, site_id) " +
+                "VALUES (?, ?, ?, ?, ?, ?)")) {
+            ps.setString(1, c.table);
+            ps.setString(2, c.uid);
+            ps.setString(3, c.column);
+            ps.setString(4, formatClock(merged));
+            ps.setString(5, at);
+            ps.setString(6, site);
+            ps.executeUpdate();
+        }
+
+        // logged with the merged clock so the outcome is passed on to other branches
+        try (PreparedStatement ps = conn.prepareStatement(
+                "INSERT INTO change_log (table_name, uid, column_name, value, at, site_id, clock) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?)")) {
+            ps.setString(1, c.table);
+            ps.setString(2, c.uid);
+            ps.setString(3, c.column);
+            ps.setString(4, stored);
+            ps.setString(5, at);
+            ps.setString(6, site);
+            ps.setString(7, formatClock(merged));
+            ps.executeUpdate();
+        }
+    }
+
+    // { id, current plaintext value } of the row with this uid, or null
+    private static Object[] findRow(Connection conn, Change c) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(
+                "SELECT id, " + c.column + " FROM " + c.table + " WHERE uid = ?")) {
+            ps.setString(1, c.uid);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) return null;
+                return new Object[] { rs.getLong(1), plain(c.table, c.column, rs.getString(2)) };
+            }
+        }
+    }
+
+    private static Object[] createRow(Connection conn, Change c) throws SQLException {
+        List<String> required = COLUMNS.get(c.table).subList(0, REQUIRED.get(c.table));
+        String sql = "INSERT INTO " + c.table + " (uid, " + String.join(", ", required) + ") VALUES (?" +
+                     ", ''".repeat(required.size()) + ")";
+
+        try (PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+            ps.setString(1, c.uid);
+            ps.executeUpdate();
+            try (ResultSet keys = ps.getGeneratedKeys()) {
+                keys.next();
+                return new Object[] { keys.getLong(1), null };
+            }
+        }
+    }
+
+    // Writes the value with whatever is derived from it; returns the stored form
+    private static String write(Connection conn, Change c) throws SQLException {
+        String stored = c.value;
+        List<String> sets = new ArrayList<>();
+        List<String> params = new ArrayList<>();
+
+        if ("patients".equals(c.table) && FieldCrypto.isSensitive(c.column)) {
+            stored = FieldCrypto.encrypt(c.column, c.value);
+            if (!"address".equals(c.column)) {
+                sets.add(c.column + "_bidx = ?");
+                params.add(FieldCrypto.blindIndex(c.column, c.value));
+            }
+        }
+        if ("patients".equals(c.table) && "last_name".equals(c.column)) {
+            sets.add("name_key = ?");
+            params.add(c.value == null ? null : PatientDeduplicator.nameKey(c.value));
+        }
+
+        // row_version moves on, so a form that has the record open reports a conflict on save
+        String sql = "UPDATE " + c.table + " SET " + c.column + " = ?" +
+                     (sets.isEmpty() ? "" : ", " + String.join(", ", sets)) +
+                     ", row_version = row_version + 1 WHERE uid = ?";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            int i = 1;
+            ps.setString(i++, stored);
+            for (String p : params) ps.setString(i++, p);
+            ps.setString(i, c.uid);
+            ps.executeUpdate();
+        }
+        return stored;
+    }
+
+    private static String currentValue(Connection conn, Change c) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(
+                "SELECT " + c.column + " FROM " + c.table + " WHERE uid = ?")) {
+            ps.setString(1, c.uid);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }
+    }
+
+    // Gives local changes (logged by the triggers with clock NULL) their version clocks, in order
+    private static void stamp(Connection conn, String site) throws SQLException {
+        try (PreparedStatement select = conn.prepareStatement(
+                     "SELECT seq, table_name, uid, column_name, at FROM change_log WHERE clock IS NULL ORDER BY seq");
+             PreparedStatement field = conn.prepareStatement(
+                     "SELECT clock FROM sync_fields WHERE table_name = ? AND uid = ? AND column_name = ?");
+             PreparedStatement save = conn.prepareStatement(
+                     "INSERT OR REPLACE INTO sync_fields (table_name, uid, column_name, clock, at, site_id) " +
+                     "VALUES (?, ?, ?, ?, ?, ?)");
+             PreparedStatement mark = conn.prepareStatement(
+                     "UPDATE change_log SET clock = ?, site_id = ? WHERE seq = ?");
+             ResultSet rs = select.executeQuery()) {
+
+            while (rs.next()) {
+                String table = rs.getString("table_name");
+                String uid = rs.getString("uid");
+                String column = rs.getString("column_name");
+
+                Map<String, Long> clock = new TreeMap<>();
+                field.setString(1, table);
+                field.setString(2, uid);
+                field.setString(3, column);
+                try (ResultSet f = field.executeQuery()) {
+                    if (f.next()) clock = parseClock(f.getString(1));
+                }
+                clock.merge(site, 1L, Long::sum);
+                String text = formatClock(clock);
+
+                save.setString(1, table);
+                save.setString(2, uid);
+                save.setString(3, column);
+                save.setString(4, text);
+                save.setString(5, rs.getString("at"));
+                save.setString(6, site);
+                save.executeUpdate();
+
+                mark.setString(1, text);
+                mark.setString(2, site);
+                mark.setLong(3, rs.getLong("seq"));
+                mark.executeUpdate();
+            }
+        }
+    }
+
+    // Superseded entries: no bundle for any peer can contain them any more. Stamped only, so the
+    // version clocks of unstamped changes are still worked out in order.
+    private static void compact(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("DELETE FROM change_log WHERE clock IS NOT NULL AND seq NOT IN (" +
+                               "SELECT MAX(seq) FROM change_log GROUP BY table_name, uid, column_name)");
+        }
+    }
+
+    private static String siteId(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT site_id FROM sync_site WHERE id = 1")) {
+            if (!rs.next()) throw new SQLException("Branch sync is not set up in this database");
+            return rs.getString(1);
+        }
+    }
+
+    private static String plain(String table, String column, String stored) {
+        return "patients".equals(table) && FieldCrypto.isSensitive(column) ? FieldCrypto.decrypt(column, stored) : stored;
+    }
+
+    // ---- version clocks: "site:count,site:count", sorted by site ----
+
+    static Map<String, Long> parseClock(String text) {
+        Map<String, Long> clock = new TreeMap<>();
+        if (text == null || text.isEmpty()) return clock;
+        for (String part : text.split(",")) {
+            int colon = part.indexOf(':');
+            clock.put(part.substring(0, colon), Long.parseLong(part.substring(colon + 1)));
+        }
+        return clock;
+    }
+
+    static String formatClock(Map<String, Long> clock) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> e : new TreeMap<>(clock).entrySet()) {
+            if (sb.length() > 0) sb.append(',');
+            sb.append(e.getKey()).append(':').append(e.getValue());
+        }
+        return sb.toString();
+    }
+
+    // a has seen every change b has
+    static boolean covers(Map<String, Long> a, Map<String, Long> b) {
+        for (Map.Entry<String, Long> e : b.entrySet()) {
+            if (a.getOrDefault(e.getKey(), 0L) < e.getValue()) return false;
+        }
+        return true;
+    }
+
+    // ---- bundle file: MAGIC, salt, iv, then AES-GCM over gzip(entries) ----
+
+    private static void writeBundle(Path file, String site, List<Change> changes, char[] passphrase)
+            throws IOException, GeneralSecurityException {
+        byte[] salt = new byte[SALT_BYTES];
+        byte[] iv = new byte[IV_BYTES];
+        RANDOM.nextBytes(salt);
+        RANDOM.nextBytes(iv);
+
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, FieldCrypto.passwordKey(new String(passphrase), salt), new GCMParameterSpec(128, iv));
+        cipher.updateAAD(MAGIC);
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream raw = Files.newOutputStream(tmp)) {
+            raw.write(MAGIC);
+            raw.write(salt);
+            raw.write(iv);
+
+            try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(new CipherOutputStream(raw, cipher)))) {
+                out.writeUTF(site);
+                out.writeInt(changes.size());
+                for (Change c : changes) {
+                    out.writeUTF(c.table);
+                    out.writeUTF(c.uid);
+                    out.writeUTF(c.column);
+                    out.writeBoolean(c.value != null);
+                    if (c.value != null) out.writeUTF(c.value);
+                    out.writeUTF(c.at);
+                    out.writeUTF(c.site);
+                    out.writeUTF(formatClock(c.clock));
+                }
+            }
+        }
+        Files.move(tmp, file, java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // Reads the changes into out; returns the id of the branch that wrote the bundle
+    private static String readBundle(Path file, char[] passphrase, List<Change> out)
+            throws IOException, GeneralSecurityException {
+        try (InputStream raw = Files.newInputStream(file)) {
+            byte[] magic = raw.readNBytes(MAGIC.length);
+            if (!Arrays.equals(magic, MAGIC)) throw new IOException(file + " is not a sync bundle");
+            byte[] salt = raw.readNBytes(SALT_BYTES);
+            byte[] iv = raw.readNBytes(IV_BYTES);
+
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, FieldCrypto.passwordKey(new String(passphrase), salt), new GCMParameterSpec(128, iv));
+            cipher.updateAAD(MAGIC);
+
+            // GCM only releases data once the tag checks out, so a wrong passphrase fails here
+            try (DataInputStream in = new DataInputStream(new GZIPInputStream(new CipherInputStream(raw, cipher)))) {
+                String site = in.readUTF();
+                int n = in.readInt();
+                for (int i = 0; i < n; i++) {
+                    Change c = new Change();
+                    c.table = in.readUTF();
+                    c.uid = in.readUTF();
+                    c.column = in.readUTF();
+                    c.value = in.readBoolean() ? in.readUTF() : null;
+                    c.at = in.readUTF();
+                    c.site = in.readUTF();
+                    c.clock = parseClock(in.readUTF());
+                    out.add(c);
+                }
+                return site;
+            } catch (IOException ex) {
+                throw new IOException("Can't read " + file + ": wrong passphrase or damaged file", ex);
+            }
+        }
+    }
+}
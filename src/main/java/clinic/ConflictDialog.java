@@ -0,0 +1,88 @@
+package clinic;
+
+import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+// Three-way merge for a row that someone else saved after we loaded it.
+// base = values we loaded, mine = values in the form, theirs = values now in the DB.
+public class ConflictDialog {
+
+    private ConflictDialog() {
+    }
+
+    /**
+     * Returns the merged values to save, or null if the user cancelled.
+     * Fields only one side changed are merged silently; fields both sides changed are shown to the user.
+     */
+    public static String[] resolve(Component parent, String[] labels,
+                                   String[] base, String[] mine, String[] theirs) {
+        String[] merged = new String[labels.length];
+        List<Integer> conflicts = new ArrayList<>();
+
+        for (int i = 0; i < labels.length; i++) {
+            boolean iChanged = !Objects.equals(base[i], mine[i]);
+            boolean theyChanged = !Objects.equals(base[i], theirs[i]);
+
+            if (iChanged && theyChanged && !Objects.equals(mine[i], theirs[i])) {
+                conflicts.add(i);
+                merged[i] = mine[i];
+            } else {
+                merged[i] = iChanged ? mine[i] : theirs[i];
+            }
+        }
+
+        if (conflicts.isEmpty()) {
+            int choice = JOptionPane.showConfirmDialog(
+                    parent,
+                    "This record was changed by someone else after you opened it.\n" +
+                    "Their changes don't overlap with yours and will be kept. Save the merged record?",
+                    "Record changed",
+                    JOptionPane.OK_CANCEL_OPTION
+            );
+            return choice == JOptionPane.OK_OPTION ? merged : null;
+        }
+
+        DefaultTableModel model = new DefaultTableModel(
+                new Object[] { "Field", "Your value", "Their value" }, 0
+        ) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        for (int i : conflicts) {
+            model.addRow(new Object[] { labels[i], mine[i], theirs[i] });
+        }
+
+        JTable table = new JTable(model);
+        JScrollPane scroll = new JScrollPane(table);
+        scroll.setPreferredSize(new Dimension(420, 40 + 20 * conflicts.size()));
+
+        JPanel panel = new JPanel(new BorderLayout(0, 8));
+        panel.add(new JLabel("Someone else changed the same fields after you opened this record:"),
+                  BorderLayout.NORTH);
+        panel.add(scroll, BorderLayout.CENTER);
+
+        Object[] options = { "Keep mine", "Keep theirs", "Cancel" };
+        int choice = JOptionPane.showOptionDialog(
+                parent, panel, "Conflicting changes",
+                JOptionPane.DEFAULT_OPTION, JOptionPane.WARNING_MESSAGE,
+                null, options, options[2]
+        );
+
+        if (choice == 0) {
+            return merged;
+        }
+        if (choice == 1) {
+            for (int i : conflicts) {
+                merged[i] = theirs[i];
+            }
+            return merged;
+        }
+        return null;
+    }
+}
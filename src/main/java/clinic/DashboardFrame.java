@@ -2,6 +2,11 @@ package clinic;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
 
 public class DashboardFrame extends JFrame {
 
@@ -10,13 +15,41 @@ public class DashboardFrame extends JFrame {
     private static final Color PRIMARY_DARK = new Color(100, 170, 210); // darker hover
     private static final Color BG_LIGHT = new Color(250, 252, 253);     // almost white
 
+    // child windows are built on first click and brought to front while still open
+    private final Map<String, JFrame> openFrames = new HashMap<>();
+
     public DashboardFrame(String username) {
-        setTitle("Clinic Management - Dashboard (" + username + ")");
+        setTitle("Clinic Management - Dashboard (" + username + ", " + Session.role().name().toLowerCase() + ")");
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setSize(750, 430);
         setLocationRelativeTo(null);
 
         initComponents();
+
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowOpened(WindowEvent e) {
+                StartupTimer.mark(StartupTimer.DASHBOARD);
+            }
+        });
+    }
+
+    private void openFrame(String key, Supplier<JFrame> factory) {
+        JFrame frame = openFrames.get(key);
+        if (frame == null || !frame.isDisplayable()) {
+            frame = factory.get();
+            openFrames.put(key, frame);
+        }
+        frame.setVisible(true);
+        frame.toFront();
+    }
+
+    private void addButton(JPanel panel, String text, Permission permission, String key, Supplier<JFrame> factory) {
+        if (!Session.can(permission)) return;
+
+        JButton btn = createPrimaryButton(text);
+        btn.addActionListener(e -> openFrame(key, factory));
+        panel.add(btn);
     }
 
     private JButton createPrimaryButton(String text) {
@@ -59,41 +92,28 @@ public class DashboardFrame extends JFrame {
         root.add(header, BorderLayout.NORTH);
 
         // ---------------- CENTER GRID ----------------
-        JPanel center = new JPanel(new GridLayout(3, 3, 12, 12));
+        JPanel center = new JPanel(new GridLayout(0, 3, 12, 12));
         center.setBorder(BorderFactory.createEmptyBorder(18, 18, 18, 18));
         center.setBackground(BG_LIGHT);
 
-        JButton addDoctorBtn = createPrimaryButton("Add Doctor");
-        JButton updateDoctorBtn = createPrimaryButton("Update Doctor");
-
-        JButton addPatientBtn = createPrimaryButton("Add Patient");
-        JButton updatePatientBtn = createPrimaryButton("Update Patient");
-
-        JButton bookAppointmentBtn = createPrimaryButton("Book Appointment");
-        JButton manageAppointmentsBtn = createPrimaryButton("Manage Appointments");
+        // only what the user's role allows is shown; the actions check again on their own
+        addButton(center, "Add Doctor", Permission.ADD_DOCTOR, "addDoctor", AddDoctorFrame::new);
+        addButton(center, "Add Patient", Permission.ADD_PATIENT, "addPatient", AddPatientFrame::new);
+        addButton(center, "Update Patient", Permission.EDIT_PATIENT, "updatePatient", UpdatePatientFrame::new);
+        addButton(center, "Book Appointment", Permission.BOOK_APPOINTMENT, "bookAppointment", BookAppointmentFrame::new);
+        addButton(center, "Manage Appointments", Permission.VIEW_APPOINTMENTS, "manageAppointments", ManageAppointmentsFrame::new);
+        addButton(center, "Doctor Schedules", Permission.VIEW_APPOINTMENTS, "schedules", ScheduleFrame::new);
+        addButton(center, "Update Doctor", Permission.EDIT_DOCTOR, "updateDoctor", UpdateDoctorFrame::new);
+        addButton(center, "Billing", Permission.TAKE_PAYMENTS, "billing", BillingFrame::new);
+        addButton(center, "Reports", Permission.VIEW_REPORTS, "reports", ReportsFrame::new);
+        if (FederatedReports.isConfigured()) {
+            addButton(center, "All Branches", Permission.VIEW_REPORTS, "branchReports", FederatedReportsFrame::new);
+        }
+        addButton(center, "Find Duplicates", Permission.MERGE_PATIENTS, "duplicates", DuplicatePatientsFrame::new);
 
         JButton exitBtn = createPrimaryButton("Exit");
-
-        // add buttons to grid (leave empty slots for spacing balance)
-        center.add(addDoctorBtn);
-        center.add(addPatientBtn);
-        center.add(updatePatientBtn);
-        center.add(bookAppointmentBtn);
-        center.add(manageAppointmentsBtn);
-        center.add(updateDoctorBtn);
-        center.add(exitBtn);
-
-        // ---------------- ACTIONS ----------------
-        addDoctorBtn.addActionListener(e -> new AddDoctorFrame().setVisible(true));
-        updateDoctorBtn.addActionListener(e -> new UpdateDoctorFrame().setVisible(true));
-
-        addPatientBtn.addActionListener(e -> new AddPatientFrame().setVisible(true));
-        updatePatientBtn.addActionListener(e -> new UpdatePatientFrame().setVisible(true));
-
-        bookAppointmentBtn.addActionListener(e -> new BookAppointmentFrame().setVisible(true));
-        manageAppointmentsBtn.addActionListener(e -> new ManageAppointmentsFrame().setVisible(true));
-
         exitBtn.addActionListener(e -> System.exit(0));
+        center.add(exitBtn);
 
         root.add(center, BorderLayout.CENTER);
 
@@ -1,13 +1,51 @@
 package clinic;
 
+import org.sqlite.SQLiteConnection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 
+// Where the data lives (system properties):
+//   clinic.db.url      JDBC URL of the database (default jdbc:sqlite:clinic.db next to the jar)
+//   clinic.db.memory   true = a private in-memory database for tests, demos and training;
+//                      nothing is written to disk and it is gone when the process exits
+//   clinic.db.fixture  seeds a brand-new database: a .sql script run after the migrations, or a
+//                      clinic database file (e.g. an unpacked backup) copied in before them.
+//                      In memory mode the bundled demo data is used unless one is given.
+//   clinic.db.wal      false uses the rollback journal instead of WAL, for a clinic.db on a
+//                      network share (WAL needs all desks on the same machine's file system)
 public class Database {
 
-    private static final String DB_URL = "jdbc:sqlite:clinic.db";
+    private static final boolean IN_MEMORY = Boolean.getBoolean("clinic.db.memory");
+
+    // shared cache, so every connection of this process sees the same in-memory database
+    private static final String DB_URL = IN_MEMORY
+            ? "jdbc:sqlite:file:clinic-memory?mode=memory&cache=shared"
+            : System.getProperty("clinic.db.url", "jdbc:sqlite:clinic.db");
+
+    private static final String FIXTURE = System.getProperty("clinic.db.fixture",
+            IN_MEMORY ? "classpath:fixtures/demo.sql" : null);
+
+    private static final boolean WAL = !IN_MEMORY && !"false".equals(System.getProperty("clinic.db.wal"));
+
+    // true once the file is known to be in WAL mode
+    private static volatile boolean walActive = false;
+
+    // an in-memory database lives only while a connection to it is open
+    private static Connection keepAlive;
+
+    private static final ReadConnectionPool READ_POOL = new ReadConnectionPool();
+
+    // set once SchemaMigrator has brought the file up to date
+    private static volatile boolean migrated = false;
 
     static {
         try {
@@ -18,13 +56,172 @@ public class Database {
     }
 
     public static Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        Connection conn = open();
+
+        if (!migrated) {
+            try {
+                migrate(conn);
+            } catch (SQLException ex) {
+                conn.close();
+                throw ex;
+            }
+        }
+
+        Metrics.connectionAcquired("direct", start);
+        return conn;
+    }
+
+    /**
+     * A pooled read-only connection for lists, reports and exports. Everything read through it
+     * comes from one consistent snapshot, and it never holds up bookings; close it promptly.
+     */
+    public static Connection getReadConnection() throws SQLException {
+        if (!migrated) {
+            getConnection().close();
+        }
+        long start = System.nanoTime();
+        Connection conn = READ_POOL.borrow();
+        Metrics.connectionAcquired("read_pool", start);
+        return conn;
+    }
+
+    static ReadConnectionPool readPool() {
+        return READ_POOL;
+    }
+
+    /** Whether a read transaction may stay open without holding up writers (WAL only). */
+    static boolean snapshotReads() {
+        return walActive;
+    }
+
+    static Connection open() throws SQLException {
         Connection conn = DriverManager.getConnection(DB_URL);
 
         // VERY IMPORTANT: SQLite does NOT enforce foreign keys unless this is ON
         try (Statement stmt = conn.createStatement()) {
             stmt.execute("PRAGMA foreign_keys = ON;");
         }
+        return Metrics.instrument(conn);
+    }
 
-        return conn;
+    // Loads the native SQLite library and runs migrations off the EDT while the login window shows
+    public static void warmUp() {
+        Thread t = new Thread(() -> {
+            try {
+                getConnection().close();
+                StartupTimer.mark("db_ready");
+            } catch (SQLException ignored) {
+                // the real login attempt will report the error
+            }
+        }, "db-warmup");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    public static boolean isInMemory() {
+        return IN_MEMORY;
+    }
+
+    // Runs pending schema migrations once per process, before the first connection is handed out
+    private static synchronized void migrate(Connection conn) throws SQLException {
+        if (migrated) return;
+
+        if (IN_MEMORY && keepAlive == null) {
+            keepAlive = DriverManager.getConnection(DB_URL);
+        }
+
+        boolean fresh = FIXTURE != null && isEmpty(conn);
+        boolean script = fresh && FIXTURE.endsWith(".sql");
+        if (fresh && !script) {
+            // a whole database: copied in first, then migrated like any older file
+            int rc = conn.unwrap(SQLiteConnection.class).getDatabase().restore("main", FIXTURE, null);
+            if (rc != 0) {
+                throw new SQLException("Could not load fixture " + FIXTURE + " (SQLite code " + rc + ")");
+            }
+        }
+
+        if (WAL) {
+            // persistent in the file; readers then work from snapshots and don't block the writer
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("PRAGMA journal_mode = WAL")) {
+                walActive = rs.next() && "wal".equalsIgnoreCase(rs.getString(1));
+            } catch (SQLException ex) {
+                // another desk has the file open in rollback mode; switched on a later start
+                AppLog.error("switching clinic.db to WAL", ex);
+            }
+        } else if (!IN_MEMORY) {
+            // WAL is persistent, so a file switched by an earlier start has to be switched back
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("PRAGMA journal_mode = DELETE")) {
+                String mode = rs.next() ? rs.getString(1) : null;
+                if (!"delete".equalsIgnoreCase(mode)) {
+                    AppLog.warn("switching clinic.db back to a rollback journal",
+                                "still in " + mode + " mode while another desk has it open; close the app " +
+                                "everywhere, then start it with -Dclinic.db.wal=false");
+                }
+            } catch (SQLException ex) {
+                AppLog.error("switching clinic.db back to a rollback journal", ex);
+            }
+        }
+
+        SchemaMigrator.migrate(conn);
+
+        if (script) {
+            runScript(conn, readFixture());
+        }
+        migrated = true;
+    }
+
+    private static boolean isEmpty(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM sqlite_master")) {
+            return rs.next() && rs.getInt(1) == 0;
+        }
+    }
+
+    private static String readFixture() throws SQLException {
+        try {
+            if (FIXTURE.startsWith("classpath:")) {
+                try (InputStream in = Database.class.getClassLoader()
+                        .getResourceAsStream(FIXTURE.substring("classpath:".length()))) {
+                    if (in == null) throw new IOException("not found");
+                    return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+                }
+            }
+            return Files.readString(Paths.get(FIXTURE));
+        } catch (IOException ex) {
+            throw new SQLException("Could not read fixture " + FIXTURE + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    // Runs the statements of a script in one transaction. Statements end with ';' outside quotes;
+    // lines starting with "--" are comments.
+    private static void runScript(Connection conn, String sql) throws SQLException {
+        try (Statement tx = conn.createStatement()) {
+            tx.execute("BEGIN IMMEDIATE");
+            try {
+                StringBuilder stmt = new StringBuilder();
+                boolean quoted = false;
+                for (String line : sql.split("\n")) {
+                    if (!quoted && line.trim().startsWith("--")) continue;
+
+                    for (char c : (line + "\n").toCharArray()) {
+                        if (c == '\'') quoted = !quoted;
+                        if (c == ';' && !quoted) {
+                            if (!stmt.toString().isBlank()) tx.execute(stmt.toString());
+                            stmt.setLength(0);
+                        } else {
+                            stmt.append(c);
+                        }
+                    }
+                }
+                if (!stmt.toString().isBlank()) tx.execute(stmt.toString());
+                tx.execute("COMMIT");
+            } catch (SQLException ex) {
+                tx.execute("ROLLBACK");
+                throw ex;
+            }
+        }
     }
 }
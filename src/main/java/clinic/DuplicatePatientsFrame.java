@@ -0,0 +1,139 @@
+package clinic;
+
+import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+
+public class DuplicatePatientsFrame extends JFrame {
+
+    private DefaultTableModel tableModel;
+    private JTable table;
+    private JButton scanButton;
+    private JLabel statusLabel;
+
+    // matches shown in the table, same order as the model rows
+    private final List<PatientDeduplicator.Match> matches = new ArrayList<>();
+
+    public DuplicatePatientsFrame() {
+        setTitle("Find Duplicate Patients");
+        setSize(760, 400);
+        setLocationRelativeTo(null);
+        setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+
+        initComponents();
+    }
+
+    private void initComponents() {
+        setLayout(new BorderLayout());
+
+        JPanel topPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        scanButton = new JButton("Scan all patients");
+        statusLabel = new JLabel(" ");
+        topPanel.add(scanButton);
+        topPanel.add(statusLabel);
+        scanButton.addActionListener(e -> onScan());
+        add(topPanel, BorderLayout.NORTH);
+
+        tableModel = new DefaultTableModel(
+                new Object[] { "Patient A", "DOB A", "Phone A", "Patient B", "DOB B", "Phone B", "Match" }, 0
+        ) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        table = new JTable(tableModel);
+        table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        add(new JScrollPane(table), BorderLayout.CENTER);
+
+        JPanel bottomPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        JButton mergeButton = new JButton("Merge selected pair...");
+        bottomPanel.add(mergeButton);
+        mergeButton.addActionListener(e -> onMerge());
+        add(bottomPanel, BorderLayout.SOUTH);
+    }
+
+    private void onScan() {
+        if (!Session.check(this, Permission.MERGE_PATIENTS)) return;
+
+        scanButton.setEnabled(false);
+        statusLabel.setText("Scanning...");
+
+        new SwingWorker<List<PatientDeduplicator.Match>, Void>() {
+            @Override
+            protected List<PatientDeduplicator.Match> doInBackground() throws Exception {
+                return PatientDeduplicator.scanAll();
+            }
+
+            @Override
+            protected void done() {
+                scanButton.setEnabled(true);
+                try {
+                    showMatches(get());
+                } catch (Exception ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    statusLabel.setText(" ");
+                    AppLog.showError(DuplicatePatientsFrame.this, "scanning patients", cause);
+                }
+            }
+        }.execute();
+    }
+
+    private void showMatches(List<PatientDeduplicator.Match> found) {
+        matches.clear();
+        matches.addAll(found);
+        tableModel.setRowCount(0);
+
+        for (PatientDeduplicator.Match m : found) {
+            tableModel.addRow(new Object[] {
+                    m.a.displayName(), m.a.dob, m.a.phone,
+                    m.b.displayName(), m.b.dob, m.b.phone,
+                    String.format("%.0f%%", m.score * 100)
+            });
+        }
+        statusLabel.setText(found.size() + " possible duplicate pairs");
+    }
+
+    private void onMerge() {
+        if (!Session.check(this, Permission.MERGE_PATIENTS)) return;
+
+        int row = table.getSelectedRow();
+        if (row < 0) {
+            JOptionPane.showMessageDialog(this, "Select a pair first.");
+            return;
+        }
+
+        PatientDeduplicator.Match m = matches.get(table.convertRowIndexToModel(row));
+
+        Object[] options = { "Keep " + m.a.displayName(), "Keep " + m.b.displayName(), "Cancel" };
+        int choice = JOptionPane.showOptionDialog(
+                this,
+                "Appointments and waitlist entries of the other record move to the one you keep,\n" +
+                "and the other record is deleted.",
+                "Merge patients",
+                JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, options, options[2]
+        );
+        if (choice != 0 && choice != 1) return;
+
+        PatientDeduplicator.Person keep = choice == 0 ? m.a : m.b;
+        PatientDeduplicator.Person drop = choice == 0 ? m.b : m.a;
+
+        try {
+            PatientDeduplicator.merge(keep.id, drop.id);
+        } catch (Exception ex) {
+            AppLog.showError(this, "merging patients", ex);
+            return;
+        }
+
+        // pairs involving the deleted record are gone now
+        List<PatientDeduplicator.Match> remaining = new ArrayList<>();
+        for (PatientDeduplicator.Match other : matches) {
+            if (other.a.id != drop.id && other.b.id != drop.id) remaining.add(other);
+        }
+        showMatches(remaining);
+
+        JOptionPane.showMessageDialog(this, "Merged into " + keep.displayName() + ".");
+    }
+}
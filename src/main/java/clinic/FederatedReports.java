@@ -0,0 +1,416 @@
+package clinic;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+// Head office reports across the clinic.db files of all branches, read where they are.
+//
+//   clinic.branches            Name=path;Name=path  e.g. North=//fs/north/clinic.db;South=//fs/south/clinic.db
+//   clinic.branches.snapshots  true = the paths are copies shipped to head office that nothing writes
+//                              to any more; they are then opened immutable, without any locking
+//
+// WAL only works for processes on the machine that holds the file, so a branch whose live clinic.db
+// is read over a network share must run with clinic.db.wal=false. Otherwise ship snapshot copies
+// (e.g. the nightly backup) and set clinic.branches.snapshots.
+//
+// Each branch gets its own worker and connection with the branch database ATTACHed read-only (as
+// "branch", and its clinic-archive.db next to it as "archive"), so the branches are queried in
+// parallel. Every worker returns its rows already sorted; they are merged as they arrive, so the
+// first rows show while the slower branches are still reading and a row limit stops all of them.
+// Branch files must have been opened at least once by this version of the app (schema 14).
+public class FederatedReports {
+
+    /** One configured branch database. */
+    public static final class Branch {
+        public final String name;
+        public final Path file;
+
+        Branch(String name, Path file) {
+            this.name = name;
+            this.file = file;
+        }
+    }
+
+    public static final class AppointmentRow {
+        public String branch;
+        public long id;
+        public String dateTime;
+        public String patient;
+        public String doctor;
+        public String reason;
+        public String status;
+    }
+
+    public static final class BranchDoctorStats extends KpiEngine.DoctorStats {
+        public String branch;
+    }
+
+    private static final boolean SNAPSHOTS = Boolean.getBoolean("clinic.branches.snapshots");
+
+    private static final int MIN_SCHEMA = 14; // uid on patients (migration 14)
+    private static final int QUEUE_ROWS = 256;
+
+    // end of a worker's rows
+    private static final Object END = new Object();
+
+    private static final class Failure {
+        final Branch branch;
+        final Exception error;
+
+        Failure(Branch branch, Exception error) {
+            this.branch = branch;
+            this.error = error;
+        }
+    }
+
+    // thrown inside a worker once the merge no longer wants its rows
+    private static final class Stopped extends RuntimeException {
+        Stopped() {
+            super(null, null, false, false);
+        }
+    }
+
+    /** Reads one branch: runs its queries and passes rows, in the merge order, to out. */
+    private interface BranchQuery<T> {
+        void run(Branch branch, Connection conn, Consumer<T> out) throws SQLException;
+    }
+
+    private FederatedReports() {
+    }
+
+    /** Whether this installation is set up as head office (clinic.branches is set). */
+    public static boolean isConfigured() {
+        return !System.getProperty("clinic.branches", "").trim().isEmpty();
+    }
+
+    public static List<Branch> branches() {
+        List<Branch> out = new ArrayList<>();
+        String config = System.getProperty("clinic.branches", "").trim();
+        if (config.isEmpty()) return out;
+
+        for (String entry : config.split(";")) {
+            int eq = entry.indexOf('=');
+            if (eq <= 0) throw new IllegalArgumentException("clinic.branches: expected Name=path, got '" + entry + "'");
+            out.add(new Branch(entry.substring(0, eq).trim(), Paths.get(entry.substring(eq + 1).trim())));
+        }
+        return out;
+    }
+
+    /**
+     * Appointments from..to (inclusive dates) in all branches, by date and time, optionally of one
+     * status. Rows go to sink as they are merged; returning false from sink stops the search.
+     */
+    public static void appointments(LocalDate from, LocalDate to, String status, Predicate<AppointmentRow> sink)
+            throws SQLException {
+        Session.require(Permission.VIEW_REPORTS);
+
+        String where = "WHERE a.appointment_datetime >= ? AND a.appointment_datetime < ? " +
+                       (status == null ? "" : "AND a.status = ? ");
+
+        mergeSorted(branches(), (branch, conn, out) -> {
+            boolean archive = hasArchive(conn);
+            String sql = appointmentsFrom("branch") + where;
+            if (archive) sql += "UNION ALL " + appointmentsFrom("archive") + where;
+            sql += "ORDER BY appointment_datetime, id";
+
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                int index = 1;
+                for (int i = 0; i < (archive ? 2 : 1); i++) {
+                    ps.setString(index++, from.toString());
+                    ps.setString(index++, to.plusDays(1).toString());
+                    if (status != null) ps.setString(index++, status);
+                }
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        AppointmentRow r = new AppointmentRow();
+                        r.branch = branch.name;
+                        r.id = rs.getLong("id");
+                        r.dateTime = rs.getString("appointment_datetime");
+                        r.patient = rs.getString("first_name") + " " + rs.getString("last_name");
+                        r.doctor = rs.getString("doctor_name");
+                        r.reason = rs.getString("reason");
+                        r.status = rs.getString("status");
+                        out.accept(r);
+                    }
+                }
+            }
+        }, Comparator.comparing((AppointmentRow r) -> r.dateTime), sink);
+    }
+
+    /** Per-doctor figures for from..to in every branch, busiest doctor first. */
+    public static List<BranchDoctorStats> doctorStats(LocalDate from, LocalDate to) throws SQLException {
+        Session.require(Permission.VIEW_REPORTS);
+
+        String today = LocalDate.now().toString();
+        List<BranchDoctorStats> result = new ArrayList<>();
+
+        // figures come from the appointments themselves: a branch's kpi tables may be behind
+        mergeSorted(branches(), (branch, conn, out) -> {
+            String source = "SELECT doctor_id, appointment_datetime, status FROM branch.appointments " +
+                            "WHERE appointment_datetime >= ? AND appointment_datetime < ?";
+            boolean archive = hasArchive(conn);
+            if (archive) {
+                source += " UNION ALL SELECT doctor_id, appointment_datetime, status FROM archive.appointments " +
+                          "WHERE appointment_datetime >= ? AND appointment_datetime < ?";
+            }
+            String sql = "SELECT d.name, COUNT(*) AS total, SUM(a.status = 'COMPLETED') AS completed, " +
+                         "  SUM(a.status = 'CANCELLED') AS cancelled, " +
+                         "  SUM(a.status = 'BOOKED' AND a.appointment_datetime < ?) AS no_show, " +
+                         "  SUM(a.status = 'BOOKED' AND a.appointment_datetime >= ?) AS upcoming " +
+                         "FROM (" + source + ") a JOIN branch.doctors d ON a.doctor_id = d.id " +
+                         "GROUP BY d.id ORDER BY total DESC";
+
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                int index = 1;
+                ps.setString(index++, today);
+                ps.setString(index++, today);
+                for (int i = 0; i < (archive ? 2 : 1); i++) {
+                    ps.setString(index++, from.toString());
+                    ps.setString(index++, to.plusDays(1).toString());
+                }
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        BranchDoctorStats s = new BranchDoctorStats();
+                        s.branch = branch.name;
+                        s.doctor = rs.getString("name");
+                        s.total = rs.getInt("total");
+                        s.completed = rs.getInt("completed");
+                        s.cancelled = rs.getInt("cancelled");
+                        s.noShow = rs.getInt("no_show");
+                        s.upcoming = rs.getInt("upcoming");
+                        out.accept(s);
+                    }
+                }
+            }
+        }, Comparator.comparingInt((BranchDoctorStats s) -> -s.total), result::add);
+
+        return result;
+    }
+
+    /**
+     * New patients per month (YYYY-MM -> count), by their first completed appointment in any branch.
+     * Patients shared between branches by branch sync carry the same uid and are counted once.
+     */
+    public static Map<String, Integer> newPatientsByMonth(LocalDate from, LocalDate to) throws SQLException {
+        Session.require(Permission.VIEW_REPORTS);
+
+        Map<String, Integer> out = new TreeMap<>();
+        String[] current = { null, null }; // uid, first day
+
+        mergeSorted(branches(), (branch, conn, rows) -> {
+            // as in KpiEngine: a first visit is the first completed appointment
+            String source = "SELECT patient_id, appointment_datetime FROM branch.appointments WHERE status = 'COMPLETED'";
+            if (hasArchive(conn)) {
+                source += " UNION ALL SELECT patient_id, appointment_datetime FROM archive.appointments " +
+                          "WHERE status = 'COMPLETED'";
+            }
+            String sql = "SELECT p.uid, MIN(substr(a.appointment_datetime, 1, 10)) AS first_day " +
+                         "FROM (" + source + ") a JOIN branch.patients p ON a.patient_id = p.id " +
+                         "GROUP BY p.uid ORDER BY p.uid";
+
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery(sql)) {
+                while (rs.next()) {
+                    rows.accept(new String[] { rs.getString(1), rs.getString(2) });
+                }
+            }
+        }, Comparator.comparing((String[] r) -> r[0]).thenComparing(r -> r[1]), row -> {
+            // rows of one patient arrive together, earliest day first
+            if (!row[0].equals(current[0])) {
+                countFirstVisit(out, current[1], from, to);
+                current[0] = row[0];
+                current[1] = row[1];
+            }
+            return true;
+        });
+        countFirstVisit(out, current[1], from, to);
+
+        return out;
+    }
+
+    private static void countFirstVisit(Map<String, Integer> out, String day, LocalDate from, LocalDate to) {
+        if (day == null || day.compareTo(from.toString()) < 0 || day.compareTo(to.toString()) > 0) return;
+        out.merge(day.substring(0, 7), 1, Integer::sum);
+    }
+
+    private static String appointmentsFrom(String schema) {
+        return "SELECT a.id AS id, a.appointment_datetime, p.first_name, p.last_name, " +
+               "       d.name AS doctor_name, a.reason, a.status " +
+               "FROM " + schema + ".appointments a " +
+               "JOIN branch.patients p ON a.patient_id = p.id " +
+               "JOIN branch.doctors d ON a.doctor_id = d.id ";
+    }
+
+    // Runs query against every branch in parallel and hands the rows to sink in order, merging the
+    // per-branch sorted streams; equal rows keep the branch order. Stops early when sink returns false.
+    private static <T> void mergeSorted(List<Branch> branches, BranchQuery<T> query,
+                                        Comparator<? super T> order, Predicate<? super T> sink) throws SQLException {
+        if (branches.isEmpty()) {
+            throw new SQLException("No branches configured (set -Dclinic.branches=Name=path;Name=path)");
+        }
+
+        int n = branches.size();
+        List<BlockingQueue<Object>> queues = new ArrayList<>(n);
+        AtomicBoolean stopped = new AtomicBoolean(false);
+        ExecutorService workers = Executors.newFixedThreadPool(n, r -> {
+            Thread t = new Thread(r, "branch-report");
+            t.setDaemon(true);
+            return t;
+        });
+
+        try {
+            for (Branch branch : branches) {
+                BlockingQueue<Object> queue = new ArrayBlockingQueue<>(QUEUE_ROWS);
+                queues.add(queue);
+                workers.execute(() -> {
+                    try (Connection conn = open(branch)) {
+                        query.run(branch, conn, row -> put(queue, row, stopped));
+                        put(queue, END, stopped);
+                    } catch (Stopped ignored) {
+                        // merge finished early
+                    } catch (Exception ex) {
+                        try {
+                            put(queue, new Failure(branch, ex), stopped);
+                        } catch (Stopped ignored) {
+                            // nobody is waiting any more
+                        }
+                    }
+                });
+            }
+
+            // one head row per branch; the smallest goes out and is replaced by the next of its branch
+            record Head<R>(R row, int branch) {
+            }
+            PriorityQueue<Head<T>> heads = new PriorityQueue<>(n,
+                    Comparator.<Head<T>, T>comparing(Head::row, order).thenComparingInt(Head::branch));
+
+            for (int i = 0; i < n; i++) {
+                T first = take(queues.get(i));
+                if (first != null) heads.add(new Head<>(first, i));
+            }
+            while (!heads.isEmpty()) {
+                Head<T> head = heads.poll();
+                if (!sink.test(head.row())) break;
+
+                T next = take(queues.get(head.branch()));
+                if (next != null) heads.add(new Head<>(next, head.branch()));
+            }
+        } finally {
+            stopped.set(true);
+            workers.shutdownNow();
+        }
+    }
+
+    // next row of a branch, null at its end
+    @SuppressWarnings("unchecked")
+    private static <T> T take(BlockingQueue<Object> queue) throws SQLException {
+        Object item;
+        try {
+            item = queue.take();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while reading branches", ex);
+        }
+        if (item == END) return null;
+        if (item instanceof Failure) {
+            Failure f = (Failure) item;
+            throw new SQLException("Branch " + f.branch.name + ": " + f.error.getMessage(), f.error);
+        }
+        return (T) item;
+    }
+
+    // blocks while the merge is behind, so a fast branch doesn't pile up rows in memory
+    private static void put(BlockingQueue<Object> queue, Object item, AtomicBoolean stopped) {
+        try {
+            while (!queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+                if (stopped.get()) throw new Stopped();
+            }
+        } catch (InterruptedException ex) {
+            throw new Stopped();
+        }
+    }
+
+    private static Connection open(Branch branch) throws SQLException {
+        // ATTACH would create a missing file
+        if (!Files.isRegularFile(branch.file)) {
+            throw new SQLException(branch.file + " not found");
+        }
+
+        Connection conn = DriverManager.getConnection("jdbc:sqlite::memory:");
+        try (Statement stmt = conn.createStatement()) {
+            attach(conn, branch.file, "branch");
+            Path archive = branch.file.resolveSibling("clinic-archive.db");
+            if (Files.isRegularFile(archive)) {
+                attach(conn, archive, "archive");
+            }
+            stmt.execute("PRAGMA query_only = ON");
+
+            try (ResultSet rs = stmt.executeQuery("PRAGMA branch.user_version")) {
+                if (rs.next() && rs.getInt(1) < MIN_SCHEMA) {
+                    throw new SQLException(branch.file + " was last opened by an older version of the app");
+                }
+            }
+            // one snapshot for all statements of this branch
+            conn.setAutoCommit(false);
+            return conn;
+        } catch (SQLException ex) {
+            conn.close();
+            throw ex;
+        }
+    }
+
+    // mode=ro: a plain ATTACH opens the branch file read-write, query_only only guards this connection
+    private static void attach(Connection conn, Path file, String schema) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("ATTACH DATABASE ? AS " + schema)) {
+            ps.setString(1, uri(file) + "?mode=ro" + (SNAPSHOTS ? "&immutable=1" : ""));
+            ps.execute();
+        }
+    }
+
+    // file: URI for SQLite; /tmp/x, //server/share/x and C:\x become file:///tmp/x, file:////server/share/x, file:///C:/x
+    private static String uri(Path file) {
+        String path = file.toAbsolutePath().toString().replace('\\', '/');
+        if (!path.startsWith("/")) path = "/" + path;
+
+        StringBuilder out = new StringBuilder("file://");
+        for (char c : path.toCharArray()) {
+            switch (c) {
+                case '%': out.append("%25"); break;
+                case '?': out.append("%3F"); break;
+                case '#': out.append("%23"); break;
+                default: out.append(c);
+            }
+        }
+        return out.toString();
+    }
+
+    private static boolean hasArchive(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(
+                     "SELECT 1 FROM pragma_database_list WHERE name = 'archive'")) {
+            return rs.next();
+        }
+    }
+}
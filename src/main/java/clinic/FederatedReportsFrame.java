@@ -0,0 +1,169 @@
+package clinic;
+
+import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
+import java.awt.*;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Map;
+
+// Head office view over all branches (see FederatedReports)
+public class FederatedReportsFrame extends JFrame {
+
+    private JTextField fromField;
+    private JTextField toField;
+    private JComboBox<String> statusBox;
+    private DefaultTableModel appointmentModel;
+    private DefaultTableModel doctorModel;
+    private DefaultTableModel newPatientsModel;
+    private JLabel summaryLabel;
+    private JButton runButton;
+
+    // the appointment list stops here; narrower dates find the rest
+    private static final int ROW_LIMIT = 1000;
+
+    // the run in progress; rows from an older one are dropped
+    private SwingWorker<Integer, FederatedReports.AppointmentRow> loader;
+
+    public FederatedReportsFrame() {
+        setTitle("All Branches");
+        setSize(900, 520);
+        setLocationRelativeTo(null);
+        setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+
+        initComponents();
+        runReports();
+    }
+
+    private void initComponents() {
+        setLayout(new BorderLayout());
+
+        JPanel topPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        fromField = new JTextField(LocalDate.now().minusDays(30).toString(), 10);
+        toField = new JTextField(LocalDate.now().toString(), 10);
+        statusBox = new JComboBox<>(new String[] { "All statuses", "BOOKED", "COMPLETED", "CANCELLED" });
+        runButton = new JButton("Run");
+
+        topPanel.add(new JLabel("From:"));
+        topPanel.add(fromField);
+        topPanel.add(new JLabel("To:"));
+        topPanel.add(toField);
+        topPanel.add(statusBox);
+        topPanel.add(runButton);
+        runButton.addActionListener(e -> runReports());
+        add(topPanel, BorderLayout.NORTH);
+
+        appointmentModel = readOnlyModel("Branch", "ID", "Date/Time", "Patient", "Doctor", "Reason", "Status");
+        doctorModel = readOnlyModel("Branch", "Doctor", "Appointments", "Completed", "Cancelled",
+                                    "No-shows", "Upcoming", "Attendance");
+        newPatientsModel = readOnlyModel("Month", "New patients");
+
+        JTabbedPane tabs = new JTabbedPane();
+        tabs.addTab("Appointments", new JScrollPane(new JTable(appointmentModel)));
+        tabs.addTab("By doctor", new JScrollPane(new JTable(doctorModel)));
+        tabs.addTab("New patients", new JScrollPane(new JTable(newPatientsModel)));
+        add(tabs, BorderLayout.CENTER);
+
+        summaryLabel = new JLabel(" ");
+        summaryLabel.setBorder(BorderFactory.createEmptyBorder(6, 8, 6, 8));
+        add(summaryLabel, BorderLayout.SOUTH);
+    }
+
+    private static DefaultTableModel readOnlyModel(Object... columns) {
+        return new DefaultTableModel(columns, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+    }
+
+    private void runReports() {
+        if (!Session.check(this, Permission.VIEW_REPORTS)) return;
+
+        LocalDate from;
+        LocalDate to;
+        try {
+            from = LocalDate.parse(fromField.getText().trim());
+            to = LocalDate.parse(toField.getText().trim());
+        } catch (DateTimeParseException ex) {
+            JOptionPane.showMessageDialog(this, "Invalid date. Use YYYY-MM-DD (e.g., 2026-01-10).");
+            return;
+        }
+        if (from.isAfter(to)) {
+            JOptionPane.showMessageDialog(this, "'From' must not be after 'To'.");
+            return;
+        }
+        String status = statusBox.getSelectedIndex() > 0 ? (String) statusBox.getSelectedItem() : null;
+
+        if (loader != null) {
+            loader.cancel(false);
+        }
+        appointmentModel.setRowCount(0);
+        doctorModel.setRowCount(0);
+        newPatientsModel.setRowCount(0);
+        summaryLabel.setText("Reading branches...");
+        long started = System.nanoTime();
+
+        // appointments stream in as they are merged; the aggregates are filled in at the end
+        loader = new SwingWorker<Integer, FederatedReports.AppointmentRow>() {
+            List<FederatedReports.BranchDoctorStats> doctors;
+            Map<String, Integer> newPatients;
+
+            @Override
+            protected Integer doInBackground() throws Exception {
+                int[] count = { 0 };
+                FederatedReports.appointments(from, to, status, row -> {
+                    if (isCancelled() || ++count[0] > ROW_LIMIT) return false;
+                    publish(row);
+                    return true;
+                });
+                if (isCancelled()) return count[0];
+
+                doctors = FederatedReports.doctorStats(from, to);
+                newPatients = FederatedReports.newPatientsByMonth(from, to);
+                return count[0];
+            }
+
+            @Override
+            protected void process(List<FederatedReports.AppointmentRow> rows) {
+                if (loader != this) return;
+                for (FederatedReports.AppointmentRow r : rows) {
+                    appointmentModel.addRow(new Object[] { r.branch, r.id, r.dateTime, r.patient, r.doctor, r.reason, r.status });
+                }
+            }
+
+            @Override
+            protected void done() {
+                if (loader != this) return;
+                int count;
+                try {
+                    count = get();
+                } catch (Exception ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    summaryLabel.setText(" ");
+                    AppLog.showError(FederatedReportsFrame.this, "building reports", cause);
+                    return;
+                }
+
+                for (FederatedReports.BranchDoctorStats s : doctors) {
+                    doctorModel.addRow(new Object[] {
+                            s.branch, s.doctor, s.total, s.completed, s.cancelled, s.noShow, s.upcoming,
+                            String.format("%.1f%%", s.attendanceRate() * 100)
+                    });
+                }
+                int newTotal = 0;
+                for (Map.Entry<String, Integer> e : newPatients.entrySet()) {
+                    newPatientsModel.addRow(new Object[] { e.getKey(), e.getValue() });
+                    newTotal += e.getValue();
+                }
+
+                long millis = (System.nanoTime() - started) / 1_000_000;
+                summaryLabel.setText((count > ROW_LIMIT ? "First " + ROW_LIMIT : String.valueOf(count)) +
+                                     " appointments   New patients: " + newTotal + "   (" + millis + " ms)");
+            }
+        };
+        loader.execute();
+    }
+}
@@ -0,0 +1,334 @@
+package clinic;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Locale;
+
+// AES-GCM encryption of the sensitive patient columns (dob, phone, email, address).
+//
+// One random data key encrypts the data. Each user holds a copy of it wrapped with a key derived
+// from their password (PBKDF2), so the data key only exists in memory after a login.
+// Lookups use blind indexes: an HMAC of the normalized value stored next to the ciphertext
+// (phone_bidx, ...), which can be indexed and compared for equality without decrypting.
+public class FieldCrypto {
+
+    public static final String[] COLUMNS = { "dob", "phone", "email", "address" };
+
+    private static final String PREFIX = "enc1:";
+    private static final int IV_BYTES = 12;
+    private static final int TAG_BITS = 128;
+    private static final int PBKDF2_ITERATIONS = 210_000;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    // Cipher and Mac are not thread-safe but are costly to look up; keep one per thread
+    private static final ThreadLocal<Cipher> GCM = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance("AES/GCM/NoPadding");
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException("AES-GCM not available", ex);
+        }
+    });
+    private static final ThreadLocal<Mac> HMAC = ThreadLocal.withInitial(() -> {
+        try {
+            return Mac.getInstance("HmacSHA256");
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException("HmacSHA256 not available", ex);
+        }
+    });
+
+    private static volatile SecretKey dataKey;
+    private static volatile SecretKey indexKey;
+
+    private FieldCrypto() {
+    }
+
+    public static boolean isUnlocked() {
+        return dataKey != null;
+    }
+
+    /**
+     * Unwraps the data key with the user's password. The first user to log in after encryption
+     * was introduced creates the key. False if the user has not been given the key.
+     */
+    public static boolean unlock(String username, String password) throws SQLException, GeneralSecurityException {
+        try (Connection conn = Database.getConnection();
+             Statement tx = conn.createStatement()) {
+
+            tx.execute("BEGIN IMMEDIATE");
+            try {
+                String[] stored = readWrappedKey(conn, username);
+                byte[] key;
+
+                if (stored != null) {
+                    key = unwrap(password, stored);
+                } else if (!anyKeyExists(conn)) {
+                    key = KeyGenerator.getInstance("AES").generateKey().getEncoded();
+                    storeWrappedKey(conn, username, password, key);
+                } else {
+                    tx.execute("ROLLBACK");
+                    return false;
+                }
+
+                tx.execute("COMMIT");
+                install(key);
+                return true;
+            } catch (SQLException | GeneralSecurityException | RuntimeException ex) {
+                tx.execute("ROLLBACK");
+                throw ex;
+            }
+        }
+    }
+
+    /** Gives another user a copy of the data key. Needs the password of a user who has it. */
+    public static void grant(String fromUser, String fromPassword, String toUser, String toPassword)
+            throws SQLException, GeneralSecurityException {
+        try (Connection conn = Database.getConnection()) {
+            String[] stored = readWrappedKey(conn, fromUser);
+            if (stored == null) {
+                throw new GeneralSecurityException(fromUser + " has no access to patient data");
+            }
+            // a typo here would leave the other user with a key they can never unwrap
+            try (PreparedStatement ps = conn.prepareStatement("SELECT password FROM users WHERE username = ?")) {
+                ps.setString(1, toUser);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next() || !PasswordUtil.hashPassword(toPassword).equals(rs.getString("password"))) {
+                        throw new GeneralSecurityException("Wrong username or password for " + toUser);
+                    }
+                }
+            }
+
+            byte[] key;
+            try {
+                key = unwrap(fromPassword, stored);
+            } catch (GeneralSecurityException ex) {
+                throw new GeneralSecurityException("Wrong password for " + fromUser, ex);
+            }
+            try {
+                storeWrappedKey(conn, toUser, toPassword, key);
+            } finally {
+                Arrays.fill(key, (byte) 0);
+            }
+        }
+    }
+
+    /**
+     * Encrypts patient rows still in plaintext (saved before encryption, or by an older version),
+     * and the plaintext copies of their values in change_log.
+     */
+    public static void encryptExisting() throws SQLException {
+        // on the stored values themselves: a blind index is null for a blank value, so it can't tell
+        String where = String.join(" OR ", Arrays.stream(COLUMNS)
+                .map(c -> c + " NOT LIKE '" + PREFIX + "%'").toArray(String[]::new));
+
+        try (Connection conn = Database.getConnection()) {
+            SchemaMigrator.backfill(conn, "patients", "dob, phone, email, address", where,
+                    "UPDATE patients SET dob = ?, phone = ?, email = ?, address = ?, " +
+                    "dob_bidx = ?, phone_bidx = ?, email_bidx = ? WHERE rowid = ?",
+                    rs -> {
+                        String dob = rs.getString("dob");
+                        String phone = rs.getString("phone");
+                        String email = rs.getString("email");
+                        String address = rs.getString("address");
+                        // values already encrypted are kept as they are, or the sync triggers would log them
+                        return new Object[] {
+                                encryptPlain("dob", dob), encryptPlain("phone", phone),
+                                encryptPlain("email", email), encryptPlain("address", address),
+                                blindIndex("dob", decrypt("dob", dob)), blindIndex("phone", decrypt("phone", phone)),
+                                blindIndex("email", decrypt("email", email))
+                        };
+                    });
+
+            // what the sync triggers logged in plaintext before migration 18
+            SchemaMigrator.backfill(conn, "change_log INDEXED BY idx_change_log_plain", "column_name, value",
+                    SchemaMigrator.PLAINTEXT_LOGGED,
+                    "UPDATE change_log SET value = ? WHERE rowid = ?",
+                    rs -> new Object[] { encrypt(rs.getString("column_name"), rs.getString("value")) });
+        }
+    }
+
+    private static String encryptPlain(String column, String stored) {
+        return stored == null || stored.startsWith(PREFIX) ? stored : encrypt(column, stored);
+    }
+
+    /** Stored form of a column value; null stays null. */
+    public static String encrypt(String column, String plaintext) {
+        if (plaintext == null) return null;
+        SecretKey key = requireKey(dataKey);
+
+        try {
+            byte[] iv = new byte[IV_BYTES];
+            RANDOM.nextBytes(iv);
+
+            Cipher cipher = GCM.get();
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+            // the column name is authenticated, so a value can't be moved to another column
+            cipher.updateAAD(column.getBytes(StandardCharsets.UTF_8));
+            byte[] ct = cipher.doFinal(plaintext.getBytes(StandardCharsets.UTF_8));
+
+            return PREFIX + Base64.getEncoder().encodeToString(
+                    ByteBuffer.allocate(iv.length + ct.length).put(iv).put(ct).array());
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException("Encryption failed: " + ex.getMessage(), ex);
+        }
+    }
+
+    /** Plaintext of a stored column value. Values not yet encrypted are returned as they are. */
+    public static String decrypt(String column, String stored) {
+        if (stored == null || !stored.startsWith(PREFIX)) return stored;
+        SecretKey key = requireKey(dataKey);
+
+        try {
+            byte[] data = Base64.getDecoder().decode(stored.substring(PREFIX.length()));
+            Cipher cipher = GCM.get();
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, data, 0, IV_BYTES));
+            cipher.updateAAD(column.getBytes(StandardCharsets.UTF_8));
+            byte[] pt = cipher.doFinal(data, IV_BYTES, data.length - IV_BYTES);
+            return new String(pt, StandardCharsets.UTF_8);
+        } catch (GeneralSecurityException | IllegalArgumentException ex) {
+            throw new IllegalStateException("Can't decrypt " + column + ": data is damaged or the key is wrong", ex);
+        }
+    }
+
+    /** Equality-searchable token for a value (null for null/empty). Same input, same token. */
+    public static String blindIndex(String column, String plaintext) {
+        if (plaintext == null) return null;
+        String normalized = normalize(column, plaintext);
+        if (normalized.isEmpty()) return null;
+
+        try {
+            Mac mac = HMAC.get();
+            mac.init(requireKey(indexKey));
+            mac.update(column.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            byte[] h = mac.doFinal(normalized.getBytes(StandardCharsets.UTF_8));
+
+            // 128 bits is plenty for equality lookups and keeps the index small
+            StringBuilder sb = new StringBuilder(32);
+            for (int i = 0; i < 16; i++) {
+                sb.append(Character.forDigit((h[i] >> 4) & 0xF, 16)).append(Character.forDigit(h[i] & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException("Blind index failed: " + ex.getMessage(), ex);
+        }
+    }
+
+    /** What the audit log stores for a value: encrypted if the column is, else unchanged. */
+    static Object protect(String table, String column, Object value) {
+        if (value == null || !"patients".equals(table) || !isSensitive(column) || !isUnlocked()) return value;
+        return encrypt(column, value.toString());
+    }
+
+    static boolean isSensitive(String column) {
+        for (String c : COLUMNS) {
+            if (c.equals(column)) return true;
+        }
+        return false;
+    }
+
+    private static String normalize(String column, String value) {
+        switch (column) {
+            case "phone":
+                return value.replaceAll("\\D", "");
+            case "email":
+                return value.trim().toLowerCase(Locale.ROOT);
+            default:
+                return value.trim();
+        }
+    }
+
+    private static void install(byte[] key) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        byte[] derived = mac.doFinal("clinic blind index v1".getBytes(StandardCharsets.UTF_8));
+
+        indexKey = new SecretKeySpec(derived, "HmacSHA256");
+        dataKey = new SecretKeySpec(key, "AES");
+        Arrays.fill(derived, (byte) 0);
+        Arrays.fill(key, (byte) 0);
+    }
+
+    private static SecretKey requireKey(SecretKey key) {
+        if (key == null) throw new IllegalStateException("Patient data is locked; log in first.");
+        return key;
+    }
+
+    // { salt, wrapped } as stored in users, or null if the user has no copy of the key
+    private static String[] readWrappedKey(Connection conn, String username) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("SELECT key_salt, wrapped_key FROM users WHERE username = ?")) {
+            ps.setString(1, username);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next() || rs.getString("wrapped_key") == null) return null;
+                return new String[] { rs.getString("key_salt"), rs.getString("wrapped_key") };
+            }
+        }
+    }
+
+    private static boolean anyKeyExists(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT 1 FROM users WHERE wrapped_key IS NOT NULL LIMIT 1")) {
+            return rs.next();
+        }
+    }
+
+    private static void storeWrappedKey(Connection conn, String username, String password, byte[] key)
+            throws SQLException, GeneralSecurityException {
+        byte[] salt = new byte[16];
+        RANDOM.nextBytes(salt);
+        byte[] iv = new byte[IV_BYTES];
+        RANDOM.nextBytes(iv);
+
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, passwordKey(password, salt), new GCMParameterSpec(TAG_BITS, iv));
+        byte[] ct = cipher.doFinal(key);
+
+        Base64.Encoder b64 = Base64.getEncoder();
+        try (PreparedStatement ps = conn.prepareStatement(
+                "UPDATE users SET key_salt = ?, wrapped_key = ? WHERE username = ?")) {
+            ps.setString(1, b64.encodeToString(salt));
+            ps.setString(2, b64.encodeToString(ByteBuffer.allocate(iv.length + ct.length).put(iv).put(ct).array()));
+            ps.setString(3, username);
+            if (ps.executeUpdate() == 0) {
+                throw new SQLException("No such user: " + username);
+            }
+        }
+    }
+
+    private static byte[] unwrap(String password, String[] stored) throws GeneralSecurityException {
+        Base64.Decoder b64 = Base64.getDecoder();
+        byte[] salt = b64.decode(stored[0]);
+        byte[] data = b64.decode(stored[1]);
+
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, passwordKey(password, salt), new GCMParameterSpec(TAG_BITS, data, 0, IV_BYTES));
+        return cipher.doFinal(data, IV_BYTES, data.length - IV_BYTES);
+    }
+
+    static SecretKey passwordKey(String password, byte[] salt) throws GeneralSecurityException {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, PBKDF2_ITERATIONS, 256);
+        try {
+            byte[] k = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+            return new SecretKeySpec(k, "AES");
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
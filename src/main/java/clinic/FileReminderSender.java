@@ -0,0 +1,51 @@
+package clinic;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+// Stand-in for a mail server: appends each batch to an mbox file that any mail client can open.
+public class FileReminderSender implements ReminderSender {
+
+    private final Path file;
+
+    public FileReminderSender(Path file) {
+        this.file = file;
+    }
+
+    @Override
+    public Map<Long, String> send(List<Reminder> batch) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+
+        String date = ZonedDateTime.now().format(DateTimeFormatter.RFC_1123_DATE_TIME);
+
+        // one write and one fsync per batch
+        StringBuilder sb = new StringBuilder();
+        for (Reminder r : batch) {
+            sb.append("From clinic@localhost ").append(date).append('\n')
+              .append("Date: ").append(date).append('\n')
+              .append("To: ").append(r.email != null ? r.email : r.phone + " (SMS)").append('\n')
+              .append("Subject: Appointment reminder\n")
+              .append("X-Reminder-Id: ").append(r.id).append('\n')
+              .append('\n')
+              .append(r.text()).append("\n\n");
+        }
+
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE,
+                StandardOpenOption.SYNC)) {
+            out.write(sb.toString());
+        }
+        return Collections.emptyMap();
+    }
+}
@@ -0,0 +1,482 @@
+package clinic;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Maintains the kpi_* aggregate tables (see migration 6) and answers report queries from them.
+//
+// refresh(): incremental. Recomputes only the days logged in kpi_changes after the watermark,
+//            and the first visit of every patient with an appointment on one of those days.
+// rebuild(): full. Splits the whole date range into months and aggregates them in parallel on a
+//            fork-join pool, one connection per worker, then replaces the aggregates in one transaction.
+public class KpiEngine {
+
+    public static class DoctorStats {
+        public String doctor;
+        public int total;
+        public int completed;
+        public int cancelled;
+        public int noShow;   // still BOOKED on a day that has passed
+        public int upcoming; // BOOKED today or later
+
+        /** Attendance (show) rate: appointments that went ahead, out of those that weren't cancelled and are over. */
+        public double attendanceRate() {
+            int held = completed + noShow;
+            return held == 0 ? 0 : (double) completed / held;
+        }
+
+        public double noShowRate() {
+            int held = completed + noShow;
+            return held == 0 ? 0 : (double) noShow / held;
+        }
+    }
+
+    private static class DailyRow {
+        String day;
+        int doctorId;
+        int total;
+        int booked;
+        int completed;
+        int cancelled;
+    }
+
+    private static class Partial {
+        final List<DailyRow> daily = new ArrayList<>();
+        final Map<Integer, String> firstVisit = new HashMap<>();
+
+        void merge(Partial other) {
+            daily.addAll(other.daily);
+            other.firstVisit.forEach((patientId, day) -> firstVisit.merge(patientId, day, KpiEngine::minDay));
+        }
+    }
+
+    private static final int PARALLELISM = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private KpiEngine() {
+    }
+
+    /** Brings the aggregates up to date. Returns the number of days recomputed (-1 = full rebuild). */
+    public static synchronized int refresh() throws SQLException {
+        try (Connection conn = Database.getConnection();
+             Statement tx = conn.createStatement()) {
+
+            tx.execute("BEGIN IMMEDIATE");
+            try {
+                Long watermark = readWatermark(conn);
+                if (watermark == null) {
+                    tx.execute("ROLLBACK");
+                    rebuild();
+                    return -1;
+                }
+
+                long maxSeq = maxChangeSeq(conn);
+                Set<String> days = new LinkedHashSet<>();
+                try (PreparedStatement ps = conn.prepareStatement(
+                        "SELECT DISTINCT day FROM kpi_changes WHERE seq > ? AND seq <= ?")) {
+                    ps.setLong(1, watermark);
+                    ps.setLong(2, maxSeq);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) days.add(rs.getString(1));
+                    }
+                }
+
+                String horizon = AppointmentArchive.horizon().toString();
+                boolean archiveExists = AppointmentArchive.exists();
+                boolean archiveAttached = false;
+
+                for (String day : days) {
+                    // closed appointments on old days may already sit in the archive
+                    boolean withArchive = day.compareTo(horizon) < 0 && archiveExists;
+                    if (withArchive && !archiveAttached) {
+                        tx.execute("COMMIT"); // ATTACH is not allowed inside a transaction
+                        AppointmentArchive.attach(conn);
+                        tx.execute("BEGIN IMMEDIATE");
+                        archiveAttached = true;
+                    }
+
+                    String next = LocalDate.parse(day).plusDays(1).toString();
+                    Partial p = aggregate(conn, day, next, withArchive, false);
+
+                    try (PreparedStatement del = conn.prepareStatement("DELETE FROM kpi_daily WHERE day = ?")) {
+                        del.setString(1, day);
+                        del.executeUpdate();
+                    }
+                    write(conn, p);
+                }
+
+                // a first visit may be anywhere in the patient's history, archived visits included
+                if (!days.isEmpty() && archiveExists && !archiveAttached) {
+                    tx.execute("COMMIT");
+                    AppointmentArchive.attach(conn);
+                    tx.execute("BEGIN IMMEDIATE");
+                    archiveAttached = true;
+                }
+                refreshFirstVisits(conn, days, archiveAttached);
+
+                saveWatermark(conn, maxSeq);
+                tx.execute("COMMIT");
+                return days.size();
+
+            } catch (SQLException ex) {
+                rollbackQuietly(tx);
+                throw ex;
+            }
+        }
+    }
+
+    /** Recomputes every aggregate from scratch using parallel month partitions. */
+    public static synchronized void rebuild() throws SQLException {
+        long maxSeq;
+        String first;
+        String last;
+        boolean withArchive = AppointmentArchive.exists();
+
+        try (Connection conn = Database.getConnection()) {
+            maxSeq = maxChangeSeq(conn);
+            if (withArchive) AppointmentArchive.attach(conn);
+
+            String range = "SELECT MIN(appointment_datetime), MAX(appointment_datetime) FROM main.appointments";
+            if (withArchive) {
+                range = "SELECT MIN(lo), MAX(hi) FROM (" +
+                        "SELECT MIN(appointment_datetime) lo, MAX(appointment_datetime) hi FROM main.appointments " +
+                        "UNION ALL " +
+                        "SELECT MIN(appointment_datetime), MAX(appointment_datetime) FROM archive.appointments)";
+            }
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery(range)) {
+                rs.next();
+                first = rs.getString(1);
+                last = rs.getString(2);
+            }
+        }
+
+        List<YearMonth> months = new ArrayList<>();
+        if (first != null) {
+            YearMonth m = YearMonth.parse(first.substring(0, 7));
+            YearMonth end = YearMonth.parse(last.substring(0, 7));
+            for (; !m.isAfter(end); m = m.plusMonths(1)) months.add(m);
+        }
+
+        Partial all;
+        ForkJoinPool pool = new ForkJoinPool(PARALLELISM);
+        try {
+            all = months.isEmpty() ? new Partial() : pool.invoke(new MonthsTask(months, withArchive));
+        } catch (RuntimeException ex) {
+            if (ex.getCause() instanceof SQLException) throw (SQLException) ex.getCause();
+            throw ex;
+        } finally {
+            pool.shutdown();
+        }
+
+        try (Connection conn = Database.getConnection();
+             Statement tx = conn.createStatement()) {
+
+            tx.execute("BEGIN IMMEDIATE");
+            try {
+                tx.execute("DELETE FROM kpi_daily");
+                tx.execute("DELETE FROM kpi_first_visit");
+                write(conn, all);
+                saveWatermark(conn, maxSeq);
+                tx.execute("COMMIT");
+            } catch (SQLException ex) {
+                rollbackQuietly(tx);
+                throw ex;
+            }
+        }
+    }
+
+    // Splits the month list in halves until a single month is left, which is aggregated on its own connection
+    private static class MonthsTask extends RecursiveTask<Partial> {
+        private final List<YearMonth> months;
+        private final boolean withArchive;
+
+        MonthsTask(List<YearMonth> months, boolean withArchive) {
+            this.months = months;
+            this.withArchive = withArchive;
+        }
+
+        @Override
+        protected Partial compute() {
+            if (months.size() > 1) {
+                int mid = months.size() / 2;
+                MonthsTask left = new MonthsTask(months.subList(0, mid), withArchive);
+                MonthsTask right = new MonthsTask(months.subList(mid, months.size()), withArchive);
+                left.fork();
+                Partial result = right.compute();
+                result.merge(left.join());
+                return result;
+            }
+
+            YearMonth month = months.get(0);
+            try (Connection conn = Database.getConnection()) {
+                if (withArchive) AppointmentArchive.attach(conn);
+                return aggregate(conn, month.atDay(1).toString(), month.plusMonths(1).atDay(1).toString(), withArchive, true);
+            } catch (SQLException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+    }
+
+    // Aggregates appointments with from <= appointment_datetime < to (dates as YYYY-MM-DD)
+    private static Partial aggregate(Connection conn, String from, String to, boolean withArchive,
+                                     boolean firstVisits) throws SQLException {
+        String source = "SELECT appointment_datetime, doctor_id, patient_id, status FROM main.appointments " +
+                        "WHERE appointment_datetime >= ? AND appointment_datetime < ?";
+        if (withArchive) {
+            source += " UNION ALL " +
+                      "SELECT appointment_datetime, doctor_id, patient_id, status FROM archive.appointments " +
+                      "WHERE appointment_datetime >= ? AND appointment_datetime < ?";
+        }
+
+        Partial p = new Partial();
+
+        String dailySql = "SELECT substr(appointment_datetime, 1, 10) AS day, doctor_id, COUNT(*) AS total, " +
+                          "  SUM(status = 'BOOKED') AS booked, SUM(status = 'COMPLETED') AS completed, " +
+                          "  SUM(status = 'CANCELLED') AS cancelled " +
+                          "FROM (" + source + ") GROUP BY day, doctor_id";
+        try (PreparedStatement ps = conn.prepareStatement(dailySql)) {
+            bindRange(ps, from, to, withArchive);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    DailyRow r = new DailyRow();
+                    r.day = rs.getString("day");
+                    r.doctorId = rs.getInt("doctor_id");
+                    r.total = rs.getInt("total");
+                    r.booked = rs.getInt("booked");
+                    r.completed = rs.getInt("completed");
+                    r.cancelled = rs.getInt("cancelled");
+                    p.daily.add(r);
+                }
+            }
+        }
+
+        if (!firstVisits) return p;
+
+        String firstSql = "SELECT patient_id, MIN(substr(appointment_datetime, 1, 10)) " +
+                          "FROM (" + source + ") WHERE status = 'COMPLETED' GROUP BY patient_id";
+        try (PreparedStatement ps = conn.prepareStatement(firstSql)) {
+            bindRange(ps, from, to, withArchive);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    p.firstVisit.put(rs.getInt(1), rs.getString(2));
+                }
+            }
+        }
+        return p;
+    }
+
+    private static void bindRange(PreparedStatement ps, String from, String to, boolean withArchive) throws SQLException {
+        ps.setString(1, from);
+        ps.setString(2, to);
+        if (withArchive) {
+            ps.setString(3, from);
+            ps.setString(4, to);
+        }
+    }
+
+    private static void write(Connection conn, Partial p) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(
+                "INSERT OR REPLACE INTO kpi_daily (day, doctor_id, total, booked, completed, cancelled) " +
+                "VALUES (?, ?, ?, ?, ?, ?)")) {
+            for (DailyRow r : p.daily) {
+                ps.setString(1, r.day);
+                ps.setInt(2, r.doctorId);
+                ps.setInt(3, r.total);
+                ps.setInt(4, r.booked);
+                ps.setInt(5, r.completed);
+                ps.setInt(6, r.cancelled);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+
+        try (PreparedStatement ps = conn.prepareStatement(
+                "INSERT INTO kpi_first_visit (patient_id, first_day) VALUES (?, ?)")) {
+            for (Map.Entry<Integer, String> e : p.firstVisit.entrySet()) {
+                ps.setInt(1, e.getKey());
+                ps.setString(2, e.getValue());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    // A first visit is the first COMPLETED appointment: cancelled ones and bookings still to come
+    // don't count. It can move later as well as earlier (cancelled, moved, given to another
+    // patient), so it is recomputed from each affected patient's whole history.
+    private static void refreshFirstVisits(Connection conn, Set<String> days, boolean withArchive)
+            throws SQLException {
+        String onDay = "SELECT patient_id FROM main.appointments " +
+                       "WHERE appointment_datetime >= ? AND appointment_datetime < ? " +
+                       "UNION SELECT patient_id FROM kpi_first_visit WHERE first_day = ?";
+        if (withArchive) {
+            onDay += " UNION SELECT patient_id FROM archive.appointments " +
+                     "WHERE appointment_datetime >= ? AND appointment_datetime < ?";
+        }
+        Set<Integer> patients = new LinkedHashSet<>();
+        try (PreparedStatement ps = conn.prepareStatement(onDay)) {
+            for (String day : days) {
+                String next = LocalDate.parse(day).plusDays(1).toString();
+                ps.setString(1, day);
+                ps.setString(2, next);
+                ps.setString(3, day);
+                if (withArchive) {
+                    ps.setString(4, day);
+                    ps.setString(5, next);
+                }
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) patients.add(rs.getInt(1));
+                }
+            }
+        }
+
+        String firstSql = "SELECT MIN(appointment_datetime) AS first FROM main.appointments " +
+                          "WHERE patient_id = ? AND status = 'COMPLETED'";
+        if (withArchive) {
+            firstSql = "SELECT MIN(first) FROM (" + firstSql + " UNION ALL " +
+                       "SELECT MIN(appointment_datetime) FROM archive.appointments " +
+                       "WHERE patient_id = ? AND status = 'COMPLETED')";
+        }
+        try (PreparedStatement first = conn.prepareStatement(firstSql);
+             PreparedStatement upsert = conn.prepareStatement(
+                     "INSERT INTO kpi_first_visit (patient_id, first_day) VALUES (?, ?) " +
+                     "ON CONFLICT (patient_id) DO UPDATE SET first_day = excluded.first_day");
+             PreparedStatement delete = conn.prepareStatement("DELETE FROM kpi_first_visit WHERE patient_id = ?")) {
+
+            for (int patientId : patients) {
+                first.setInt(1, patientId);
+                if (withArchive) first.setInt(2, patientId);
+
+                String day;
+                try (ResultSet rs = first.executeQuery()) {
+                    day = rs.next() ? rs.getString(1) : null;
+                }
+                if (day == null) {
+                    delete.setInt(1, patientId);
+                    delete.addBatch();
+                } else {
+                    upsert.setInt(1, patientId);
+                    upsert.setString(2, day.substring(0, 10));
+                    upsert.addBatch();
+                }
+            }
+            upsert.executeBatch();
+            delete.executeBatch();
+        }
+    }
+
+    /** Per-doctor figures for from..to (inclusive dates, YYYY-MM-DD), busiest doctor first. */
+    public static List<DoctorStats> doctorStats(String from, String to) throws SQLException {
+        Session.require(Permission.VIEW_REPORTS);
+
+        String sql = "SELECT d.name, SUM(k.total) AS total, SUM(k.completed) AS completed, " +
+                     "  SUM(k.cancelled) AS cancelled, " +
+                     "  SUM(CASE WHEN k.day < ? THEN k.booked ELSE 0 END) AS no_show, " +
+                     "  SUM(CASE WHEN k.day >= ? THEN k.booked ELSE 0 END) AS upcoming " +
+                     "FROM kpi_daily k JOIN doctors d ON k.doctor_id = d.id " +
+                     "WHERE k.day >= ? AND k.day <= ? " +
+                     "GROUP BY d.id ORDER BY total DESC";
+
+        String today = LocalDate.now().toString();
+        List<DoctorStats> out = new ArrayList<>();
+
+        try (Connection conn = Database.getReadConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+
+            ps.setString(1, today);
+            ps.setString(2, today);
+            ps.setString(3, from);
+            ps.setString(4, to);
+
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    DoctorStats s = new DoctorStats();
+                    s.doctor = rs.getString("name");
+                    s.total = rs.getInt("total");
+                    s.completed = rs.getInt("completed");
+                    s.cancelled = rs.getInt("cancelled");
+                    s.noShow = rs.getInt("no_show");
+                    s.upcoming = rs.getInt("upcoming");
+                    out.add(s);
+                }
+            }
+        }
+        return out;
+    }
+
+    /** New patients (by first completed appointment) per month, YYYY-MM -> count. */
+    public static Map<String, Integer> newPatientsByMonth(String from, String to) throws SQLException {
+        Session.require(Permission.VIEW_REPORTS);
+
+        String sql = "SELECT substr(first_day, 1, 7) AS month, COUNT(*) FROM kpi_first_visit " +
+                     "WHERE first_day >= ? AND first_day <= ? GROUP BY month ORDER BY month";
+
+        Map<String, Integer> out = new LinkedHashMap<>();
+
+        try (Connection conn = Database.getReadConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+
+            ps.setString(1, from);
+            ps.setString(2, to);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    out.put(rs.getString(1), rs.getInt(2));
+                }
+            }
+        }
+        return out;
+    }
+
+    private static Long readWatermark(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT last_seq FROM kpi_watermark WHERE id = 1")) {
+            return rs.next() ? rs.getLong(1) : null;
+        }
+    }
+
+    private static long maxChangeSeq(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(seq), 0) FROM kpi_changes")) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    // processed change entries are no longer needed once the watermark passes them
+    private static void saveWatermark(Connection conn, long seq) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(
+                "INSERT OR REPLACE INTO kpi_watermark (id, last_seq) VALUES (1, ?)")) {
+            ps.setLong(1, seq);
+            ps.executeUpdate();
+        }
+        try (PreparedStatement ps = conn.prepareStatement("DELETE FROM kpi_changes WHERE seq <= ?")) {
+            ps.setLong(1, seq);
+            ps.executeUpdate();
+        }
+    }
+
+    private static String minDay(String a, String b) {
+        return a.compareTo(b) <= 0 ? a : b;
+    }
+
+    private static void rollbackQuietly(Statement tx) {
+        try {
+            tx.execute("ROLLBACK");
+        } catch (SQLException ignored) {
+            // nothing to roll back
+        }
+    }
+}
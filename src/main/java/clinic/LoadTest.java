@@ -0,0 +1,410 @@
+package clinic;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Headless load test: N concurrent clients replay the desk workflows against a database file,
+// then print throughput, latency percentiles, lock (busy) errors and double-booking rejections.
+//
+//   java -cp clinic-management-1.0.jar clinic.LoadTest [--db loadtest.db] [--clients 8] [--seconds 30]
+//        [--think-ms 0] [--patients 2000] [--doctors 20]
+//
+// Each operation runs the same statements as the frame it stands for, on its own connection,
+// as a desk would: BookAppointmentFrame.onSave, ManageAppointmentsFrame.loadAppointments and
+// onUpdateStatus, UpdatePatientFrame.onSave. The database is seeded with patients and doctors if
+// it has fewer than asked for; point --db at a copy, never at a live clinic.db.
+//
+// One platform thread per client: virtual threads need Java 21 and this project targets 17.
+// With a handful to a few dozen clients (one per desk) that makes no difference.
+public class LoadTest {
+
+    private enum Op {
+        BOOK(40), LIST_DAY(30), UPDATE_STATUS(20), EDIT_PATIENT(10);
+
+        final int weight;
+
+        Op(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    private enum Outcome { OK, DOUBLE_BOOKED, EDIT_CONFLICT, BUSY, ERROR }
+
+    private static final DateTimeFormatter APPT_FMT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    private static final int DAYS_AHEAD = 30;
+
+    private static final String[] PATIENT_COLUMNS = { "phone" };
+    private static final String[] STATUS_COLUMN = { "status" };
+
+    // per client, merged at the end, so recording never contends
+    private static final class Stats {
+        final long[][] latencies = new long[Op.values().length][];
+        final int[] sizes = new int[Op.values().length];
+        final int[][] outcomes = new int[Op.values().length][Outcome.values().length];
+
+        Stats() {
+            for (int i = 0; i < latencies.length; i++) latencies[i] = new long[1024];
+        }
+
+        void record(Op op, Outcome outcome, long nanos) {
+            int i = op.ordinal();
+            if (sizes[i] == latencies[i].length) latencies[i] = Arrays.copyOf(latencies[i], sizes[i] * 2);
+            latencies[i][sizes[i]++] = nanos;
+            outcomes[i][outcome.ordinal()]++;
+        }
+
+        void addAll(Stats other) {
+            for (int i = 0; i < latencies.length; i++) {
+                if (sizes[i] + other.sizes[i] > latencies[i].length) {
+                    latencies[i] = Arrays.copyOf(latencies[i], sizes[i] + other.sizes[i]);
+                }
+                System.arraycopy(other.latencies[i], 0, latencies[i], sizes[i], other.sizes[i]);
+                sizes[i] += other.sizes[i];
+                for (int j = 0; j < outcomes[i].length; j++) outcomes[i][j] += other.outcomes[i][j];
+            }
+        }
+    }
+
+    private final int[] patientIds;
+    private final int[] doctorIds;
+    private final AtomicLong maxAppointmentId;
+    private final long thinkMillis;
+
+    private LoadTest(int[] patientIds, int[] doctorIds, long maxAppointmentId, long thinkMillis) {
+        this.patientIds = patientIds;
+        this.doctorIds = doctorIds;
+        this.maxAppointmentId = new AtomicLong(maxAppointmentId);
+        this.thinkMillis = thinkMillis;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String db = "loadtest.db";
+        int clients = 8;
+        int seconds = 30;
+        long think = 0;
+        int patients = 2000;
+        int doctors = 20;
+
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--db": db = args[i + 1]; break;
+                case "--clients": clients = Integer.parseInt(args[i + 1]); break;
+                case "--seconds": seconds = Integer.parseInt(args[i + 1]); break;
+                case "--think-ms": think = Long.parseLong(args[i + 1]); break;
+                case "--patients": patients = Integer.parseInt(args[i + 1]); break;
+                case "--doctors": doctors = Integer.parseInt(args[i + 1]); break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        System.setProperty("clinic.db.url", "jdbc:sqlite:" + db);
+        System.setProperty("clinic.reminders.sender", "off");
+
+        // same session state a desk has after login
+        Session.start("loadtest", Role.ADMIN);
+        if (!FieldCrypto.unlock("admin", "admin123")) {
+            throw new IllegalStateException("Load test database must have the demo admin account");
+        }
+        AuditLog.start();
+
+        LoadTest test = seed(patients, doctors, think);
+        System.out.printf("Load test: %d clients, %d s, database %s%n", clients, seconds, db);
+
+        Stats total = test.run(clients, seconds);
+        AuditLog.flush();
+        report(total, seconds);
+        System.exit(0);
+    }
+
+    private static LoadTest seed(int patients, int doctors, long think) throws SQLException {
+        try (Connection conn = Database.getConnection();
+             Statement tx = conn.createStatement()) {
+
+            tx.execute("BEGIN IMMEDIATE");
+            int havePatients = count(conn, "patients");
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "INSERT INTO patients (first_name, last_name, gender, dob, phone, name_key, dob_bidx, phone_bidx) " +
+                    "VALUES (?, ?, 'N/A', ?, ?, ?, ?, ?)")) {
+                for (int i = havePatients; i < patients; i++) {
+                    String last = "Load" + i;
+                    String dob = LocalDate.of(1950, 1, 1).plusDays(i % 20000).toString();
+                    String phone = String.format("555%07d", i);
+                    ps.setString(1, "Test");
+                    ps.setString(2, last);
+                    ps.setString(3, FieldCrypto.encrypt("dob", dob));
+                    ps.setString(4, FieldCrypto.encrypt("phone", phone));
+                    ps.setString(5, PatientDeduplicator.nameKey(last));
+                    ps.setString(6, FieldCrypto.blindIndex("dob", dob));
+                    ps.setString(7, FieldCrypto.blindIndex("phone", phone));
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+
+            int haveDoctors = count(conn, "doctors");
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "INSERT INTO doctors (name, specialization, phone, status) VALUES (?, 'General', '5550000000', 'ACTIVE')")) {
+                for (int i = haveDoctors; i < doctors; i++) {
+                    ps.setString(1, "Dr Load " + i);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            tx.execute("COMMIT");
+
+            return new LoadTest(ids(conn, "SELECT id FROM patients"),
+                                ids(conn, "SELECT id FROM doctors WHERE status = 'ACTIVE'"),
+                                count(conn, "appointments") == 0 ? 0 : maxId(conn),
+                                think);
+        }
+    }
+
+    private Stats run(int clients, int seconds) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+
+        List<Future<Stats>> results = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            results.add(pool.submit(() -> client(deadline)));
+        }
+
+        Stats total = new Stats();
+        for (Future<Stats> f : results) {
+            total.addAll(f.get());
+        }
+        pool.shutdown();
+        return total;
+    }
+
+    private Stats client(long deadline) throws InterruptedException {
+        Stats stats = new Stats();
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+
+        while (System.nanoTime() < deadline) {
+            Op op = pick(rnd);
+            long start = System.nanoTime();
+            Outcome outcome;
+            try {
+                switch (op) {
+                    case BOOK: outcome = book(rnd); break;
+                    case LIST_DAY: outcome = listDay(rnd); break;
+                    case UPDATE_STATUS: outcome = updateStatus(rnd); break;
+                    default: outcome = editPatient(rnd); break;
+                }
+            } catch (SQLException ex) {
+                outcome = classify(ex);
+            }
+            stats.record(op, outcome, System.nanoTime() - start);
+
+            if (thinkMillis > 0) {
+                Thread.sleep(rnd.nextLong(thinkMillis / 2, thinkMillis * 3 / 2 + 1));
+            }
+        }
+        return stats;
+    }
+
+    private static Op pick(ThreadLocalRandom rnd) {
+        int r = rnd.nextInt(100);
+        for (Op op : Op.values()) {
+            if (r < op.weight) return op;
+            r -= op.weight;
+        }
+        return Op.BOOK;
+    }
+
+    private static Outcome classify(SQLException ex) {
+        String msg = ex.getMessage() == null ? "" : ex.getMessage();
+        if (msg.contains("SQLITE_BUSY") || msg.contains("database is locked")) return Outcome.BUSY;
+        if (msg.contains("uq_doctor_time_booked") || msg.contains("UNIQUE")) return Outcome.DOUBLE_BOOKED;
+        return Outcome.ERROR;
+    }
+
+    // BookAppointmentFrame.onSave
+    private Outcome book(ThreadLocalRandom rnd) throws SQLException {
+        int patientId = patientIds[rnd.nextInt(patientIds.length)];
+        int doctorId = doctorIds[rnd.nextInt(doctorIds.length)];
+        // working hours, 15 minute slots
+        String slot = LocalDate.now().plusDays(1 + rnd.nextInt(DAYS_AHEAD))
+                .atTime(8 + rnd.nextInt(10), 15 * rnd.nextInt(4)).format(APPT_FMT);
+
+        String sql = "INSERT INTO appointments (patient_id, doctor_id, appointment_datetime, reason, status) " +
+                     "VALUES (?, ?, ?, ?, 'BOOKED')";
+
+        try (Connection conn = Database.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+            ps.setInt(1, patientId);
+            ps.setInt(2, doctorId);
+            ps.setString(3, slot);
+            ps.setString(4, "load test");
+            ps.executeUpdate();
+
+            try (ResultSet keys = ps.getGeneratedKeys()) {
+                if (keys.next()) {
+                    long id = keys.getLong(1);
+                    maxAppointmentId.accumulateAndGet(id, Math::max);
+                    AuditLog.inserted("appointments", id, AppointmentSeries.AUDIT_COLUMNS,
+                                      new Object[] { patientId, doctorId, slot, "load test", "BOOKED" });
+                }
+            }
+        }
+        return Outcome.OK;
+    }
+
+    // ManageAppointmentsFrame.loadAppointments for one day
+    private Outcome listDay(ThreadLocalRandom rnd) throws SQLException {
+        LocalDate day = LocalDate.now().plusDays(rnd.nextInt(DAYS_AHEAD + 1));
+
+        String sql = "SELECT a.id, a.appointment_datetime, p.first_name, p.last_name, " +
+                     "       d.name AS doctor_name, a.reason, a.status " +
+                     "FROM appointments a " +
+                     "JOIN patients p ON a.patient_id = p.id " +
+                     "JOIN doctors d ON a.doctor_id = d.id " +
+                     "WHERE a.appointment_datetime >= ? AND a.appointment_datetime < ? " +
+                     "ORDER BY a.appointment_datetime";
+
+        try (Connection conn = Database.getReadConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, day.toString());
+            ps.setString(2, day.plusDays(1).toString());
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    rs.getInt(1);
+                    rs.getString(2);
+                    rs.getString(3);
+                    rs.getString(4);
+                    rs.getString(5);
+                    rs.getString(6);
+                    rs.getString(7);
+                }
+            }
+        }
+        return Outcome.OK;
+    }
+
+    // ManageAppointmentsFrame.onUpdateStatus
+    private Outcome updateStatus(ThreadLocalRandom rnd) throws SQLException {
+        long max = maxAppointmentId.get();
+        if (max == 0) return Outcome.OK;
+
+        long id = 1 + rnd.nextLong(max);
+        String newStatus = rnd.nextInt(4) == 0 ? "CANCELLED" : "COMPLETED";
+
+        try (Connection conn = Database.getConnection();
+             PreparedStatement ps = conn.prepareStatement("UPDATE appointments SET status = ? WHERE id = ?")) {
+            ps.setString(1, newStatus);
+            ps.setLong(2, id);
+            if (ps.executeUpdate() == 1) {
+                AuditLog.updated("appointments", id, STATUS_COLUMN, new Object[] { "BOOKED" }, new Object[] { newStatus });
+            }
+        }
+        return Outcome.OK;
+    }
+
+    // UpdatePatientFrame.onSave: read with row_version, then the optimistic UPDATE
+    private Outcome editPatient(ThreadLocalRandom rnd) throws SQLException {
+        int patientId = patientIds[rnd.nextInt(patientIds.length)];
+
+        try (Connection conn = Database.getConnection()) {
+            String oldPhone;
+            long version;
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "SELECT first_name, last_name, dob, gender, phone, email, address, row_version " +
+                    "FROM patients WHERE id = ?")) {
+                ps.setInt(1, patientId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) return Outcome.OK;
+                    oldPhone = FieldCrypto.decrypt("phone", rs.getString("phone"));
+                    FieldCrypto.decrypt("dob", rs.getString("dob"));
+                    FieldCrypto.decrypt("email", rs.getString("email"));
+                    FieldCrypto.decrypt("address", rs.getString("address"));
+                    version = rs.getLong("row_version");
+                }
+            }
+
+            String phone = String.format("555%07d", rnd.nextInt(10_000_000));
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "UPDATE patients SET phone = ?, phone_bidx = ?, row_version = row_version + 1 " +
+                    "WHERE id = ? AND row_version = ?")) {
+                ps.setString(1, FieldCrypto.encrypt("phone", phone));
+                ps.setString(2, FieldCrypto.blindIndex("phone", phone));
+                ps.setInt(3, patientId);
+                ps.setLong(4, version);
+                if (ps.executeUpdate() == 0) return Outcome.EDIT_CONFLICT;
+            }
+
+            AuditLog.updated("patients", patientId, PATIENT_COLUMNS, new Object[] { oldPhone }, new Object[] { phone });
+        }
+        return Outcome.OK;
+    }
+
+    private static void report(Stats s, int seconds) {
+        System.out.printf("%n%-14s %8s %8s %8s %8s %6s %6s %8s %8s %8s %8s%n",
+                "operation", "count", "ok", "dbl-book", "conflict", "busy", "error",
+                "p50 ms", "p95 ms", "p99 ms", "max ms");
+
+        long all = 0;
+        int[] totals = new int[Outcome.values().length];
+        for (Op op : Op.values()) {
+            int i = op.ordinal();
+            long[] lat = Arrays.copyOf(s.latencies[i], s.sizes[i]);
+            Arrays.sort(lat);
+            int[] o = s.outcomes[i];
+            System.out.printf("%-14s %8d %8d %8d %8d %6d %6d %8.2f %8.2f %8.2f %8.2f%n",
+                    op.name().toLowerCase(), lat.length,
+                    o[Outcome.OK.ordinal()], o[Outcome.DOUBLE_BOOKED.ordinal()], o[Outcome.EDIT_CONFLICT.ordinal()],
+                    o[Outcome.BUSY.ordinal()], o[Outcome.ERROR.ordinal()],
+                    percentile(lat, 0.50), percentile(lat, 0.95), percentile(lat, 0.99), percentile(lat, 1.0));
+            all += lat.length;
+            for (int j = 0; j < totals.length; j++) totals[j] += o[j];
+        }
+
+        System.out.printf("%nThroughput: %.1f ops/s   busy/locked: %d   double-booking rejections: %d   other errors: %d%n",
+                (double) all / seconds, totals[Outcome.BUSY.ordinal()],
+                totals[Outcome.DOUBLE_BOOKED.ordinal()], totals[Outcome.ERROR.ordinal()]);
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        int idx = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, idx)] / 1_000_000.0;
+    }
+
+    private static int count(Connection conn, String table) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + table)) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    private static long maxId(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT MAX(id) FROM appointments")) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    private static int[] ids(Connection conn, String sql) throws SQLException {
+        List<Integer> list = new ArrayList<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            while (rs.next()) list.add(rs.getInt(1));
+        }
+        return list.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
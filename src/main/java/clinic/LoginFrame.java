@@ -3,9 +3,12 @@ package clinic;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.Arrays;
 
 public class LoginFrame extends JFrame {
@@ -24,6 +27,13 @@ public class LoginFrame extends JFrame {
         setLocationRelativeTo(null); // center on screen
 
         initComponents();
+
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowOpened(WindowEvent e) {
+                StartupTimer.mark(StartupTimer.LOGIN_WINDOW);
+            }
+        });
     }
 
     private void initComponents() {
@@ -104,7 +114,11 @@ public class LoginFrame extends JFrame {
             return;
         }
 
-        if (checkCredentials(username, password)) {
+        Role role = checkCredentials(username, password);
+        if (role != null) {
+            if (!unlockPatientData(username, password)) return;
+
+            Session.start(username, role);
             SwingUtilities.invokeLater(() -> new DashboardFrame(username).setVisible(true));
             dispose();
         } else {
@@ -112,8 +126,44 @@ public class LoginFrame extends JFrame {
         }
     }
 
-    private boolean checkCredentials(String username, String password) {
-        String sql = "SELECT password FROM users WHERE username = ?";
+    // patient contact details are encrypted with a key only a logged-in user can unwrap
+    private boolean unlockPatientData(String username, String password) {
+        try {
+            if (!FieldCrypto.unlock(username, password)) {
+                JOptionPane.showMessageDialog(this,
+                        "This account has no access to patient data yet.\n" +
+                        "Ask an administrator to run: java -jar clinic-management-1.0.jar --grant-key " + username);
+                return false;
+            }
+        } catch (Exception ex) {
+            AppLog.showError(this, "unlocking patient data", ex);
+            return false;
+        }
+
+        // rows saved before encryption was introduced
+        BackgroundJobs.runOnce("encrypt-patients", () -> {
+            try {
+                FieldCrypto.encryptExisting();
+            } catch (SQLException ex) {
+                throw new IllegalStateException(ex.getMessage(), ex);
+            }
+        });
+        return true;
+    }
+
+    // role of the user if the password matches, else null
+    private Role checkCredentials(String username, String password) {
+        try {
+            return authenticate(username, password);
+        } catch (Exception ex) {
+            AppLog.showError(this, "checking credentials", ex);
+            return null;
+        }
+    }
+
+    /** Role of the user if the password matches, else null. Also used by the command line tools. */
+    static Role authenticate(String username, String password) throws SQLException {
+        String sql = "SELECT password, role FROM users WHERE username = ?";
 
         try (Connection conn = Database.getConnection();
              PreparedStatement ps = conn.prepareStatement(sql)) {
@@ -121,17 +171,14 @@ public class LoginFrame extends JFrame {
             ps.setString(1, username);
 
             try (ResultSet rs = ps.executeQuery()) {
-                if (!rs.next()) return false;
+                if (!rs.next()) return null;
 
                 String storedHash = rs.getString("password");
                 String inputHash = PasswordUtil.hashPassword(password);
 
-                return storedHash != null && storedHash.equals(inputHash);
+                if (storedHash == null || !storedHash.equals(inputHash)) return null;
+                return Role.fromDb(rs.getString("role"));
             }
-
-        } catch (Exception ex) {
-            JOptionPane.showMessageDialog(this, "Database error: " + ex.getMessage());
-            return false;
         }
     }
 }
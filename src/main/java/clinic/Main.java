@@ -2,11 +2,142 @@ package clinic;
 
 import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
+import java.io.Console;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.DriverManager;
 
 public class Main {
 
     public static void main(String[] args) {
+        StartupTimer.mark("main");
+
+        // AppCDS training run (see the appcds profile in pom.xml): load classes, then exit
+        if (Boolean.getBoolean("clinic.cds.training")) {
+            runCdsTraining();
+            return;
+        }
+
+        AppLog.start();
+
+        // command line maintenance: --backup, --archive, --invoice, --restore <snapshot.db.gz>, --sync-...
+        if (args.length > 0) {
+            System.exit(runCommand(args));
+        }
+
+        Metrics.start();
+
+        // start loading the SQLite driver while Swing initializes
+        Database.warmUp();
+        if (!Database.isInMemory()) {
+            // nothing worth keeping in a throwaway in-memory database
+            BackupService.startScheduled();
+            AppointmentArchive.startScheduled();
+        }
+        AuditLog.start();
+        ReminderService.start();
+        Billing.startScheduled();
+
         // Set Nimbus look and feel if available
+        setLookAndFeel();
+        StartupTimer.mark("look_and_feel");
+
+        SwingUtilities.invokeLater(() -> new LoginFrame().setVisible(true));
+    }
+
+    private static int runCommand(String[] args) {
+        try {
+            if ("--backup".equals(args[0])) {
+                Path snapshot = BackupService.snapshot();
+                System.out.println("Backup written to " + snapshot);
+                return 0;
+            }
+            if ("--archive".equals(args[0])) {
+                int moved = AppointmentArchive.archiveClosed();
+                System.out.println("Archived " + moved + " appointments");
+                return 0;
+            }
+            if ("--invoice".equals(args[0])) {
+                Billing.RunResult result = Billing.generateInvoices();
+                AuditLog.flush();
+                System.out.println(result);
+                return 0;
+            }
+            if ("--grant-key".equals(args[0]) && args.length == 2) {
+                grantKey(args[1]);
+                System.out.println(args[1] + " can now read patient data");
+                return 0;
+            }
+            if ("--restore".equals(args[0]) && args.length == 2) {
+                BackupService.restore(Paths.get(args[1]));
+                System.out.println("Restored clinic.db from " + args[1]);
+                return 0;
+            }
+            if ("--sync-export".equals(args[0]) && args.length == 3) {
+                char[] passphrase = syncLogin();
+                int n = BranchSync.exportBundle(args[1], Paths.get(args[2]), passphrase);
+                System.out.println("Wrote " + n + " changes for " + args[1] + " to " + args[2]);
+                return 0;
+            }
+            if ("--sync-import".equals(args[0]) && args.length == 2) {
+                char[] passphrase = syncLogin();
+                BranchSync.Result result = BranchSync.importBundle(Paths.get(args[1]), passphrase);
+                AuditLog.flush();
+                System.out.println(result);
+                return 0;
+            }
+            if ("--sync-new-site".equals(args[0])) {
+                syncLogin();
+                System.out.println("This branch is now " + BranchSync.newSiteId());
+                return 0;
+            }
+        } catch (Exception ex) {
+            AppLog.error("command " + args[0], ex);
+            System.err.println("Error: " + ex.getMessage());
+            return 1;
+        }
+
+        System.err.println("Usage: java -jar clinic-management-1.0.jar " +
+                           "[--backup | --archive | --invoice | --restore <snapshot.db.gz> | --grant-key <username> |\n" +
+                           "       --sync-export <peer> <bundle> | --sync-import <bundle> | --sync-new-site]");
+        return 2;
+    }
+
+    // copies the patient data key to another account; asks for both passwords on the console
+    private static void grantKey(String toUser) throws Exception {
+        Console console = System.console();
+        if (console == null) {
+            throw new IllegalStateException("--grant-key needs an interactive console");
+        }
+        String fromUser = console.readLine("Your username (an account with access): ");
+        String fromPassword = new String(console.readPassword("Your password: "));
+        String toPassword = new String(console.readPassword("Password of %s: ", toUser));
+
+        FieldCrypto.grant(fromUser, fromPassword, toUser, toPassword);
+    }
+
+    // signs in an account allowed to sync (its password also unlocks patient data);
+    // returns the passphrase the branches share for bundles
+    private static char[] syncLogin() throws Exception {
+        Console console = System.console();
+        if (console == null) {
+            throw new IllegalStateException("Branch sync needs an interactive console");
+        }
+        String username = console.readLine("Username: ");
+        String password = new String(console.readPassword("Password: "));
+
+        Role role = LoginFrame.authenticate(username, password);
+        if (role == null) {
+            throw new IllegalStateException("Invalid username or password");
+        }
+        Session.start(username, role);
+        FieldCrypto.unlock(username, password);
+        Session.require(Permission.SYNC_BRANCHES);
+
+        return console.readPassword("Sync passphrase: ");
+    }
+
+    private static void setLookAndFeel() {
         try {
             for (UIManager.LookAndFeelInfo info : UIManager.getInstalledLookAndFeels()) {
                 if ("Nimbus".equals(info.getName())) {
@@ -17,7 +148,32 @@ public class Main {
         } catch (Exception ignored) {
             // silently fall back to default look and feel
         }
+    }
 
-        SwingUtilities.invokeLater(() -> new LoginFrame().setVisible(true));
+    // Touches everything a normal start needs so -XX:ArchiveClassesAtExit captures it.
+    // Runs headless and never opens clinic.db.
+    private static void runCdsTraining() {
+        setLookAndFeel();
+
+        String[] classes = {
+                "clinic.LoginFrame", "clinic.DashboardFrame", "clinic.PasswordUtil",
+                "clinic.AddDoctorFrame", "clinic.UpdateDoctorFrame",
+                "clinic.AddPatientFrame", "clinic.UpdatePatientFrame",
+                "clinic.BookAppointmentFrame", "clinic.ManageAppointmentsFrame",
+                "clinic.ConflictDialog",
+                "javax.swing.JFrame", "javax.swing.JTable", "javax.swing.JComboBox",
+                "javax.swing.JOptionPane", "javax.swing.table.DefaultTableModel"
+        };
+        try {
+            for (String name : classes) {
+                Class.forName(name, true, Main.class.getClassLoader());
+            }
+            Class.forName("org.sqlite.JDBC");
+            // opening a connection extracts and loads the native library
+            DriverManager.getConnection("jdbc:sqlite::memory:").close();
+        } catch (Exception ex) {
+            System.err.println("CDS training run incomplete: " + ex);
+        }
+        System.exit(0);
     }
 }
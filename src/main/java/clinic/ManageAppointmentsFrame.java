@@ -3,65 +3,135 @@ package clinic;
 import javax.swing.*;
 import javax.swing.table.DefaultTableModel;
 import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 public class ManageAppointmentsFrame extends JFrame {
 
-    private JTextField dateField;
+    private JTextField fromField;
+    private JTextField toField;
+    private JComboBox<Integer> doctorFilterBox;
+    private JComboBox<Integer> patientFilterBox;
+    private PersonComboModel doctorFilterModel;
+    private PersonComboModel patientFilterModel;
+    private JComboBox<String> statusFilterBox;
+    private JTextField reasonField;
+    private JLabel resultLabel;
     private JTable table;
     private DefaultTableModel tableModel;
     private JComboBox<String> statusBox;
+    private JCheckBox archiveBox;
+
+    // -Dclinic.waitlist.autoBook=true books the best waitlisted patient without asking
+    private static final boolean AUTO_BOOK_WAITLIST = Boolean.getBoolean("clinic.waitlist.autoBook");
+    private static final DateTimeFormatter SLOT_FMT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    private static final String[] STATUS_COLUMN = { "status" };
+
+    private static final String[] COLUMN_NAMES = { "ID", "Date/Time", "Patient", "Doctor", "Reason", "Status" };
+
+    // ORDER BY terms per table column (result column names of the SELECT, so they work across the UNION)
+    private static final String[][] SORT_KEYS = {
+            null,
+            { "appointment_datetime" },
+            { "last_name", "first_name" },
+            { "doctor_name" },
+            { "reason" },
+            { "status" }
+    };
+
+    // the table shows at most this many rows; narrower filters find the rest
+    private static final int ROW_LIMIT = 1000;
+
+    private int sortColumn = 1;
+    private boolean sortAscending = true;
+
+    // the load in progress; rows from an older, superseded load are dropped
+    private SwingWorker<Integer, Object[]> loader;
+
+    // ids of rows that came from the archive database (read-only)
+    private final Set<Integer> archivedIds = new HashSet<>();
 
     public ManageAppointmentsFrame() {
         setTitle("View / Manage Appointments");
-        setSize(700, 400);
+        setSize(900, 500);
         setLocationRelativeTo(null);
         setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
 
         initComponents();
-        loadAppointments(null); // load all initially
+        loadDoctors();
+        loadPatients();
+        loadAppointments(); // no filters initially
     }
 
     private void initComponents() {
         setLayout(new BorderLayout());
 
         // Top filter panel
-        JPanel topPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
-        topPanel.add(new JLabel("Date (YYYY-MM-DD, empty = all):"));
-        dateField = new JTextField(10);
-        topPanel.add(dateField);
-        JButton loadButton = new JButton("Load");
-        topPanel.add(loadButton);
-
-        loadButton.addActionListener(e -> {
-            String date = dateField.getText().trim();
-            if (date.isEmpty()) {
-                loadAppointments(null);
-                return;
-            }
-
-            // Validate date filter (prevents useless queries + user confusion)
-            try {
-                LocalDate.parse(date); // strict ISO yyyy-MM-dd
-            } catch (DateTimeParseException ex) {
-                JOptionPane.showMessageDialog(this, "Invalid date. Use YYYY-MM-DD (e.g., 2026-01-10).");
-                return;
-            }
-
-            loadAppointments(date);
+        JPanel rangeRow = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        rangeRow.add(new JLabel("From (YYYY-MM-DD):"));
+        fromField = new JTextField(10);
+        rangeRow.add(fromField);
+        rangeRow.add(new JLabel("To:"));
+        toField = new JTextField(10);
+        rangeRow.add(toField);
+        rangeRow.add(new JLabel("Doctor:"));
+        doctorFilterBox = new JComboBox<>();
+        doctorFilterModel = PersonComboModel.install(doctorFilterBox);
+        doctorFilterModel.setAnyLabel("All doctors");
+        rangeRow.add(doctorFilterBox);
+        rangeRow.add(new JLabel("Patient:"));
+        patientFilterBox = new JComboBox<>();
+        patientFilterModel = PersonComboModel.install(patientFilterBox);
+        patientFilterModel.setAnyLabel("All patients");
+        rangeRow.add(patientFilterBox);
+
+        JPanel textRow = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        textRow.add(new JLabel("Status:"));
+        statusFilterBox = new JComboBox<>(new String[] { "Any", "BOOKED", "COMPLETED", "CANCELLED" });
+        textRow.add(statusFilterBox);
+        textRow.add(new JLabel("Reason contains:"));
+        reasonField = new JTextField(12);
+        textRow.add(reasonField);
+        archiveBox = new JCheckBox("Include archived history");
+        archiveBox.setToolTipText("Also search closed appointments older than " + AppointmentArchive.horizon());
+        textRow.add(archiveBox);
+        JButton loadButton = new JButton("Search");
+        textRow.add(loadButton);
+        JButton clearButton = new JButton("Clear");
+        textRow.add(clearButton);
+
+        loadButton.addActionListener(e -> loadAppointments());
+        reasonField.addActionListener(e -> loadAppointments());
+        clearButton.addActionListener(e -> {
+            fromField.setText("");
+            toField.setText("");
+            doctorFilterBox.setSelectedIndex(0);
+            patientFilterBox.setSelectedIndex(0);
+            statusFilterBox.setSelectedIndex(0);
+            reasonField.setText("");
+            archiveBox.setSelected(false);
+            loadAppointments();
         });
 
+        JPanel topPanel = new JPanel(new GridLayout(2, 1));
+        topPanel.add(rangeRow);
+        topPanel.add(textRow);
         add(topPanel, BorderLayout.NORTH);
 
         // Table
-        tableModel = new DefaultTableModel(
-                new Object[] { "ID", "Date/Time", "Patient", "Doctor", "Reason", "Status" },
-                0
-        ) {
+        tableModel = new DefaultTableModel(COLUMN_NAMES, 0) {
             @Override
             public boolean isCellEditable(int row, int column) {
                 return false;
@@ -76,6 +146,22 @@ public class ManageAppointmentsFrame extends JFrame {
         table.getColumnModel().getColumn(0).setMaxWidth(0);
         table.getColumnModel().getColumn(0).setWidth(0);
 
+        // sorting is done by the database (ORDER BY), not by a row sorter over the loaded rows
+        table.getTableHeader().setReorderingAllowed(false);
+        table.getTableHeader().addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int column = table.convertColumnIndexToModel(table.columnAtPoint(e.getPoint()));
+                if (column <= 0) return;
+
+                sortAscending = column != sortColumn || !sortAscending;
+                sortColumn = column;
+                updateHeaders();
+                loadAppointments();
+            }
+        });
+        updateHeaders();
+
         JScrollPane scrollPane = new JScrollPane(table);
         add(scrollPane, BorderLayout.CENTER);
 
@@ -86,64 +172,235 @@ public class ManageAppointmentsFrame extends JFrame {
         bottomPanel.add(statusBox);
         JButton updateStatusButton = new JButton("Update Status");
         bottomPanel.add(updateStatusButton);
+        resultLabel = new JLabel(" ");
+        bottomPanel.add(resultLabel);
 
         updateStatusButton.addActionListener(e -> onUpdateStatus());
 
         add(bottomPanel, BorderLayout.SOUTH);
     }
 
-    private void loadAppointments(String dateFilter) {
-        tableModel.setRowCount(0);
+    private void updateHeaders() {
+        for (int i = 1; i < COLUMN_NAMES.length; i++) {
+            String arrow = i == sortColumn ? (sortAscending ? " \u25B2" : " \u25BC") : "";
+            table.getColumnModel().getColumn(i).setHeaderValue(COLUMN_NAMES[i] + arrow);
+        }
+        table.getTableHeader().repaint();
+    }
 
-        String baseSql =
-                "SELECT a.id, a.appointment_datetime, " +
-                "       p.first_name, p.last_name, " +
-                "       d.name AS doctor_name, " +
-                "       a.reason, a.status " +
-                "FROM appointments a " +
-                "JOIN patients p ON a.patient_id = p.id " +
-                "JOIN doctors d ON a.doctor_id = d.id ";
+    // all doctors, including inactive ones: their past appointments are still searchable
+    private void loadDoctors() {
+        String sql = "SELECT id, name FROM doctors ORDER BY name";
+        PersonDirectory directory = new PersonDirectory();
 
-        String orderBy = " ORDER BY a.appointment_datetime";
+        try (Connection conn = Database.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
 
-        boolean hasFilter = dateFilter != null && !dateFilter.isEmpty();
-        String sql = hasFilter
-                ? baseSql + "WHERE substr(a.appointment_datetime, 1, 10) = ?" + orderBy
-                : baseSql + orderBy;
+            while (rs.next()) {
+                directory.add(rs.getInt("id"), rs.getString("name"), "");
+            }
+
+        } catch (Exception ex) {
+            AppLog.showError(this, "loading doctors", ex, sql);
+        }
+
+        directory.finish();
+        doctorFilterModel.setDirectory(directory);
+    }
+
+    private void loadPatients() {
+        String sql = "SELECT id, first_name, last_name FROM patients ORDER BY last_name, first_name";
+        PersonDirectory directory = new PersonDirectory();
 
         try (Connection conn = Database.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
+             PreparedStatement ps = conn.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
 
-            if (hasFilter) {
-                ps.setString(1, dateFilter);
+            while (rs.next()) {
+                directory.add(rs.getInt("id"), rs.getString("first_name"), rs.getString("last_name"));
             }
 
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    int id = rs.getInt("id");
-                    String datetime = rs.getString("appointment_datetime");
-                    String patientName = rs.getString("first_name") + " " + rs.getString("last_name");
-                    String doctorName = rs.getString("doctor_name");
-                    String reason = rs.getString("reason");
-                    String status = rs.getString("status");
-
-                    tableModel.addRow(new Object[] {
-                            id,
-                            datetime,
-                            patientName,
-                            doctorName,
-                            reason,
-                            status
-                    });
+        } catch (Exception ex) {
+            AppLog.showError(this, "loading patients", ex, sql);
+        }
+
+        directory.finish();
+        patientFilterModel.setDirectory(directory);
+    }
+
+    // Every filter becomes a parameterized condition, so the database picks the index:
+    // date range -> idx_appointments_datetime, doctor -> idx_appointments_doctor_datetime,
+    // patient -> idx_appointments_patient. Rows are streamed into the table as they are read.
+    private void loadAppointments() {
+        if (!Session.check(this, Permission.VIEW_APPOINTMENTS)) return;
+
+        LocalDate from;
+        LocalDate to;
+        try {
+            from = parseDate(fromField.getText());
+            to = parseDate(toField.getText());
+        } catch (DateTimeParseException ex) {
+            JOptionPane.showMessageDialog(this, "Invalid date. Use YYYY-MM-DD (e.g., 2026-01-10).");
+            return;
+        }
+        if (from != null && to != null && to.isBefore(from)) {
+            JOptionPane.showMessageDialog(this, "The 'To' date is before the 'From' date.");
+            return;
+        }
+
+        List<String> conditions = new ArrayList<>();
+        List<Object> params = new ArrayList<>();
+
+        if (from != null) {
+            conditions.add("a.appointment_datetime >= ?");
+            params.add(from.toString());
+        }
+        if (to != null) {
+            // range on the raw column so idx_appointments_datetime can be used
+            conditions.add("a.appointment_datetime < ?");
+            params.add(to.plusDays(1).toString());
+        }
+        int doctorId = doctorFilterModel.getSelectedId();
+        if (doctorId > 0) {
+            conditions.add("a.doctor_id = ?");
+            params.add(doctorId);
+        }
+        int patientId = patientFilterModel.getSelectedId();
+        if (patientId > 0) {
+            conditions.add("a.patient_id = ?");
+            params.add(patientId);
+        }
+        if (statusFilterBox.getSelectedIndex() > 0) {
+            conditions.add("a.status = ?");
+            params.add(statusFilterBox.getSelectedItem());
+        }
+        String reason = reasonField.getText().trim();
+        if (!reason.isEmpty()) {
+            conditions.add("a.reason LIKE ? ESCAPE '\\'");
+            params.add("%" + reason.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%");
+        }
+
+        // the archive only holds days before the horizon, so only look there when asked to
+        // or when the range starts that far back
+        boolean includeArchive = archiveBox.isSelected()
+                || (from != null && from.isBefore(AppointmentArchive.horizon()));
+
+        String where = conditions.isEmpty() ? "" : "WHERE " + String.join(" AND ", conditions) + " ";
+
+        String sql = selectFrom("main", 0) + where;
+        if (includeArchive) {
+            sql += "UNION ALL " + selectFrom("archive", 1) + where;
+        }
+        sql += "ORDER BY " + orderBy() + " LIMIT " + (ROW_LIMIT + 1);
+
+        if (loader != null) {
+            loader.cancel(false);
+        }
+        tableModel.setRowCount(0);
+        archivedIds.clear();
+        resultLabel.setText("Searching...");
+
+        String query = sql;
+        int parts = includeArchive ? 2 : 1;
+        long started = System.nanoTime();
+
+        loader = new SwingWorker<Integer, Object[]>() {
+            @Override
+            protected Integer doInBackground() throws Exception {
+                int count = 0;
+                // attaching the archive needs a writable connection outside a transaction
+                try (Connection conn = includeArchive ? Database.getConnection() : Database.getReadConnection()) {
+                    if (includeArchive) {
+                        AppointmentArchive.attach(conn);
+                    }
+
+                    try (PreparedStatement ps = conn.prepareStatement(query)) {
+                        int index = 1;
+                        for (int i = 0; i < parts; i++) {
+                            for (Object p : params) {
+                                ps.setObject(index++, p);
+                            }
+                        }
+
+                        try (ResultSet rs = ps.executeQuery()) {
+                            while (rs.next() && !isCancelled()) {
+                                if (++count > ROW_LIMIT) break;
+                                publish(new Object[] {
+                                        rs.getInt("id"),
+                                        rs.getString("appointment_datetime"),
+                                        rs.getString("first_name") + " " + rs.getString("last_name"),
+                                        rs.getString("doctor_name"),
+                                        rs.getString("reason"),
+                                        rs.getString("status"),
+                                        rs.getInt("archived")
+                                });
+                            }
+                        }
+                    }
                 }
+                return count;
             }
 
-        } catch (Exception ex) {
-            JOptionPane.showMessageDialog(this, "Error loading appointments: " + ex.getMessage());
+            @Override
+            protected void process(List<Object[]> rows) {
+                if (loader != this) return;
+                for (Object[] row : rows) {
+                    if ((Integer) row[6] == 1) {
+                        archivedIds.add((Integer) row[0]);
+                    }
+                    tableModel.addRow(Arrays.copyOf(row, 6));
+                }
+            }
+
+            @Override
+            protected void done() {
+                if (loader != this) return;
+                try {
+                    int count = get();
+                    long millis = (System.nanoTime() - started) / 1_000_000;
+                    resultLabel.setText(count > ROW_LIMIT
+                            ? "First " + ROW_LIMIT + " appointments shown (" + millis + " ms); narrow the filters to see the rest."
+                            : count + " appointments (" + millis + " ms)");
+                } catch (Exception ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    resultLabel.setText(" ");
+                    AppLog.showError(ManageAppointmentsFrame.this, "loading appointments", cause, query);
+                }
+            }
+        };
+        loader.execute();
+    }
+
+    private static LocalDate parseDate(String text) {
+        String s = text.trim();
+        return s.isEmpty() ? null : LocalDate.parse(s); // strict ISO yyyy-MM-dd
+    }
+
+    private String orderBy() {
+        String dir = sortAscending ? " ASC" : " DESC";
+        StringBuilder sb = new StringBuilder();
+        for (String key : SORT_KEYS[sortColumn]) {
+            sb.append(key).append(dir).append(", ");
         }
+        // stable order for equal keys
+        if (sortColumn != 1) sb.append("appointment_datetime").append(dir).append(", ");
+        return sb.append("id").append(dir).toString();
+    }
+
+    private static String selectFrom(String schema, int archived) {
+        return "SELECT a.id AS id, a.appointment_datetime, " +
+               "       p.first_name, p.last_name, " +
+               "       d.name AS doctor_name, " +
+               "       a.reason, a.status, " + archived + " AS archived " +
+               "FROM " + schema + ".appointments a " +
+               "JOIN main.patients p ON a.patient_id = p.id " +
+               "JOIN main.doctors d ON a.doctor_id = d.id ";
     }
 
     private void onUpdateStatus() {
+        if (!Session.check(this, Permission.UPDATE_APPOINTMENT)) return;
+
         int viewRow = table.getSelectedRow();
         if (viewRow < 0) {
             JOptionPane.showMessageDialog(this, "Select an appointment first.");
@@ -159,6 +416,11 @@ public class ManageAppointmentsFrame extends JFrame {
         }
 
         int appointmentId = (Integer) idObj;
+        if (archivedIds.contains(appointmentId)) {
+            JOptionPane.showMessageDialog(this, "Archived appointments can't be changed.");
+            return;
+        }
+
         String newStatus = (String) statusBox.getSelectedItem();
 
         // Avoid pointless updates
@@ -196,11 +458,75 @@ public class ManageAppointmentsFrame extends JFrame {
                 return;
             }
 
+            Metrics.statusChanged(newStatus);
+            AuditLog.updated("appointments", appointmentId, STATUS_COLUMN,
+                             new Object[] { currentStatus }, new Object[] { newStatus });
+
             tableModel.setValueAt(newStatus, modelRow, 5);
             JOptionPane.showMessageDialog(this, "Status updated.");
 
         } catch (Exception ex) {
-            JOptionPane.showMessageDialog(this, "Error updating status: " + ex.getMessage());
+            AppLog.showError(this, "updating status", ex, sql);
+            return;
+        }
+
+        if ("CANCELLED".equals(newStatus)) {
+            offerFreedSlot(appointmentId);
+        }
+    }
+
+    // A cancellation frees the doctor's slot: offer it to the best patient on that doctor's waitlist
+    private void offerFreedSlot(int appointmentId) {
+        if (!Session.can(Permission.BOOK_APPOINTMENT)) return;
+
+        String sql = "SELECT a.doctor_id, a.appointment_datetime, d.name " +
+                     "FROM appointments a JOIN doctors d ON a.doctor_id = d.id WHERE a.id = ?";
+
+        try {
+            int doctorId;
+            String slot;
+            String doctorName;
+
+            try (Connection conn = Database.getConnection();
+                 PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setInt(1, appointmentId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) return;
+                    doctorId = rs.getInt("doctor_id");
+                    slot = rs.getString("appointment_datetime");
+                    doctorName = rs.getString("name");
+                }
+            }
+
+            if (slot.compareTo(LocalDateTime.now().format(SLOT_FMT)) <= 0) {
+                return; // slot already in the past
+            }
+
+            Waitlist.Entry candidate = Waitlist.bestFor(doctorId, slot);
+            if (candidate == null) return;
+
+            if (!AUTO_BOOK_WAITLIST) {
+                int choice = JOptionPane.showConfirmDialog(
+                        this,
+                        "The slot " + slot + " with " + doctorName + " is now free.\n" +
+                        "Next on the waitlist: " + candidate.patientName +
+                        (candidate.priority == Waitlist.URGENT ? " (urgent)" : "") + ".\n\n" +
+                        "Book them into this slot?",
+                        "Waitlist",
+                        JOptionPane.YES_NO_OPTION
+                );
+                if (choice != JOptionPane.YES_OPTION) return;
+            }
+
+            if (Waitlist.book(candidate, slot)) {
+                JOptionPane.showMessageDialog(this, candidate.patientName + " booked for " + slot + ".");
+                loadAppointments();
+            } else {
+                JOptionPane.showMessageDialog(this, "That waitlist entry was already handled on another desk.");
+            }
+
+        } catch (Exception ex) {
+            AppLog.showError(this, "filling slot from waitlist", ex, sql);
         }
     }
 }
@@ -0,0 +1,348 @@
+package clinic;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.awt.EventQueue;
+import java.awt.GraphicsEnvironment;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Health figures of this desk for monitoring, served as Prometheus text at
+// http://<desk>:<port>/metrics:
+//   - time to get a database connection (direct and from the read pool), read pool usage
+//   - count and latency of every kind of query ("SELECT appointments", "UPDATE invoices", ...),
+//     and how many failed
+//   - cache hits and misses (read connections, schedule tiles, document thumbnails)
+//   - how late the Swing event thread runs (EDT lag; a high value is a frozen window)
+//   - heap, GC and thread figures of the JVM
+//   - appointments booked and status changes, as counters (monitoring turns them into rates)
+//
+// Off unless clinic.metrics.port is set; then connections are wrapped to time their statements.
+// Nothing about patients is exposed. Settings (system properties):
+//   clinic.metrics.port  port to serve on
+//   clinic.metrics.bind  address to listen on (default all; 127.0.0.1 keeps it on this machine)
+public class Metrics {
+
+    private static final String PORT = System.getProperty("clinic.metrics.port");
+    private static final String BIND = System.getProperty("clinic.metrics.bind", "0.0.0.0");
+
+    static final boolean ENABLED = PORT != null && !PORT.isBlank();
+
+    // upper bounds in seconds, from a fast indexed lookup to a stuck write lock
+    private static final double[] BUCKETS = { 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10 };
+
+    private static final long EDT_PROBE_MILLIS = 1000;
+
+    // the first table named in a statement: "SELECT ... FROM appointments" -> appointments;
+    // schema changes and transaction control are labelled by their verb alone
+    private static final Pattern VERB = Pattern.compile("^\\s*(\\w+)");
+    private static final Set<String> WITH_TABLE = Set.of("SELECT", "WITH", "INSERT", "REPLACE", "UPDATE", "DELETE", "PRAGMA");
+    private static final Pattern TABLE = Pattern.compile("(?i)\\b(?:FROM|INTO|UPDATE|PRAGMA)\\s+([\\w.]+)");
+
+    // label per statement text; statements built from filters can vary, so the map is capped
+    private static final int MAX_LABELS = 2000;
+    private static final Map<String, String> LABELS = new ConcurrentHashMap<>();
+
+    private static final Map<String, Histogram> QUERIES = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> QUERY_ERRORS = new ConcurrentHashMap<>();
+    private static final Map<String, Histogram> CONNECTIONS = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> CACHE = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> BOOKED = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> STATUS_CHANGES = new ConcurrentHashMap<>();
+
+    private static final Histogram EDT_LAG = new Histogram();
+    // when the probe waiting on the EDT was posted (0 = none waiting); a frozen EDT shows up
+    // in the gauge before the probe ever runs
+    private static final AtomicLong edtProbePosted = new AtomicLong();
+    private static volatile double lastEdtLag;
+
+    private static HttpServer server;
+
+    private Metrics() {
+    }
+
+    /** Serves /metrics if clinic.metrics.port is set. */
+    public static synchronized void start() {
+        if (!ENABLED || server != null) return;
+
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "clinic-metrics");
+            t.setDaemon(true);
+            return t;
+        });
+
+        // the server's own thread takes after the one starting it, so start it on the daemon one
+        executor.execute(() -> {
+            try {
+                HttpServer s = HttpServer.create(new InetSocketAddress(BIND, Integer.parseInt(PORT.trim())), 0);
+                s.createContext("/metrics", Metrics::handle);
+                s.setExecutor(executor);
+                s.start();
+                synchronized (Metrics.class) {
+                    server = s;
+                }
+            } catch (IOException | RuntimeException ex) {
+                AppLog.error("starting metrics on port " + PORT, ex);
+            }
+        });
+
+        if (!GraphicsEnvironment.isHeadless()) {
+            executor.scheduleWithFixedDelay(Metrics::probeEdt, EDT_PROBE_MILLIS, EDT_PROBE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // one probe at a time: posts a task and measures how long the EDT takes to get to it
+    private static void probeEdt() {
+        long posted = System.nanoTime();
+        if (!edtProbePosted.compareAndSet(0, posted)) return;
+
+        EventQueue.invokeLater(() -> {
+            long lag = System.nanoTime() - posted;
+            lastEdtLag = lag / 1e9;
+            EDT_LAG.observe(lag);
+            edtProbePosted.set(0);
+        });
+    }
+
+    /** The connection, timing every statement run through it (unchanged when metrics are off). */
+    static Connection instrument(Connection conn) {
+        if (!ENABLED) return conn;
+
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+                (proxy, method, args) -> {
+                    Object result = invoke(conn, method, args);
+                    switch (method.getName()) {
+                        case "prepareStatement":
+                            return timed((Statement) result, PreparedStatement.class, (String) args[0]);
+                        case "createStatement":
+                            return timed((Statement) result, Statement.class, null);
+                        default:
+                            return result;
+                    }
+                });
+    }
+
+    private static Statement timed(Statement stmt, Class<? extends Statement> type, String preparedSql) {
+        return (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[] { type },
+                (proxy, method, args) -> {
+                    String name = method.getName();
+                    if (!name.startsWith("execute")) return invoke(stmt, method, args);
+
+                    String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : preparedSql;
+                    String label = sql == null ? "BATCH" : queryLabel(sql);
+
+                    // for queries this is the time to the first row, which is where SQLite does the work
+                    long start = System.nanoTime();
+                    boolean ok = false;
+                    try {
+                        Object result = invoke(stmt, method, args);
+                        ok = true;
+                        return result;
+                    } finally {
+                        QUERIES.computeIfAbsent(label, k -> new Histogram()).observe(System.nanoTime() - start);
+                        if (!ok) QUERY_ERRORS.computeIfAbsent(label, k -> new LongAdder()).increment();
+                    }
+                });
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    static String queryLabel(String sql) {
+        String label = LABELS.get(sql);
+        if (label != null) return label;
+
+        Matcher verb = VERB.matcher(sql);
+        label = verb.find() ? verb.group(1).toUpperCase(Locale.ROOT) : "OTHER";
+        Matcher table = TABLE.matcher(sql);
+        if (WITH_TABLE.contains(label) && table.find()) label += " " + table.group(1).toLowerCase(Locale.ROOT);
+
+        if (LABELS.size() < MAX_LABELS) LABELS.put(sql, label);
+        return label;
+    }
+
+    /** Records how long getting a connection took; kind is "direct" or "read_pool". */
+    static void connectionAcquired(String kind, long startNanos) {
+        if (!ENABLED) return;
+        CONNECTIONS.computeIfAbsent(kind, k -> new Histogram()).observe(System.nanoTime() - startNanos);
+    }
+
+    public static void cacheLookup(String cache, boolean hit) {
+        if (!ENABLED) return;
+        CACHE.computeIfAbsent(cache + (hit ? "\0hit" : "\0miss"), k -> new LongAdder()).increment();
+    }
+
+    /** Appointments booked; source is where from ("desk", "series", "waitlist"). */
+    public static void booked(String source, int count) {
+        if (!ENABLED || count <= 0) return;
+        BOOKED.computeIfAbsent(source, k -> new LongAdder()).add(count);
+    }
+
+    public static void statusChanged(String newStatus) {
+        if (!ENABLED) return;
+        STATUS_CHANGES.computeIfAbsent(newStatus, k -> new LongAdder()).increment();
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod()) || !"/metrics".equals(exchange.getRequestURI().getPath())) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            byte[] body = render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    static String render() {
+        StringBuilder sb = new StringBuilder(8192);
+
+        family(sb, "clinic_db_connection_acquire_seconds", "histogram", "Time to get a database connection.");
+        for (Map.Entry<String, Histogram> e : sorted(CONNECTIONS).entrySet()) {
+            e.getValue().write(sb, "clinic_db_connection_acquire_seconds", "kind", e.getKey());
+        }
+        ReadConnectionPool pool = Database.readPool();
+        gauge(sb, "clinic_db_read_connections_in_use", "Read connections currently borrowed.", pool.inUse());
+        gauge(sb, "clinic_db_read_connections_idle", "Open read connections waiting in the pool.", pool.idleCount());
+
+        family(sb, "clinic_db_query_seconds", "histogram", "Statement execution time by statement kind and first table.");
+        for (Map.Entry<String, Histogram> e : sorted(QUERIES).entrySet()) {
+            e.getValue().write(sb, "clinic_db_query_seconds", "query", e.getKey());
+        }
+        counters(sb, "clinic_db_query_errors_total", "Statements that failed.", "query", QUERY_ERRORS);
+
+        family(sb, "clinic_cache_lookups_total", "counter", "Cache lookups by result.");
+        for (Map.Entry<String, LongAdder> e : sorted(CACHE).entrySet()) {
+            String[] key = e.getKey().split("\0");
+            sb.append("clinic_cache_lookups_total{cache=\"").append(escape(key[0]))
+              .append("\",result=\"").append(key[1]).append("\"} ").append(e.getValue().sum()).append('\n');
+        }
+
+        counters(sb, "clinic_appointments_booked_total", "Appointments booked on this desk.", "source", BOOKED);
+        counters(sb, "clinic_appointment_status_changes_total", "Appointment status changes on this desk.", "status", STATUS_CHANGES);
+
+        long pending = edtProbePosted.get();
+        double edtLag = pending == 0 ? lastEdtLag : Math.max(lastEdtLag, (System.nanoTime() - pending) / 1e9);
+        gauge(sb, "clinic_edt_lag_seconds", "How late the Swing event thread ran the last probe (or is running the current one).", edtLag);
+        family(sb, "clinic_edt_lag_probe_seconds", "histogram", "Swing event thread lag per probe.");
+        EDT_LAG.write(sb, "clinic_edt_lag_probe_seconds", null, null);
+
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        MemoryUsage nonHeap = ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage();
+        family(sb, "jvm_memory_bytes_used", "gauge", "Used memory by area.");
+        sb.append("jvm_memory_bytes_used{area=\"heap\"} ").append(heap.getUsed()).append('\n');
+        sb.append("jvm_memory_bytes_used{area=\"nonheap\"} ").append(nonHeap.getUsed()).append('\n');
+        family(sb, "jvm_memory_bytes_committed", "gauge", "Committed memory by area.");
+        sb.append("jvm_memory_bytes_committed{area=\"heap\"} ").append(heap.getCommitted()).append('\n');
+        sb.append("jvm_memory_bytes_committed{area=\"nonheap\"} ").append(nonHeap.getCommitted()).append('\n');
+        gauge(sb, "jvm_memory_heap_max_bytes", "Largest heap the JVM may use.", heap.getMax());
+
+        family(sb, "jvm_gc_collection_seconds", "summary", "Time spent in garbage collection, by collector.");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            String name = escape(gc.getName());
+            sb.append("jvm_gc_collection_seconds_count{gc=\"").append(name).append("\"} ").append(gc.getCollectionCount()).append('\n');
+            sb.append("jvm_gc_collection_seconds_sum{gc=\"").append(name).append("\"} ").append(gc.getCollectionTime() / 1e3).append('\n');
+        }
+        gauge(sb, "jvm_threads_current", "Live threads.", ManagementFactory.getThreadMXBean().getThreadCount());
+        gauge(sb, "process_uptime_seconds", "Seconds since the app started.", ManagementFactory.getRuntimeMXBean().getUptime() / 1e3);
+
+        return sb.toString();
+    }
+
+    private static void family(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void gauge(StringBuilder sb, String name, String help, double value) {
+        family(sb, name, "gauge", help);
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder sb, String name, String help, long value) {
+        family(sb, name, "gauge", help);
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void counters(StringBuilder sb, String name, String help, String label, Map<String, LongAdder> values) {
+        family(sb, name, "counter", help);
+        for (Map.Entry<String, LongAdder> e : sorted(values).entrySet()) {
+            sb.append(name).append('{').append(label).append("=\"").append(escape(e.getKey())).append("\"} ")
+              .append(e.getValue().sum()).append('\n');
+        }
+    }
+
+    private static <V> Map<String, V> sorted(Map<String, V> map) {
+        return new TreeMap<>(map);
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    // buckets are made cumulative at scrape time; observing is one add on each of two adders
+    private static final class Histogram {
+        private final LongAdder[] buckets = new LongAdder[BUCKETS.length + 1];
+        private final DoubleAdder sum = new DoubleAdder();
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+        }
+
+        void observe(long nanos) {
+            double seconds = nanos / 1e9;
+            int i = 0;
+            while (i < BUCKETS.length && seconds > BUCKETS[i]) i++;
+            buckets[i].increment();
+            sum.add(seconds);
+        }
+
+        void write(StringBuilder sb, String name, String label, String value) {
+            String labels = label == null ? "" : label + "=\"" + escape(value) + "\",";
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += buckets[i].sum();
+                String le = i < BUCKETS.length ? Double.toString(BUCKETS[i]) : "+Inf";
+                sb.append(name).append("_bucket{").append(labels).append("le=\"").append(le).append("\"} ")
+                  .append(cumulative).append('\n');
+            }
+            String plain = label == null ? "" : "{" + label + "=\"" + escape(value) + "\"}";
+            sb.append(name).append("_sum").append(plain).append(' ').append(sum.sum()).append('\n');
+            sb.append(name).append("_count").append(plain).append(' ').append(cumulative).append('\n');
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package clinic;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+// Finds patients entered more than once. Candidates are "blocked" by exact phone, DOB (through
+// their blind indexes, see FieldCrypto) or the Soundex key of the last name (all indexed), so only
+// plausible pairs are ever scored.
+// Pairs are scored with Jaro-Winkler name similarity plus phone / DOB / email agreement.
+public class PatientDeduplicator {
+
+    public static final double THRESHOLD = 0.80;
+
+    // a block bigger than this (e.g. a shared front-desk phone) says nothing about identity
+    private static final int MAX_BLOCK = 200;
+
+    // audit trail of a merge: the deleted duplicate and the record that absorbed it
+    private static final String[] MERGED_INTO = { "merged_into" };
+
+    public static class Person {
+        public int id;
+        public String firstName;
+        public String lastName;
+        public String dob;
+        public String phone;
+        public String email;
+
+        public String displayName() {
+            return firstName + " " + lastName;
+        }
+    }
+
+    public static class Match {
+        public final Person a;
+        public final Person b;
+        public final double score;
+
+        Match(Person a, Person b, double score) {
+            this.a = a;
+            this.b = b;
+            this.score = score;
+        }
+    }
+
+    private PatientDeduplicator() {
+    }
+
+    /** Likely duplicates of a patient about to be saved, best first. Uses only indexed lookups. */
+    public static List<Match> findDuplicates(Connection conn, Person probe) throws SQLException {
+        // an exact phone or DOB match is always scored; only the surname block can be crowded
+        String sql = "SELECT id, first_name, last_name, dob, phone, email FROM patients WHERE phone_bidx = ? " +
+                     "UNION SELECT id, first_name, last_name, dob, phone, email FROM patients WHERE dob_bidx = ? " +
+                     "UNION SELECT * FROM (SELECT id, first_name, last_name, dob, phone, email FROM patients " +
+                     "WHERE name_key = ? LIMIT " + MAX_BLOCK + ")";
+
+        List<Match> matches = new ArrayList<>();
+
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, FieldCrypto.blindIndex("phone", probe.phone));
+            ps.setString(2, FieldCrypto.blindIndex("dob", probe.dob));
+            ps.setString(3, nameKey(probe.lastName));
+
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Person other = read(rs);
+                    if (other.id == probe.id) continue;
+
+                    double score = score(probe, other);
+                    if (score >= THRESHOLD) {
+                        matches.add(new Match(probe, other, score));
+                    }
+                }
+            }
+        }
+
+        matches.sort(Comparator.comparingDouble((Match m) -> m.score).reversed());
+        return matches;
+    }
+
+    /** Scans the whole patients table. Pair scoring runs in parallel. */
+    public static List<Match> scanAll() throws SQLException {
+        Session.require(Permission.MERGE_PATIENTS);
+
+        List<Person> people = new ArrayList<>();
+        Map<String, List<Integer>> blocks = new HashMap<>();
+
+        try (Connection conn = Database.getReadConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(
+                     "SELECT id, first_name, last_name, dob, phone, email, name_key, phone_bidx, dob_bidx FROM patients")) {
+
+            while (rs.next()) {
+                int idx = people.size();
+                people.add(read(rs));
+
+                addToBlock(blocks, "p:", rs.getString("phone_bidx"), idx);
+                addToBlock(blocks, "d:", rs.getString("dob_bidx"), idx);
+                addToBlock(blocks, "n:", rs.getString("name_key"), idx);
+            }
+        }
+
+        // the same pair can share several blocks; keep it once (lower index in the high bits)
+        Set<Long> pairs = new HashSet<>();
+        for (List<Integer> block : blocks.values()) {
+            if (block.size() < 2 || block.size() > MAX_BLOCK) continue;
+            for (int i = 0; i < block.size(); i++) {
+                for (int j = i + 1; j < block.size(); j++) {
+                    pairs.add(((long) block.get(i) << 32) | block.get(j));
+                }
+            }
+        }
+
+        return pairs.parallelStream()
+                .map(key -> {
+                    Person a = people.get((int) (key >>> 32));
+                    Person b = people.get((int) (long) key);
+                    return new Match(a, b, score(a, b));
+                })
+                .filter(m -> m.score >= THRESHOLD)
+                .sorted(Comparator.comparingDouble((Match m) -> m.score).reversed())
+                .collect(Collectors.toList());
+    }
+
+    private static void addToBlock(Map<String, List<Integer>> blocks, String prefix, String value, int idx) {
+        if (value == null || value.isEmpty()) return;
+        blocks.computeIfAbsent(prefix + value, k -> new ArrayList<>()).add(idx);
+    }
+
+    /**
+     * Moves everything that points at the duplicate to the kept patient, then deletes the duplicate.
+     * One transaction, including archived appointments if the archive exists.
+     */
+    public static void merge(int keepId, int duplicateId) throws SQLException {
+        Session.require(Permission.MERGE_PATIENTS);
+
+        try (Connection conn = Database.getConnection();
+             Statement tx = conn.createStatement()) {
+
+            boolean withArchive = AppointmentArchive.exists();
+            if (withArchive) AppointmentArchive.attach(conn);
+
+            String[] moves = {
+                    "UPDATE main.appointments SET patient_id = ? WHERE patient_id = ?",
+                    "UPDATE waitlist SET patient_id = ? WHERE patient_id = ?",
+                    "UPDATE attachments SET patient_id = ? WHERE patient_id = ?",
+                    "UPDATE invoices SET patient_id = ? WHERE patient_id = ?",
+                    withArchive ? "UPDATE archive.appointments SET patient_id = ? WHERE patient_id = ?" : null
+            };
+
+            tx.execute("BEGIN IMMEDIATE");
+            try {
+                for (String sql : moves) {
+                    if (sql == null) continue;
+                    try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                        ps.setInt(1, keepId);
+                        ps.setInt(2, duplicateId);
+                        ps.executeUpdate();
+                    }
+                }
+
+                // keep the earlier first visit of the two for the new-patient report
+                try (PreparedStatement ps = conn.prepareStatement(
+                        "INSERT INTO kpi_first_visit (patient_id, first_day) " +
+                        "SELECT ?, first_day FROM kpi_first_visit WHERE patient_id = ? " +
+                        "ON CONFLICT (patient_id) DO UPDATE SET first_day = MIN(first_day, excluded.first_day)")) {
+                    ps.setInt(1, keepId);
+                    ps.setInt(2, duplicateId);
+                    ps.executeUpdate();
+                }
+
+                for (String sql : new String[] {
+                        "DELETE FROM kpi_first_visit WHERE patient_id = ?",
+                        "DELETE FROM patients WHERE id = ?" }) {
+                    try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                        ps.setInt(1, duplicateId);
+                        ps.executeUpdate();
+                    }
+                }
+
+                tx.execute("COMMIT");
+            } catch (SQLException ex) {
+                tx.execute("ROLLBACK");
+                throw ex;
+            }
+        }
+
+        AuditLog.deleted("patients", duplicateId, MERGED_INTO, new Object[] { keepId });
+    }
+
+    private static Person read(ResultSet rs) throws SQLException {
+        Person p = new Person();
+        p.id = rs.getInt("id");
+        p.firstName = rs.getString("first_name");
+        p.lastName = rs.getString("last_name");
+        p.dob = FieldCrypto.decrypt("dob", rs.getString("dob"));
+        p.phone = FieldCrypto.decrypt("phone", rs.getString("phone"));
+        p.email = FieldCrypto.decrypt("email", rs.getString("email"));
+        return p;
+    }
+
+    /** 0..1 likelihood that two records are the same person. */
+    static double score(Person a, Person b) {
+        String firstA = normalize(a.firstName);
+        String lastA = normalize(a.lastName);
+        String firstB = normalize(b.firstName);
+        String lastB = normalize(b.lastName);
+
+        // also try first/last swapped, a common data entry mistake
+        double name = Math.max(
+                (jaroWinkler(firstA, firstB) + jaroWinkler(lastA, lastB)) / 2,
+                (jaroWinkler(firstA, lastB) + jaroWinkler(lastA, firstB)) / 2 * 0.95);
+
+        // name similarity alone never reaches the threshold; it needs at least one matching identifier
+        double evidence = 0;
+        if (same(a.phone, b.phone)) evidence += 0.3;
+        if (same(a.dob, b.dob)) evidence += 0.3;
+        if (same(a.email == null ? null : a.email.toLowerCase(Locale.ROOT),
+                 b.email == null ? null : b.email.toLowerCase(Locale.ROOT))) evidence += 0.1;
+
+        return 0.6 * name + Math.min(evidence, 0.4);
+    }
+
+    private static boolean same(String x, String y) {
+        return x != null && !x.isEmpty() && x.equals(y);
+    }
+
+    private static String normalize(String s) {
+        return s == null ? "" : s.toLowerCase(Locale.ROOT).replaceAll("[^a-z]", "");
+    }
+
+    /** American Soundex of a name (e.g. "Robert" and "Rupert" -> R163). Empty for no letters. */
+    public static String nameKey(String name) {
+        String s = normalize(name);
+        if (s.isEmpty()) return "";
+
+        StringBuilder key = new StringBuilder().append(Character.toUpperCase(s.charAt(0)));
+        char last = soundexDigit(s.charAt(0));
+
+        for (int i = 1; i < s.length() && key.length() < 4; i++) {
+            char c = s.charAt(i);
+            char d = soundexDigit(c);
+            if (d != '0' && d != last) {
+                key.append(d);
+            }
+            // h and w don't separate equal codes; vowels do
+            if (c != 'h' && c != 'w') {
+                last = d;
+            }
+        }
+        while (key.length() < 4) key.append('0');
+        return key.toString();
+    }
+
+    private static char soundexDigit(char c) {
+        switch (c) {
+            case 'b': case 'f': case 'p': case 'v':
+                return '1';
+            case 'c': case 'g': case 'j': case 'k': case 'q': case 's': case 'x': case 'z':
+                return '2';
+            case 'd': case 't':
+                return '3';
+            case 'l':
+                return '4';
+            case 'm': case 'n':
+                return '5';
+            case 'r':
+                return '6';
+            default:
+                return '0';
+        }
+    }
+
+    static double jaroWinkler(String a, String b) {
+        if (a.isEmpty() && b.isEmpty()) return 1.0;
+        if (a.isEmpty() || b.isEmpty()) return 0.0;
+        if (a.equals(b)) return 1.0;
+
+        int window = Math.max(0, Math.max(a.length(), b.length()) / 2 - 1);
+        boolean[] aMatched = new boolean[a.length()];
+        boolean[] bMatched = new boolean[b.length()];
+
+        int matches = 0;
+        for (int i = 0; i < a.length(); i++) {
+            int from = Math.max(0, i - window);
+            int to = Math.min(b.length() - 1, i + window);
+            for (int j = from; j <= to; j++) {
+                if (!bMatched[j] && a.charAt(i) == b.charAt(j)) {
+                    aMatched[i] = true;
+                    bMatched[j] = true;
+                    matches++;
+                    break;
+                }
+            }
+        }
+        if (matches == 0) return 0.0;
+
+        int transpositions = 0;
+        for (int i = 0, j = 0; i < a.length(); i++) {
+            if (!aMatched[i]) continue;
+            while (!bMatched[j]) j++;
+            if (a.charAt(i) != b.charAt(j)) transpositions++;
+            j++;
+        }
+
+        double m = matches;
+        double jaro = (m / a.length() + m / b.length() + (m - transpositions / 2.0) / m) / 3.0;
+
+        int prefix = 0;
+        while (prefix < 4 && prefix < a.length() && prefix < b.length() && a.charAt(prefix) == b.charAt(prefix)) {
+            prefix++;
+        }
+        return jaro + prefix * 0.1 * (1 - jaro);
+    }
+}
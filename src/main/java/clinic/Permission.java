@@ -0,0 +1,24 @@
+package clinic;
+
+// Things a user may do. Each constant is one bit of a Role's permission mask.
+public enum Permission {
+    ADD_PATIENT("add patients"),
+    EDIT_PATIENT("edit patients"),
+    MERGE_PATIENTS("merge duplicate patients"),
+    ADD_DOCTOR("add doctors"),
+    EDIT_DOCTOR("edit doctors"),
+    BOOK_APPOINTMENT("book appointments"),
+    VIEW_APPOINTMENTS("view appointments"),
+    UPDATE_APPOINTMENT("change appointment status"),
+    VIEW_REPORTS("view reports"),
+    SYNC_BRANCHES("sync data with other branches"),
+    TAKE_PAYMENTS("record payments"),
+    MANAGE_BILLING("manage fees and invoices");
+
+    final String description;
+    final long bit = 1L << ordinal();
+
+    Permission(String description) {
+        this.description = description;
+    }
+}
@@ -0,0 +1,113 @@
+package clinic;
+
+import javax.swing.*;
+import java.awt.*;
+
+// Combo box model over a PersonDirectory. Items are person ids (Integer); names are looked up
+// only when a row is rendered, so no wrapper object is kept per patient or doctor.
+public class PersonComboModel extends AbstractListModel<Integer> implements ComboBoxModel<Integer> {
+
+    // prototype item: fixes the popup width without measuring every name
+    private static final Integer PROTOTYPE = Integer.MIN_VALUE;
+
+    // optional first entry for filters ("All doctors"); its id is -1, same as no selection
+    private static final Integer ANY = -1;
+
+    private PersonDirectory directory = new PersonDirectory();
+    private Object selected;
+    private String anyLabel;
+
+    /** Installs a model, renderer and type-ahead on the box. */
+    public static PersonComboModel install(JComboBox<Integer> box) {
+        PersonComboModel model = new PersonComboModel();
+        box.setModel(model);
+        box.setPrototypeDisplayValue(PROTOTYPE);
+
+        box.setRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                          boolean isSelected, boolean cellHasFocus) {
+                String text = value == PROTOTYPE ? "XXXXXXXXXXXXXXXXXXXXXXXX"
+                        : ANY.equals(value) ? model.anyLabel
+                        : value instanceof Integer ? model.directory.displayName((Integer) value) : "";
+                return super.getListCellRendererComponent(list, text, index, isSelected, cellHasFocus);
+            }
+        });
+
+        // type-ahead on the shown name rather than on Integer.toString()
+        box.setKeySelectionManager((key, m) -> model.nextStartingWith(key, box.getSelectedIndex()));
+        return model;
+    }
+
+    /** Adds a first entry with this label that stands for "no particular person" (id -1). */
+    public void setAnyLabel(String label) {
+        int old = getSize();
+        anyLabel = label;
+        selected = ANY;
+        if (old > 0) fireIntervalRemoved(this, 0, old - 1);
+        if (getSize() > 0) fireIntervalAdded(this, 0, getSize() - 1);
+    }
+
+    public void setDirectory(PersonDirectory directory) {
+        int old = getSize();
+        this.directory = directory;
+        this.selected = anyLabel != null ? ANY : directory.size() > 0 ? directory.idAt(0) : null;
+
+        if (old > 0) fireIntervalRemoved(this, 0, old - 1);
+        if (getSize() > 0) fireIntervalAdded(this, 0, getSize() - 1);
+    }
+
+    public PersonDirectory getDirectory() {
+        return directory;
+    }
+
+    /** Selected person id, or -1 if nothing is selected. */
+    public int getSelectedId() {
+        return selected instanceof Integer ? (Integer) selected : -1;
+    }
+
+    /** Renames a person and refreshes the list (its position may change). */
+    public void rename(int id, String firstName, String lastName) {
+        directory.rename(id, firstName, lastName);
+        fireContentsChanged(this, 0, getSize() - 1);
+    }
+
+    @Override
+    public int getSize() {
+        return directory.size() + offset();
+    }
+
+    @Override
+    public Integer getElementAt(int index) {
+        return index < offset() ? ANY : directory.idAt(index - offset());
+    }
+
+    private int offset() {
+        return anyLabel == null ? 0 : 1;
+    }
+
+    @Override
+    public void setSelectedItem(Object item) {
+        if (item == null ? selected != null : !item.equals(selected)) {
+            selected = item;
+            fireContentsChanged(this, -1, -1);
+        }
+    }
+
+    @Override
+    public Object getSelectedItem() {
+        return selected;
+    }
+
+    private int nextStartingWith(char key, int from) {
+        char k = Character.toLowerCase(key);
+        int n = directory.size();
+        from -= offset();
+        for (int i = 1; i <= n; i++) {
+            int pos = Math.floorMod(from + i, n);
+            String name = directory.displayName(directory.idAt(pos));
+            if (!name.isEmpty() && Character.toLowerCase(name.charAt(0)) == k) return pos + offset();
+        }
+        return -1;
+    }
+}
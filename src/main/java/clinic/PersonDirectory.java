@@ -0,0 +1,187 @@
+package clinic;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Compact id -> name store for patient and doctor pickers.
+// Records live in parallel arrays (no object per person); an open-addressing int table gives
+// O(1) lookup by id, and a sorted int array of slots gives name order (last name, first name).
+// Name parts are de-duplicated through a local pool, since first names repeat a lot.
+public class PersonDirectory {
+
+    private static final int EMPTY = -1;
+
+    private int[] ids = new int[16];
+    private String[] firstNames = new String[16];
+    private String[] lastNames = new String[16];
+    private int size;
+
+    // id -> slot, linear probing; length is a power of two, at most half full
+    private int[] table = newTable(32);
+
+    // position in name order -> slot
+    private int[] order = new int[0];
+
+    private final Map<String, String> pool = new HashMap<>();
+
+    public int size() {
+        return size;
+    }
+
+    /** Adds a record while loading. Call finish() once all records are added. */
+    public void add(int id, String firstName, String lastName) {
+        if (size == ids.length) {
+            int cap = size * 2;
+            ids = Arrays.copyOf(ids, cap);
+            firstNames = Arrays.copyOf(firstNames, cap);
+            lastNames = Arrays.copyOf(lastNames, cap);
+        }
+        ids[size] = id;
+        firstNames[size] = intern(firstName);
+        lastNames[size] = intern(lastName);
+        size++;
+
+        if (size * 2 > table.length) {
+            rehash(table.length * 2);
+        } else {
+            insertIntoTable(size - 1);
+        }
+    }
+
+    /** Builds the name order. Input that already arrives sorted (ORDER BY last_name, first_name) costs O(n). */
+    public void finish() {
+        order = new int[size];
+        boolean sorted = true;
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+            if (i > 0 && compareSlots(i - 1, i) > 0) sorted = false;
+        }
+        if (!sorted) {
+            mergeSort(order, new int[size], 0, size);
+        }
+    }
+
+    public boolean contains(int id) {
+        return slotOf(id) != EMPTY;
+    }
+
+    /** Id at a position in name order. */
+    public int idAt(int position) {
+        return ids[order[position]];
+    }
+
+    public String displayName(int id) {
+        int slot = slotOf(id);
+        if (slot == EMPTY) return "";
+        String last = lastNames[slot];
+        return last.isEmpty() ? firstNames[slot] : firstNames[slot] + " " + last;
+    }
+
+    /** Position of id in name order, or -1. O(log n). */
+    public int positionOf(int id) {
+        int slot = slotOf(id);
+        if (slot == EMPTY) return -1;
+
+        int lo = 0;
+        int hi = size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compareSlots(order[mid], slot);
+            if (c < 0) lo = mid + 1;
+            else if (c > 0) hi = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    /** Changes a name and moves the record to its new place in name order. */
+    public void rename(int id, String firstName, String lastName) {
+        int from = positionOf(id);
+        if (from < 0) return;
+        int slot = order[from];
+
+        System.arraycopy(order, from + 1, order, from, size - from - 1);
+
+        firstNames[slot] = intern(firstName);
+        lastNames[slot] = intern(lastName);
+
+        // binary search for the insertion point among the other size-1 entries
+        int lo = 0;
+        int hi = size - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareSlots(order[mid], slot) < 0) lo = mid + 1;
+            else hi = mid;
+        }
+        System.arraycopy(order, lo, order, lo + 1, size - 1 - lo);
+        order[lo] = slot;
+    }
+
+    private int slotOf(int id) {
+        int mask = table.length - 1;
+        for (int i = mix(id) & mask; ; i = (i + 1) & mask) {
+            int slot = table[i];
+            if (slot == EMPTY) return EMPTY;
+            if (ids[slot] == id) return slot;
+        }
+    }
+
+    private void insertIntoTable(int slot) {
+        int mask = table.length - 1;
+        int i = mix(ids[slot]) & mask;
+        while (table[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        table[i] = slot;
+    }
+
+    private void rehash(int capacity) {
+        table = newTable(capacity);
+        for (int slot = 0; slot < size; slot++) {
+            insertIntoTable(slot);
+        }
+    }
+
+    private static int[] newTable(int capacity) {
+        int[] t = new int[capacity];
+        Arrays.fill(t, EMPTY);
+        return t;
+    }
+
+    // ids are sequential; spread them so neighbours don't cluster in the probe sequence
+    private static int mix(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private String intern(String s) {
+        if (s == null) return "";
+        String pooled = pool.putIfAbsent(s, s);
+        return pooled != null ? pooled : s;
+    }
+
+    private int compareSlots(int a, int b) {
+        int c = lastNames[a].compareTo(lastNames[b]);
+        if (c == 0) c = firstNames[a].compareTo(firstNames[b]);
+        if (c == 0) c = Integer.compare(ids[a], ids[b]);
+        return c;
+    }
+
+    private void mergeSort(int[] a, int[] tmp, int from, int to) {
+        if (to - from < 2) return;
+        int mid = (from + to) >>> 1;
+        mergeSort(a, tmp, from, mid);
+        mergeSort(a, tmp, mid, to);
+
+        int i = from;
+        int j = mid;
+        int k = from;
+        while (i < mid && j < to) {
+            tmp[k++] = compareSlots(a[i], a[j]) <= 0 ? a[i++] : a[j++];
+        }
+        while (i < mid) tmp[k++] = a[i++];
+        while (j < to) tmp[k++] = a[j++];
+        System.arraycopy(tmp, from, a, from, to - from);
+    }
+}
@@ -0,0 +1,110 @@
+package clinic;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// Read-only connections for list screens, reports and exports (see Database.getReadConnection).
+//
+// Connections are opened with PRAGMA query_only, so nothing can write through them. Each checkout
+// is one read transaction: under WAL it pins a snapshot, so every statement run through the
+// connection sees the same consistent state, and neither readers nor the writer wait for each
+// other. Closing the connection ends the transaction and returns it to the pool.
+// Without WAL every statement reads on its own (still consistent within the statement).
+//
+//   clinic.db.readPool         read connections open at most (default 4)
+//   clinic.db.readWaitSeconds  how long a reader waits for a free one (default 10)
+class ReadConnectionPool {
+
+    private static final int SIZE = Integer.getInteger("clinic.db.readPool", 4);
+    private static final long WAIT_SECONDS = Long.getLong("clinic.db.readWaitSeconds", 10);
+
+    private final Semaphore permits = new Semaphore(SIZE, true);
+    private final ConcurrentLinkedQueue<Connection> idle = new ConcurrentLinkedQueue<>();
+
+    Connection borrow() throws SQLException {
+        try {
+            if (!permits.tryAcquire(WAIT_SECONDS, TimeUnit.SECONDS)) {
+                throw new SQLException("All " + SIZE + " read connections are busy");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a read connection", ex);
+        }
+
+        try {
+            Connection conn = idle.poll();
+            Metrics.cacheLookup("read_connections", conn != null);
+            if (conn == null) {
+                conn = Database.open();
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("PRAGMA query_only = ON");
+                }
+            }
+            // the transaction (and with it the snapshot) starts at the first statement; without WAL
+            // an open read would hold up writers, so then each statement commits on its own
+            conn.setAutoCommit(!Database.snapshotReads());
+            return lease(conn);
+        } catch (SQLException | RuntimeException ex) {
+            permits.release();
+            throw ex;
+        }
+    }
+
+    int inUse() {
+        return SIZE - permits.availablePermits();
+    }
+
+    int idleCount() {
+        return idle.size();
+    }
+
+    // close() on the handed-out connection gives it back instead of closing it
+    private Connection lease(Connection conn) {
+        boolean[] returned = { false };
+
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "close":
+                            if (!returned[0]) {
+                                returned[0] = true;
+                                giveBack(conn);
+                            }
+                            return null;
+                        case "isClosed":
+                            return returned[0] || conn.isClosed();
+                        default:
+                            if (returned[0]) throw new SQLException("Read connection already returned to the pool");
+                            try {
+                                return method.invoke(conn, args);
+                            } catch (InvocationTargetException ex) {
+                                throw ex.getCause();
+                            }
+                    }
+                });
+    }
+
+    private void giveBack(Connection conn) {
+        try {
+            if (!conn.getAutoCommit()) {
+                conn.rollback(); // ends the read transaction, so WAL checkpoints can move past it
+                conn.setAutoCommit(true);
+            }
+            idle.offer(conn);
+        } catch (SQLException ex) {
+            try {
+                conn.close();
+            } catch (SQLException ignored) {
+                // already broken
+            }
+        } finally {
+            permits.release();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package clinic;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+// Subset of the iCalendar RRULE syntax, enough for treatment series:
+//   FREQ=DAILY|WEEKLY|MONTHLY  INTERVAL=n  COUNT=n  UNTIL=YYYYMMDD  BYDAY=MO,WE,FR (weekly only)
+// e.g. "FREQ=WEEKLY;INTERVAL=1;COUNT=12;BYDAY=MO,TH"
+public class RecurrenceRule {
+
+    public static final int MAX_OCCURRENCES = 100;
+
+    enum Freq { DAILY, WEEKLY, MONTHLY }
+
+    private final Freq freq;
+    private final int interval;
+    private final int count;
+    private final LocalDate until;
+    private final Set<DayOfWeek> byDay;
+
+    private RecurrenceRule(Freq freq, int interval, int count, LocalDate until, Set<DayOfWeek> byDay) {
+        this.freq = freq;
+        this.interval = interval;
+        this.count = count;
+        this.until = until;
+        this.byDay = byDay;
+    }
+
+    public static RecurrenceRule parse(String rule) {
+        Freq freq = null;
+        int interval = 1;
+        int count = 0;
+        LocalDate until = null;
+        Set<DayOfWeek> byDay = EnumSet.noneOf(DayOfWeek.class);
+
+        for (String part : rule.trim().toUpperCase(Locale.ROOT).split(";")) {
+            if (part.isEmpty()) continue;
+
+            int eq = part.indexOf('=');
+            if (eq <= 0) throw new IllegalArgumentException("Bad rule part: " + part);
+            String key = part.substring(0, eq);
+            String value = part.substring(eq + 1);
+
+            try {
+                switch (key) {
+                    case "FREQ":
+                        freq = Freq.valueOf(value);
+                        break;
+                    case "INTERVAL":
+                        interval = Integer.parseInt(value);
+                        break;
+                    case "COUNT":
+                        count = Integer.parseInt(value);
+                        break;
+                    case "UNTIL":
+                        until = LocalDate.parse(value.substring(0, 8), DateTimeFormatter.BASIC_ISO_DATE);
+                        break;
+                    case "BYDAY":
+                        for (String d : value.split(",")) {
+                            byDay.add(dayOf(d));
+                        }
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unsupported rule part: " + key);
+                }
+            } catch (NumberFormatException | DateTimeParseException | StringIndexOutOfBoundsException ex) {
+                throw new IllegalArgumentException("Bad value in " + part);
+            }
+        }
+
+        if (freq == null) throw new IllegalArgumentException("FREQ is required");
+        if (interval < 1) throw new IllegalArgumentException("INTERVAL must be at least 1");
+        if (count <= 0 && until == null) throw new IllegalArgumentException("COUNT or UNTIL is required");
+        if (!byDay.isEmpty() && freq != Freq.WEEKLY) throw new IllegalArgumentException("BYDAY needs FREQ=WEEKLY");
+
+        return new RecurrenceRule(freq, interval, count, until, byDay);
+    }
+
+    private static DayOfWeek dayOf(String code) {
+        switch (code) {
+            case "MO": return DayOfWeek.MONDAY;
+            case "TU": return DayOfWeek.TUESDAY;
+            case "WE": return DayOfWeek.WEDNESDAY;
+            case "TH": return DayOfWeek.THURSDAY;
+            case "FR": return DayOfWeek.FRIDAY;
+            case "SA": return DayOfWeek.SATURDAY;
+            case "SU": return DayOfWeek.SUNDAY;
+            default: throw new IllegalArgumentException("Bad day: " + code);
+        }
+    }
+
+    /** All occurrences starting with (and including) start, in order, capped at MAX_OCCURRENCES. */
+    public List<LocalDateTime> expand(LocalDateTime start) {
+        int limit = count > 0 ? Math.min(count, MAX_OCCURRENCES) : MAX_OCCURRENCES;
+        List<LocalDateTime> out = new ArrayList<>();
+
+        if (freq == Freq.WEEKLY && !byDay.isEmpty()) {
+            // walk week by week from the Monday of the start week, emitting the chosen days
+            LocalDateTime week = start.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+            while (out.size() < limit) {
+                for (DayOfWeek d : byDay) { // EnumSet iterates Monday..Sunday
+                    LocalDateTime t = week.with(TemporalAdjusters.nextOrSame(d));
+                    if (t.isBefore(start)) continue;
+                    if (until != null && t.toLocalDate().isAfter(until)) return out;
+                    out.add(t);
+                    if (out.size() == limit) return out;
+                }
+                week = week.plusWeeks(interval);
+            }
+            return out;
+        }
+
+        for (int i = 0; out.size() < limit; i++) {
+            LocalDateTime t;
+            switch (freq) {
+                case DAILY:
+                    t = start.plusDays((long) i * interval);
+                    break;
+                case WEEKLY:
+                    t = start.plusWeeks((long) i * interval);
+                    break;
+                default:
+                    t = start.plusMonths((long) i * interval);
+                    break;
+            }
+            if (until != null && t.toLocalDate().isAfter(until)) break;
+            out.add(t);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,43 @@
+package clinic;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+// Delivers appointment reminders. Chosen with -Dclinic.reminders.sender (see ReminderService).
+public interface ReminderSender {
+
+    class Reminder {
+        public final long id;
+        public final String patientName;
+        public final String email;  // may be null
+        public final String phone;
+        public final String doctorName;
+        public final String appointmentDatetime;
+
+        Reminder(long id, String patientName, String email, String phone, String doctorName, String appointmentDatetime) {
+            this.id = id;
+            this.patientName = patientName;
+            this.email = email;
+            this.phone = phone;
+            this.doctorName = doctorName;
+            this.appointmentDatetime = appointmentDatetime;
+        }
+
+        public String text() {
+            return "Dear " + patientName + ", this is a reminder of your appointment with " + doctorName +
+                   " on " + appointmentDatetime + ". Please call us if you can't make it.";
+        }
+    }
+
+    /** False if this channel has no way to reach the patient (e.g. no email address); not retried. */
+    default boolean canReach(Reminder r) {
+        return true;
+    }
+
+    /**
+     * Sends a batch. Returns the reminders that failed, by id, with the reason; they are retried
+     * later. An IOException means nothing in the batch was sent.
+     */
+    Map<Long, String> send(List<Reminder> batch) throws IOException;
+}
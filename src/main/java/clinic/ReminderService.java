@@ -0,0 +1,332 @@
+package clinic;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Appointment reminders, sent through a persistent outbox (reminder_outbox).
+//
+//   scan, every few minutes: BOOKED appointments starting within the lead time (plus a little
+//       look-ahead) get an outbox row. A range on idx_appointments_datetime; one row per appointment.
+//   load, after each scan: PENDING rows due before the next scans are put on a timing wheel, so
+//       between scans nothing queries the table.
+//   tick, every second: due reminders are claimed, sent in batches and marked SENT; failures are
+//       retried with exponential backoff, then marked FAILED.
+//
+// Runs on its own thread so a long backup doesn't delay reminders.
+//
+// Settings (system properties):
+//   clinic.reminders.sender     file (default), smtp, or off
+//   clinic.reminders.leadHours  how long before the appointment to remind (default 24)
+//   clinic.reminders.file       mbox file written by the file sender (default reminders/outbox.mbox)
+//   clinic.reminders.smtpHost   SMTP relay for the smtp sender (default localhost)
+//   clinic.reminders.smtpPort   (default 25)
+//   clinic.reminders.from       sender address (default clinic@localhost)
+public class ReminderService {
+
+    private static final String SENDER = System.getProperty("clinic.reminders.sender", "file");
+    private static final long LEAD_HOURS = Long.getLong("clinic.reminders.leadHours", 24);
+
+    private static final long SCAN_MINUTES = 5;
+    private static final long LOOKAHEAD_MINUTES = 3 * SCAN_MINUTES;
+    private static final int BATCH = 50;
+    private static final int MAX_ATTEMPTS = 6;
+    private static final long FIRST_RETRY_SECONDS = 60;
+    // a claimed reminder is left alone by other desks for this long, then retried if never marked
+    private static final long CLAIM_MINUTES = 10;
+
+    private static final DateTimeFormatter TS_FMT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final DateTimeFormatter APPT_FMT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "clinic-reminders");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // only touched on the reminder thread
+    private static ReminderSender sender;
+    private static TimingWheel<Long> wheel;
+    private static final Set<Long> onWheel = new HashSet<>();
+
+    private ReminderService() {
+    }
+
+    public static void start() {
+        sender = createSender();
+        if (sender == null) return;
+
+        // one-second ticks; 1024 buckets cover the look-ahead in a single round
+        wheel = new TimingWheel<>(1000, 1024, System.currentTimeMillis());
+
+        EXECUTOR.scheduleWithFixedDelay(guarded("scan", ReminderService::scan), 10, SCAN_MINUTES * 60, TimeUnit.SECONDS);
+        EXECUTOR.scheduleWithFixedDelay(guarded("tick", ReminderService::tick), 1, 1, TimeUnit.SECONDS);
+    }
+
+    private static ReminderSender createSender() {
+        switch (SENDER) {
+            case "off":
+                return null;
+            case "smtp":
+                return new SmtpReminderSender(
+                        System.getProperty("clinic.reminders.smtpHost", "localhost"),
+                        Integer.getInteger("clinic.reminders.smtpPort", 25),
+                        System.getProperty("clinic.reminders.from", "clinic@localhost"));
+            case "file":
+                return new FileReminderSender(Paths.get(System.getProperty("clinic.reminders.file", "reminders/outbox.mbox")));
+            default:
+                AppLog.warn("starting reminders", "Unknown clinic.reminders.sender '" + SENDER + "', reminders are off");
+                return null;
+        }
+    }
+
+    private interface Job {
+        void run() throws Exception;
+    }
+
+    private static Runnable guarded(String name, Job job) {
+        return () -> {
+            try {
+                job.run();
+            } catch (Exception ex) {
+                AppLog.error("reminder " + name, ex);
+            }
+        };
+    }
+
+    static void scan() throws SQLException {
+        LocalDateTime now = LocalDateTime.now();
+
+        try (Connection conn = Database.getConnection()) {
+            // appointments booked less than the lead time ahead get their reminder right away
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "INSERT OR IGNORE INTO reminder_outbox (appointment_id, send_at, next_attempt_at) " +
+                    "SELECT id, send_at, send_at FROM (" +
+                    "  SELECT id, strftime('%Y-%m-%d %H:%M:%S', appointment_datetime, ?) AS send_at " +
+                    "  FROM appointments " +
+                    "  WHERE status = 'BOOKED' AND appointment_datetime >= ? AND appointment_datetime < ?)")) {
+                ps.setString(1, "-" + LEAD_HOURS + " hours");
+                ps.setString(2, now.format(APPT_FMT));
+                ps.setString(3, now.plusHours(LEAD_HOURS).plusMinutes(LOOKAHEAD_MINUTES).format(APPT_FMT));
+                ps.executeUpdate();
+            }
+
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "SELECT id, next_attempt_at FROM reminder_outbox " +
+                    "WHERE status = 'PENDING' AND next_attempt_at < ?")) {
+                ps.setString(1, now.plusMinutes(LOOKAHEAD_MINUTES).format(TS_FMT));
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        schedule(rs.getLong("id"), LocalDateTime.parse(rs.getString("next_attempt_at"), TS_FMT));
+                    }
+                }
+            }
+        }
+    }
+
+    private static void schedule(long id, LocalDateTime due) {
+        if (onWheel.add(id)) {
+            wheel.schedule(id, due.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+        }
+    }
+
+    private static void tick() throws SQLException {
+        List<Long> due = new ArrayList<>();
+        wheel.advance(System.currentTimeMillis(), due::add);
+        if (due.isEmpty()) return;
+
+        onWheel.removeAll(due);
+
+        // contact details are encrypted; nothing can be sent until someone has logged in
+        if (!FieldCrypto.isUnlocked()) {
+            LocalDateTime later = LocalDateTime.now().plusMinutes(1);
+            for (Long id : due) schedule(id, later);
+            return;
+        }
+
+        for (int i = 0; i < due.size(); i += BATCH) {
+            dispatch(due.subList(i, Math.min(due.size(), i + BATCH)));
+        }
+    }
+
+    private static void dispatch(List<Long> ids) throws SQLException {
+        LocalDateTime now = LocalDateTime.now();
+
+        try (Connection conn = Database.getConnection()) {
+            List<Long> claimed = claim(conn, ids, now);
+            if (claimed.isEmpty()) return;
+
+            List<ReminderSender.Reminder> toSend = new ArrayList<>();
+            Map<Long, Integer> attempts = new HashMap<>();
+            List<Long> cancelled = new ArrayList<>();
+            List<Long> unreachable = new ArrayList<>();
+
+            String sql = "SELECT o.id, o.attempts, a.status, a.appointment_datetime, " +
+                         "       p.first_name, p.last_name, p.email, p.phone, d.name AS doctor_name " +
+                         "FROM reminder_outbox o " +
+                         "LEFT JOIN appointments a ON a.id = o.appointment_id " +
+                         "LEFT JOIN patients p ON p.id = a.patient_id " +
+                         "LEFT JOIN doctors d ON d.id = a.doctor_id " +
+                         "WHERE o.id IN (" + placeholders(claimed.size()) + ")";
+
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                for (int i = 0; i < claimed.size(); i++) {
+                    ps.setLong(i + 1, claimed.get(i));
+                }
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        long id = rs.getLong("id");
+
+                        // cancelled (or merged away) since the reminder was queued
+                        if (!"BOOKED".equals(rs.getString("status")) || rs.getString("first_name") == null) {
+                            cancelled.add(id);
+                            continue;
+                        }
+
+                        ReminderSender.Reminder r = new ReminderSender.Reminder(
+                                id,
+                                rs.getString("first_name") + " " + rs.getString("last_name"),
+                                FieldCrypto.decrypt("email", rs.getString("email")),
+                                FieldCrypto.decrypt("phone", rs.getString("phone")),
+                                rs.getString("doctor_name"),
+                                rs.getString("appointment_datetime"));
+
+                        if (sender.canReach(r)) {
+                            toSend.add(r);
+                            attempts.put(id, rs.getInt("attempts"));
+                        } else {
+                            unreachable.add(id);
+                        }
+                    }
+                }
+            }
+
+            Map<Long, String> failed;
+            try {
+                failed = toSend.isEmpty() ? Collections.emptyMap() : sender.send(toSend);
+            } catch (IOException ex) {
+                failed = new HashMap<>();
+                for (ReminderSender.Reminder r : toSend) {
+                    failed.put(r.id, ex.getMessage());
+                }
+            }
+
+            record(conn, now, toSend, failed, attempts, cancelled, unreachable);
+        }
+    }
+
+    // Takes the reminders for this desk by pushing their next attempt past the claim period.
+    // Another desk running on the same database then skips them.
+    private static List<Long> claim(Connection conn, List<Long> ids, LocalDateTime now) throws SQLException {
+        List<Long> claimed = new ArrayList<>();
+
+        String sql = "UPDATE reminder_outbox SET next_attempt_at = ? " +
+                     "WHERE status = 'PENDING' AND next_attempt_at <= ? AND id IN (" + placeholders(ids.size()) + ") " +
+                     "RETURNING id";
+
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, now.plusMinutes(CLAIM_MINUTES).format(TS_FMT));
+            ps.setString(2, now.format(TS_FMT));
+            for (int i = 0; i < ids.size(); i++) {
+                ps.setLong(i + 3, ids.get(i));
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    claimed.add(rs.getLong(1));
+                }
+            }
+        }
+        return claimed;
+    }
+
+    private static void record(Connection conn, LocalDateTime now, List<ReminderSender.Reminder> sent,
+                               Map<Long, String> failed, Map<Long, Integer> attempts,
+                               List<Long> cancelled, List<Long> unreachable) throws SQLException {
+        String stamp = now.format(TS_FMT);
+        LocalDateTime horizon = now.plusMinutes(LOOKAHEAD_MINUTES);
+        List<long[]> retries = new ArrayList<>();
+
+        try (Statement tx = conn.createStatement()) {
+            tx.execute("BEGIN IMMEDIATE");
+            try (PreparedStatement done = conn.prepareStatement(
+                         "UPDATE reminder_outbox SET status = ?, sent_at = ?, last_error = ? WHERE id = ?");
+                 PreparedStatement retry = conn.prepareStatement(
+                         "UPDATE reminder_outbox SET attempts = ?, next_attempt_at = ?, last_error = ?, " +
+                         "status = ? WHERE id = ?")) {
+
+                for (ReminderSender.Reminder r : sent) {
+                    String error = failed.get(r.id);
+                    if (error == null) {
+                        addDone(done, "SENT", stamp, null, r.id);
+                        continue;
+                    }
+
+                    int tries = attempts.get(r.id) + 1;
+                    // 1, 2, 4, 8 ... minutes
+                    LocalDateTime next = now.plusSeconds(FIRST_RETRY_SECONDS << (tries - 1));
+                    retry.setInt(1, tries);
+                    retry.setString(2, next.format(TS_FMT));
+                    retry.setString(3, error);
+                    retry.setString(4, tries >= MAX_ATTEMPTS ? "FAILED" : "PENDING");
+                    retry.setLong(5, r.id);
+                    retry.addBatch();
+
+                    if (tries < MAX_ATTEMPTS && next.isBefore(horizon)) {
+                        retries.add(new long[] { r.id, next.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() });
+                    }
+                }
+                for (Long id : cancelled) {
+                    addDone(done, "CANCELLED", null, null, id);
+                }
+                for (Long id : unreachable) {
+                    addDone(done, "FAILED", null, "no contact details for this channel", id);
+                }
+
+                done.executeBatch();
+                retry.executeBatch();
+                tx.execute("COMMIT");
+            } catch (SQLException ex) {
+                tx.execute("ROLLBACK");
+                throw ex;
+            }
+        }
+
+        for (long[] r : retries) {
+            if (onWheel.add(r[0])) wheel.schedule(r[0], r[1]);
+        }
+    }
+
+    private static void addDone(PreparedStatement ps, String status, String sentAt, String error, long id)
+            throws SQLException {
+        ps.setString(1, status);
+        ps.setString(2, sentAt);
+        ps.setString(3, error);
+        ps.setLong(4, id);
+        ps.addBatch();
+    }
+
+    private static String placeholders(int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            sb.append(i == 0 ? "?" : ", ?");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,166 @@
+package clinic;
+
+import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
+import java.awt.*;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Map;
+
+public class ReportsFrame extends JFrame {
+
+    private JTextField fromField;
+    private JTextField toField;
+    private DefaultTableModel doctorModel;
+    private DefaultTableModel newPatientsModel;
+    private JLabel summaryLabel;
+    private JButton refreshButton;
+    private JButton rebuildButton;
+
+    public ReportsFrame() {
+        setTitle("Clinic Reports");
+        setSize(720, 420);
+        setLocationRelativeTo(null);
+        setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+
+        initComponents();
+        runReport(false);
+    }
+
+    private void initComponents() {
+        setLayout(new BorderLayout());
+
+        // Top: period + actions
+        JPanel topPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        fromField = new JTextField(LocalDate.now().minusDays(90).toString(), 10);
+        toField = new JTextField(LocalDate.now().toString(), 10);
+        refreshButton = new JButton("Refresh");
+        rebuildButton = new JButton("Full rebuild");
+        rebuildButton.setToolTipText("Recompute all figures from scratch");
+
+        topPanel.add(new JLabel("From:"));
+        topPanel.add(fromField);
+        topPanel.add(new JLabel("To:"));
+        topPanel.add(toField);
+        topPanel.add(refreshButton);
+        topPanel.add(rebuildButton);
+
+        refreshButton.addActionListener(e -> runReport(false));
+        rebuildButton.addActionListener(e -> runReport(true));
+
+        add(topPanel, BorderLayout.NORTH);
+
+        // Center: one tab per report
+        doctorModel = readOnlyModel("Doctor", "Appointments", "Completed", "Cancelled",
+                                    "No-shows", "Upcoming", "Attendance", "No-show rate");
+        newPatientsModel = readOnlyModel("Month", "New patients");
+
+        JTabbedPane tabs = new JTabbedPane();
+        tabs.addTab("By doctor", new JScrollPane(new JTable(doctorModel)));
+        tabs.addTab("New patients", new JScrollPane(new JTable(newPatientsModel)));
+        add(tabs, BorderLayout.CENTER);
+
+        // Bottom: clinic-wide summary
+        summaryLabel = new JLabel(" ");
+        summaryLabel.setBorder(BorderFactory.createEmptyBorder(6, 8, 6, 8));
+        add(summaryLabel, BorderLayout.SOUTH);
+    }
+
+    private static DefaultTableModel readOnlyModel(Object... columns) {
+        return new DefaultTableModel(columns, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+    }
+
+    private void runReport(boolean fullRebuild) {
+        if (!Session.check(this, Permission.VIEW_REPORTS)) return;
+
+        String from = fromField.getText().trim();
+        String to = toField.getText().trim();
+
+        try {
+            if (LocalDate.parse(from).isAfter(LocalDate.parse(to))) {
+                JOptionPane.showMessageDialog(this, "'From' must not be after 'To'.");
+                return;
+            }
+        } catch (DateTimeParseException ex) {
+            JOptionPane.showMessageDialog(this, "Invalid date. Use YYYY-MM-DD (e.g., 2026-01-10).");
+            return;
+        }
+
+        refreshButton.setEnabled(false);
+        rebuildButton.setEnabled(false);
+        summaryLabel.setText(fullRebuild ? "Rebuilding..." : "Updating...");
+
+        // aggregation runs off the EDT; only the table fill happens in done()
+        new SwingWorker<Void, Void>() {
+            List<KpiEngine.DoctorStats> doctors;
+            Map<String, Integer> newPatients;
+
+            @Override
+            protected Void doInBackground() throws Exception {
+                if (fullRebuild) {
+                    KpiEngine.rebuild();
+                } else {
+                    KpiEngine.refresh();
+                }
+                doctors = KpiEngine.doctorStats(from, to);
+                newPatients = KpiEngine.newPatientsByMonth(from, to);
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                refreshButton.setEnabled(true);
+                rebuildButton.setEnabled(true);
+
+                try {
+                    get();
+                } catch (Exception ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    summaryLabel.setText(" ");
+                    AppLog.showError(ReportsFrame.this, "building reports", cause);
+                    return;
+                }
+                showResults(doctors, newPatients);
+            }
+        }.execute();
+    }
+
+    private void showResults(List<KpiEngine.DoctorStats> doctors, Map<String, Integer> newPatients) {
+        doctorModel.setRowCount(0);
+        int completed = 0;
+        int noShows = 0;
+        int total = 0;
+
+        for (KpiEngine.DoctorStats s : doctors) {
+            doctorModel.addRow(new Object[] {
+                    s.doctor, s.total, s.completed, s.cancelled, s.noShow, s.upcoming,
+                    percent(s.attendanceRate()), percent(s.noShowRate())
+            });
+            completed += s.completed;
+            noShows += s.noShow;
+            total += s.total;
+        }
+
+        newPatientsModel.setRowCount(0);
+        int newTotal = 0;
+        for (Map.Entry<String, Integer> e : newPatients.entrySet()) {
+            newPatientsModel.addRow(new Object[] { e.getKey(), e.getValue() });
+            newTotal += e.getValue();
+        }
+
+        int held = completed + noShows;
+        summaryLabel.setText("Appointments: " + total +
+                             "   No-show rate: " + percent(held == 0 ? 0 : (double) noShows / held) +
+                             "   New patients: " + newTotal);
+    }
+
+    private static String percent(double v) {
+        return String.format("%.1f%%", v * 100);
+    }
+}
@@ -0,0 +1,68 @@
+package clinic;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+// Bounded queue for many producers and one consumer, without locks.
+// Each slot carries a sequence number: a producer claims the next position with one CAS on the
+// tail and publishes by bumping the slot's sequence; the consumer only reads slots whose
+// sequence says they are published. Producers never block: offer() fails when the ring is full.
+public class RingBuffer<T> {
+
+    private final AtomicReferenceArray<T> items;
+    private final AtomicLongArray sequences;
+    private final int mask;
+
+    private final AtomicLong tail = new AtomicLong();
+    private long head; // consumer only
+
+    /** Capacity is rounded up to a power of two. */
+    public RingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        items = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /** Adds an item; false if the ring is full. Safe from any thread. */
+    public boolean offer(T item) {
+        long pos;
+        while (true) {
+            pos = tail.get();
+            long seq = sequences.get((int) pos & mask);
+            if (seq == pos) {
+                if (tail.compareAndSet(pos, pos + 1)) break;
+            } else if (seq < pos) {
+                return false; // slot still holds an item from the previous lap
+            }
+            // seq > pos: another producer took this position, retry with the new tail
+        }
+        int slot = (int) pos & mask;
+        items.set(slot, item);
+        sequences.set(slot, pos + 1);
+        return true;
+    }
+
+    /** Hands up to max items to the sink, oldest first. Only one thread may drain at a time. */
+    public int drain(Consumer<? super T> sink, int max) {
+        int n = 0;
+        while (n < max) {
+            int slot = (int) head & mask;
+            if (sequences.get(slot) != head + 1) break; // not published yet
+
+            T item = items.get(slot);
+            items.set(slot, null);
+            sequences.set(slot, head + mask + 1); // free for the producer one lap ahead
+            head++;
+
+            sink.accept(item);
+            n++;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,33 @@
+package clinic;
+
+// Stored in users.role. The permission mask is fixed per role, so a check is a single AND.
+public enum Role {
+    RECEPTIONIST(Permission.ADD_PATIENT, Permission.EDIT_PATIENT, Permission.BOOK_APPOINTMENT,
+                 Permission.VIEW_APPOINTMENTS, Permission.UPDATE_APPOINTMENT, Permission.TAKE_PAYMENTS),
+    DOCTOR(Permission.VIEW_APPOINTMENTS, Permission.UPDATE_APPOINTMENT, Permission.VIEW_REPORTS),
+    ADMIN(Permission.values());
+
+    private final long permissions;
+
+    Role(Permission... granted) {
+        long bits = 0;
+        for (Permission p : granted) {
+            bits |= p.bit;
+        }
+        this.permissions = bits;
+    }
+
+    public boolean allows(Permission p) {
+        return (permissions & p.bit) != 0;
+    }
+
+    /** Role for a users.role value, or null if the value is unknown. */
+    public static Role fromDb(String value) {
+        if (value == null) return null;
+        try {
+            return valueOf(value);
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package clinic;
+
+import javax.swing.*;
+import java.awt.*;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+
+public class ScheduleFrame extends JFrame {
+
+    private ScheduleView view;
+    private JScrollPane scrollPane;
+    private JComponent columnHeader;
+    private JTextField dateField;
+
+    public ScheduleFrame() {
+        setTitle("Doctor Schedules");
+        setSize(1100, 760);
+        setLocationRelativeTo(null);
+        setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+
+        initComponents();
+
+        try {
+            view.loadDoctors();
+        } catch (Exception ex) {
+            AppLog.showError(this, "loading doctors", ex);
+        }
+
+        // zoom and position need the viewport size, known once the frame is laid out
+        SwingUtilities.invokeLater(() -> {
+            weekView();
+            scrollTo(LocalDate.now());
+        });
+    }
+
+    private void initComponents() {
+        setLayout(new BorderLayout());
+
+        JPanel topPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        JButton todayButton = new JButton("Today");
+        JButton dayButton = new JButton("Day");
+        JButton weekButton = new JButton("Week");
+        topPanel.add(todayButton);
+        topPanel.add(dayButton);
+        topPanel.add(weekButton);
+        topPanel.add(new JLabel("   Go to (YYYY-MM-DD):"));
+        dateField = new JTextField(10);
+        topPanel.add(dateField);
+        JButton goButton = new JButton("Go");
+        topPanel.add(goButton);
+        JButton refreshButton = new JButton("Refresh");
+        topPanel.add(refreshButton);
+        add(topPanel, BorderLayout.NORTH);
+
+        view = new ScheduleView();
+        scrollPane = new JScrollPane(view);
+        columnHeader = view.createColumnHeader();
+        scrollPane.setColumnHeaderView(columnHeader);
+        scrollPane.setRowHeaderView(ScheduleView.createRowHeader());
+        // copies the already painted pixels while scrolling, only the uncovered strip is painted
+        scrollPane.getViewport().setScrollMode(JViewport.BLIT_SCROLL_MODE);
+        add(scrollPane, BorderLayout.CENTER);
+
+        todayButton.addActionListener(e -> scrollTo(LocalDate.now()));
+        dayButton.addActionListener(e -> dayView());
+        weekButton.addActionListener(e -> weekView());
+        goButton.addActionListener(e -> onGo());
+        dateField.addActionListener(e -> onGo());
+        refreshButton.addActionListener(e -> view.refresh());
+    }
+
+    private void onGo() {
+        try {
+            scrollTo(LocalDate.parse(dateField.getText().trim()));
+        } catch (DateTimeParseException ex) {
+            JOptionPane.showMessageDialog(this, "Invalid date. Use YYYY-MM-DD (e.g., 2026-01-10).");
+        }
+    }
+
+    // one day fills the window; lanes get at least enough room for a name
+    private void dayView() {
+        zoom(Math.max(scrollPane.getViewport().getWidth(), view.lanes() * 60));
+    }
+
+    // seven days fill the window
+    private void weekView() {
+        zoom(Math.max(scrollPane.getViewport().getWidth() / 7, view.lanes() * 2));
+    }
+
+    private void zoom(int dayWidth) {
+        LocalDate shown = view.dayAt(scrollPane.getViewport().getViewPosition().x);
+        view.setDayWidth(dayWidth);
+        columnHeader.revalidate();
+        scrollPane.validate();
+        scrollTo(shown);
+    }
+
+    private void scrollTo(LocalDate day) {
+        Point p = scrollPane.getViewport().getViewPosition();
+        int max = Math.max(0, view.getPreferredSize().width - scrollPane.getViewport().getWidth());
+        scrollPane.getViewport().setViewPosition(new Point(Math.max(0, Math.min(max, view.xOf(day))), p.y));
+    }
+}
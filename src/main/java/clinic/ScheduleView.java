@@ -0,0 +1,431 @@
+package clinic;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+// Timeline of doctor schedules: days run left to right, each day split into one lane per active
+// doctor, time of day runs down. Appointments are painted with Java2D, not as components.
+//
+// Each day is rendered once into an off-screen tile and the tile is reused on every repaint, so
+// scrolling only copies images. Appointments are loaded for the visible days (plus a margin) when
+// the view scrolls past what is loaded; nothing outside that window is kept. After a reload only
+// the tiles of days whose bookings changed are painted again.
+public class ScheduleView extends JComponent implements Scrollable {
+
+    static final int START_HOUR = 7;
+    static final int END_HOUR = 20;
+    static final int HOUR_HEIGHT = 48;
+
+    // appointments have no length in the schema; each is drawn as one booking slot
+    private static final int SLOT_MINUTES = 15;
+
+    // days either side of today the timeline covers
+    private static final int RANGE_DAYS = 365;
+    // extra days loaded either side of the visible ones
+    private static final int LOAD_MARGIN_DAYS = 14;
+    // off-screen tiles kept, in pixels (about 64 MB)
+    private static final long TILE_BUDGET_PIXELS = 16_000_000;
+
+    private static final Color BOOKED = new Color(135, 206, 235);
+    private static final Color COMPLETED = new Color(170, 200, 170);
+    private static final Color GRID = new Color(225, 230, 235);
+    private static final Color WEEKEND = new Color(245, 245, 240);
+    private static final DateTimeFormatter APPT_FMT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    private static final DateTimeFormatter HEADER_FMT = DateTimeFormatter.ofPattern("EEE d MMM yyyy");
+
+    private static final class Booking {
+        final int minute; // minutes after START_HOUR
+        final int lane;
+        final String label;
+        final boolean completed;
+
+        Booking(int minute, int lane, String label, boolean completed) {
+            this.minute = minute;
+            this.lane = lane;
+            this.label = label;
+            this.completed = completed;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Booking)) return false;
+            Booking b = (Booking) o;
+            return minute == b.minute && lane == b.lane && completed == b.completed && label.equals(b.label);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(minute, lane, label, completed);
+        }
+    }
+
+    private final LocalDate firstDay = LocalDate.now().minusDays(RANGE_DAYS);
+    private final int dayCount = 2 * RANGE_DAYS + 1;
+
+    private int dayWidth = 400;
+    private final List<String> doctorNames = new ArrayList<>();
+    private final Map<Integer, Integer> laneOfDoctor = new HashMap<>();
+
+    // loaded window [loadedFrom, loadedTo) in day indexes, and its bookings per day index
+    private int loadedFrom;
+    private int loadedTo;
+    private Map<Integer, List<Booking>> bookings = new HashMap<>();
+    private SwingWorker<Map<Integer, List<Booking>>, Void> loader;
+    // set by refresh(): the window is loaded again, what is painted stays until the new rows are in
+    private boolean stale;
+
+    private final LinkedHashMap<Integer, BufferedImage> tiles = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, BufferedImage> eldest) {
+            return (long) size() * dayWidth * height() > TILE_BUDGET_PIXELS;
+        }
+    };
+
+    public ScheduleView() {
+        setOpaque(true);
+        setBackground(Color.WHITE);
+        ToolTipManager.sharedInstance().registerComponent(this);
+    }
+
+    /** Loads the doctor lanes; call before showing the view. */
+    public void loadDoctors() throws Exception {
+        doctorNames.clear();
+        laneOfDoctor.clear();
+
+        try (Connection conn = Database.getConnection();
+             PreparedStatement ps = conn.prepareStatement(
+                     "SELECT id, name FROM doctors WHERE status = 'ACTIVE' ORDER BY name");
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                laneOfDoctor.put(rs.getInt("id"), doctorNames.size());
+                doctorNames.add(rs.getString("name"));
+            }
+        }
+        // other lanes: nothing loaded or painted so far fits
+        if (loader != null) loader.cancel(false);
+        loader = null;
+        bookings = new HashMap<>();
+        loadedFrom = loadedTo = 0;
+        tiles.clear();
+        repaint();
+    }
+
+    public int lanes() {
+        return Math.max(1, doctorNames.size());
+    }
+
+    /** Changes the zoom; tiles are re-rendered at the new width. */
+    public void setDayWidth(int width) {
+        if (width == dayWidth) return;
+        dayWidth = width;
+        tiles.clear();
+        revalidate();
+        repaint();
+    }
+
+    /** Loads the bookings again; only days whose bookings changed are painted again. */
+    public void refresh() {
+        if (loader != null) loader.cancel(false);
+        loader = null;
+        stale = true;
+        repaint();
+    }
+
+    public LocalDate dayAt(int x) {
+        return firstDay.plusDays(Math.max(0, Math.min(dayCount - 1, x / dayWidth)));
+    }
+
+    public int xOf(LocalDate day) {
+        return (int) (day.toEpochDay() - firstDay.toEpochDay()) * dayWidth;
+    }
+
+    private static int height() {
+        return (END_HOUR - START_HOUR) * HOUR_HEIGHT;
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        return new Dimension(dayCount * dayWidth, height());
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        int first = Math.max(0, clip.x / dayWidth);
+        int last = Math.min(dayCount - 1, (clip.x + clip.width - 1) / dayWidth);
+
+        if (stale || first < loadedFrom || last >= loadedTo) {
+            load(first - LOAD_MARGIN_DAYS, last + 1 + LOAD_MARGIN_DAYS);
+        }
+
+        for (int day = first; day <= last; day++) {
+            List<Booking> list = bookings.get(day);
+            if (day < loadedFrom || day >= loadedTo) {
+                // not loaded yet: grid only, and not cached
+                paintDay(g, day * dayWidth, day, null);
+                continue;
+            }
+            BufferedImage tile = tiles.get(day);
+            Metrics.cacheLookup("schedule_tiles", tile != null);
+            if (tile == null) {
+                tile = newTile();
+                Graphics2D tg = tile.createGraphics();
+                paintDay(tg, 0, day, list);
+                tg.dispose();
+                tiles.put(day, tile);
+            }
+            g.drawImage(tile, day * dayWidth, 0, null);
+        }
+    }
+
+    private BufferedImage newTile() {
+        GraphicsConfiguration gc = getGraphicsConfiguration();
+        return gc != null
+                ? gc.createCompatibleImage(dayWidth, height())
+                : new BufferedImage(dayWidth, height(), BufferedImage.TYPE_INT_RGB);
+    }
+
+    private void paintDay(Graphics g0, int x, int day, List<Booking> list) {
+        Graphics2D g = (Graphics2D) g0;
+        LocalDate date = firstDay.plusDays(day);
+        boolean weekend = date.getDayOfWeek() == DayOfWeek.SATURDAY || date.getDayOfWeek() == DayOfWeek.SUNDAY;
+
+        g.setColor(weekend ? WEEKEND : Color.WHITE);
+        g.fillRect(x, 0, dayWidth, height());
+
+        g.setColor(GRID);
+        for (int h = 1; h < END_HOUR - START_HOUR; h++) {
+            g.drawLine(x, h * HOUR_HEIGHT, x + dayWidth, h * HOUR_HEIGHT);
+        }
+        float laneWidth = (float) dayWidth / lanes();
+        if (laneWidth >= 6) {
+            for (int l = 1; l < lanes(); l++) {
+                int lx = x + Math.round(l * laneWidth);
+                g.drawLine(lx, 0, lx, height());
+            }
+        }
+        g.setColor(Color.GRAY);
+        g.drawLine(x + dayWidth - 1, 0, x + dayWidth - 1, height());
+
+        if (list == null) return;
+
+        int slotHeight = SLOT_MINUTES * HOUR_HEIGHT / 60;
+        FontMetrics fm = g.getFontMetrics();
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+
+        for (Booking b : list) {
+            int bx = x + Math.round(b.lane * laneWidth) + 1;
+            int bw = Math.max(1, Math.round((b.lane + 1) * laneWidth) - Math.round(b.lane * laneWidth) - 1);
+            int by = b.minute * HOUR_HEIGHT / 60;
+
+            g.setColor(b.completed ? COMPLETED : BOOKED);
+            g.fillRect(bx, by + 1, bw, slotHeight - 1);
+
+            // names only where a lane is wide enough to read them
+            if (bw >= 40 && slotHeight >= fm.getHeight()) {
+                g.setColor(Color.BLACK);
+                Shape oldClip = g.getClip();
+                g.clipRect(bx, by, bw - 2, slotHeight);
+                g.drawString(b.label, bx + 2, by + fm.getAscent());
+                g.setClip(oldClip);
+            }
+        }
+    }
+
+    // One range query for the whole window (idx_appointments_datetime), off the event thread.
+    private void load(int from, int to) {
+        if (loader != null) return; // one at a time; the next paint asks again if still needed
+
+        int fromDay = Math.max(0, from);
+        int toDay = Math.min(dayCount, to);
+        String sql = "SELECT a.doctor_id, a.appointment_datetime, a.status, p.first_name, p.last_name " +
+                     "FROM appointments a JOIN patients p ON a.patient_id = p.id " +
+                     "WHERE a.appointment_datetime >= ? AND a.appointment_datetime < ? " +
+                     "  AND a.status <> 'CANCELLED' " +
+                     "ORDER BY a.appointment_datetime, a.id"; // same rows, same order: see keepTiles
+
+        loader = new SwingWorker<Map<Integer, List<Booking>>, Void>() {
+            @Override
+            protected Map<Integer, List<Booking>> doInBackground() throws Exception {
+                Session.require(Permission.VIEW_APPOINTMENTS);
+
+                Map<Integer, List<Booking>> result = new HashMap<>();
+                try (Connection conn = Database.getReadConnection();
+                     PreparedStatement ps = conn.prepareStatement(sql)) {
+                    ps.setString(1, firstDay.plusDays(fromDay).toString());
+                    ps.setString(2, firstDay.plusDays(toDay).toString());
+
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            Integer lane = laneOfDoctor.get(rs.getInt("doctor_id"));
+                            if (lane == null) continue; // inactive doctor
+
+                            LocalDateTime at = LocalDateTime.parse(rs.getString("appointment_datetime"), APPT_FMT);
+                            int minute = (at.getHour() - START_HOUR) * 60 + at.getMinute();
+                            if (minute < 0 || minute >= (END_HOUR - START_HOUR) * 60) continue;
+
+                            int day = (int) (at.toLocalDate().toEpochDay() - firstDay.toEpochDay());
+                            String label = String.format("%02d:%02d %s %s", at.getHour(), at.getMinute(),
+                                    rs.getString("first_name"), rs.getString("last_name"));
+                            result.computeIfAbsent(day, d -> new ArrayList<>())
+                                  .add(new Booking(minute, lane, label, "COMPLETED".equals(rs.getString("status"))));
+                        }
+                    }
+                }
+                return result;
+            }
+
+            @Override
+            protected void done() {
+                if (loader != this) return;
+                loader = null;
+                stale = false;
+                try {
+                    Map<Integer, List<Booking>> fresh = get();
+                    keepTiles(fresh, fromDay, toDay);
+                    bookings = fresh;
+                    loadedFrom = fromDay;
+                    loadedTo = toDay;
+                    repaint();
+                } catch (Exception ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    // don't retry on every repaint; Refresh tries again
+                    loadedFrom = 0;
+                    loadedTo = dayCount;
+                    AppLog.showError(ScheduleView.this, "loading schedule", cause);
+                }
+            }
+        };
+        loader.execute();
+    }
+
+    // Drops the tiles of days that leave the window or whose bookings changed; the rest stay cached
+    private void keepTiles(Map<Integer, List<Booking>> fresh, int fromDay, int toDay) {
+        tiles.keySet().removeIf(day -> day < fromDay || day >= toDay
+                || day < loadedFrom || day >= loadedTo
+                || !Objects.equals(bookings.get(day), fresh.get(day)));
+    }
+
+    @Override
+    public String getToolTipText(MouseEvent e) {
+        int day = e.getX() / dayWidth;
+        List<Booking> list = bookings.get(day);
+        if (list == null) return null;
+
+        int lane = (int) ((e.getX() - day * dayWidth) * (long) lanes() / dayWidth);
+        int minute = e.getY() * 60 / HOUR_HEIGHT;
+        for (Booking b : list) {
+            if (b.lane == lane && minute >= b.minute && minute < b.minute + SLOT_MINUTES) {
+                return b.label + " (" + doctorNames.get(lane) + (b.completed ? ", completed" : "") + ")";
+            }
+        }
+        return null;
+    }
+
+    // ---- Scrollable: one day per unit, one viewport per block ----
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize() {
+        return new Dimension(7 * dayWidth, height());
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visible, int orientation, int direction) {
+        return orientation == SwingConstants.HORIZONTAL ? dayWidth : HOUR_HEIGHT / 4;
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visible, int orientation, int direction) {
+        return orientation == SwingConstants.HORIZONTAL ? visible.width : visible.height;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        return false;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight() {
+        return false;
+    }
+
+    // ---- headers for the scroll pane ----
+
+    /** Dates (and doctor names when lanes are wide enough) above the days. */
+    public JComponent createColumnHeader() {
+        return new JComponent() {
+            @Override
+            public Dimension getPreferredSize() {
+                return new Dimension(ScheduleView.this.getPreferredSize().width, 36);
+            }
+
+            @Override
+            protected void paintComponent(Graphics g) {
+                Rectangle clip = g.getClipBounds();
+                g.setColor(new Color(240, 244, 247));
+                g.fillRect(clip.x, clip.y, clip.width, clip.height);
+
+                FontMetrics fm = g.getFontMetrics();
+                int first = Math.max(0, clip.x / dayWidth);
+                int last = Math.min(dayCount - 1, (clip.x + clip.width - 1) / dayWidth);
+                float laneWidth = (float) dayWidth / lanes();
+
+                for (int day = first; day <= last; day++) {
+                    int x = day * dayWidth;
+                    LocalDate date = firstDay.plusDays(day);
+                    g.setColor(date.equals(LocalDate.now()) ? new Color(0, 90, 160) : Color.BLACK);
+                    g.drawString(date.format(HEADER_FMT), x + 4, fm.getAscent() + 2);
+
+                    if (laneWidth >= 40) {
+                        g.setColor(Color.DARK_GRAY);
+                        for (int l = 0; l < doctorNames.size(); l++) {
+                            int lx = x + Math.round(l * laneWidth);
+                            Shape old = g.getClip();
+                            g.clipRect(lx, 0, Math.round(laneWidth) - 2, 36);
+                            g.drawString(doctorNames.get(l), lx + 2, 2 * fm.getAscent() + 4);
+                            g.setClip(old);
+                        }
+                    }
+                    g.setColor(Color.GRAY);
+                    g.drawLine(x + dayWidth - 1, 0, x + dayWidth - 1, 36);
+                }
+            }
+        };
+    }
+
+    /** Hours down the left side. */
+    public static JComponent createRowHeader() {
+        return new JComponent() {
+            @Override
+            public Dimension getPreferredSize() {
+                return new Dimension(48, height());
+            }
+
+            @Override
+            protected void paintComponent(Graphics g) {
+                g.setColor(new Color(240, 244, 247));
+                g.fillRect(0, 0, getWidth(), getHeight());
+                g.setColor(Color.DARK_GRAY);
+                FontMetrics fm = g.getFontMetrics();
+                for (int h = START_HOUR; h < END_HOUR; h++) {
+                    g.drawString(String.format("%02d:00", h), 6, (h - START_HOUR) * HOUR_HEIGHT + fm.getAscent());
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,522 @@
+package clinic;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+// Brings clinic.db up to the current schema. The applied version lives in PRAGMA user_version.
+// Migrations run in order; each one commits together with its version bump, so a failed
+// migration leaves the database at the previous version and is retried on the next start.
+public class SchemaMigrator {
+
+    interface Step {
+        void apply(Connection conn) throws SQLException;
+    }
+
+    // Turns one selected row into the parameters of the backfill UPDATE (rowid is appended last).
+    // Return null to leave the row alone.
+    interface RowUpdate {
+        Object[] map(ResultSet rs) throws SQLException;
+    }
+
+    private static final class Migration {
+        final int version;
+        final String description;
+        final boolean batched;
+        final Step step;
+
+        Migration(int version, String description, boolean batched, Step step) {
+            this.version = version;
+            this.description = description;
+            this.batched = batched;
+            this.step = step;
+        }
+    }
+
+    private static final int BACKFILL_BATCH = 500;
+
+    private static final String[] PATIENT_SYNC_COLUMNS =
+            { "first_name", "last_name", "gender", "dob", "phone", "email", "address" };
+
+    /** change_log entries holding a sensitive patient value in plaintext. */
+    static final String PLAINTEXT_LOGGED =
+            "table_name = 'patients' AND column_name IN ('dob', 'phone', 'email', 'address') " +
+            "AND value NOT LIKE 'enc1:%'";
+
+    private static final List<Migration> MIGRATIONS = new ArrayList<>();
+
+    private static void transactional(int version, String description, Step step) {
+        MIGRATIONS.add(new Migration(version, description, false, step));
+    }
+
+    // For work on big tables: the step commits in small batches (see backfill) so other desks
+    // can keep writing in between. It must be safe to re-run if the app stops halfway.
+    private static void batched(int version, String description, Step step) {
+        MIGRATIONS.add(new Migration(version, description, true, step));
+    }
+
+    static {
+        transactional(1, "baseline schema", conn -> exec(conn,
+                "CREATE TABLE IF NOT EXISTS users (" +
+                "  id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "  username TEXT NOT NULL UNIQUE," +
+                "  password TEXT NOT NULL)",
+
+                "CREATE TABLE IF NOT EXISTS patients (" +
+                "  id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "  first_name TEXT NOT NULL," +
+                "  last_name TEXT NOT NULL," +
+                "  gender TEXT," +
+                "  dob TEXT," +
+                "  phone TEXT NOT NULL," +
+                "  email TEXT," +
+                "  address TEXT)",
+
+                "CREATE TABLE IF NOT EXISTS doctors (" +
+                "  id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "  name TEXT NOT NULL," +
+                "  specialization TEXT NOT NULL," +
+                "  phone TEXT NOT NULL," +
+                "  email TEXT," +
+                "  status TEXT NOT NULL DEFAULT 'ACTIVE' CHECK (status IN ('ACTIVE', 'INACTIVE')))",
+
+                "CREATE TABLE IF NOT EXISTS appointments (" +
+                "  id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "  patient_id INTEGER NOT NULL REFERENCES patients(id) ON DELETE CASCADE," +
+                "  doctor_id INTEGER NOT NULL REFERENCES doctors(id)," +
+                "  appointment_datetime TEXT NOT NULL CHECK (appointment_datetime GLOB " +
+                "    '[0-9][0-9][0-9][0-9]-[0-9][0-9]-[0-9][0-9] [0-9][0-9]:[0-9][0-9]')," +
+                "  reason TEXT," +
+                "  status TEXT NOT NULL DEFAULT 'BOOKED' CHECK (status IN ('BOOKED', 'COMPLETED', 'CANCELLED')))",
+
+                // a doctor can't have two BOOKED appointments at the same time
+                "CREATE UNIQUE INDEX IF NOT EXISTS uq_doctor_time_booked " +
+                "  ON appointments(doctor_id, appointment_datetime) WHERE status = 'BOOKED'",
+
+                // demo login (admin / admin123) for a brand-new database only
+                "INSERT INTO users (username, password) SELECT 'admin', '" +
+                PasswordUtil.hashPassword("admin123") + "' WHERE NOT EXISTS (SELECT 1 FROM users)"
+        ));
+
+        transactional(2, "row_version for optimistic locking", conn -> {
+            addColumnIfMissing(conn, "patients", "row_version", "INTEGER NOT NULL DEFAULT 0");
+            addColumnIfMissing(conn, "doctors", "row_version", "INTEGER NOT NULL DEFAULT 0");
+        });
+
+        transactional(3, "lookup indexes", conn -> exec(conn,
+                "CREATE INDEX IF NOT EXISTS idx_appointments_datetime ON appointments(appointment_datetime)",
+                "CREATE INDEX IF NOT EXISTS idx_appointments_doctor_datetime " +
+                "  ON appointments(doctor_id, appointment_datetime)",
+                "CREATE INDEX IF NOT EXISTS idx_appointments_patient ON appointments(patient_id)",
+                "CREATE INDEX IF NOT EXISTS idx_patients_name ON patients(last_name, first_name)"
+        ));
+
+        // rows saved before the forms normalized phones may contain spaces, dashes, brackets
+        batched(4, "normalize legacy phone numbers", conn -> {
+            RowUpdate digitsOnly = rs -> new Object[] { rs.getString("phone").replaceAll("\\D", "") };
+            backfill(conn, "patients", "phone", "phone GLOB '*[^0-9]*'",
+                     "UPDATE patients SET phone = ? WHERE rowid = ?", digitsOnly);
+            backfill(conn, "doctors", "phone", "phone GLOB '*[^0-9]*'",
+                     "UPDATE doctors SET phone = ? WHERE rowid = ?", digitsOnly);
+        });
+
+        transactional(5, "waitlist", conn -> exec(conn,
+                "CREATE TABLE IF NOT EXISTS waitlist (" +
+                "  id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "  patient_id INTEGER NOT NULL REFERENCES patients(id) ON DELETE CASCADE," +
+                "  doctor_id INTEGER NOT NULL REFERENCES doctors(id)," +
+                "  priority INTEGER NOT NULL DEFAULT 0," +
+                "  latest_date TEXT," +
+                "  reason TEXT," +
+                "  created_at TEXT NOT NULL DEFAULT (datetime('now'))," +
+                "  status TEXT NOT NULL DEFAULT 'WAITING' CHECK (status IN ('WAITING', 'BOOKED', 'REMOVED')))",
+                "CREATE INDEX IF NOT EXISTS idx_waitlist_waiting ON waitlist(doctor_id) WHERE status = 'WAITING'"
+        ));
+
+        // KPI aggregates. Triggers log which days changed; KpiEngine recomputes only those days.
+        // Deletes are not logged on purpose: archiving removes rows but must not change history.
+        transactional(6, "kpi aggregates", conn -> exec(conn,
+                "CREATE TABLE IF NOT EXISTS kpi_changes (" +
+                "  seq INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "  day TEXT NOT NULL)",
+                "CREATE TABLE IF NOT EXISTS kpi_daily (" +
+                "  day TEXT NOT NULL," +
+                "  doctor_id INTEGER NOT NULL," +
+                "  total INTEGER NOT NULL," +
+                "  booked INTEGER NOT NULL," +
+                "  completed INTEGER NOT NULL," +
+                "  cancelled INTEGER NOT NULL," +
+                "  PRIMARY KEY (day, doctor_id)) WITHOUT ROWID",
+                "CREATE TABLE IF NOT EXISTS kpi_first_visit (" +
+                "  patient_id INTEGER PRIMARY KEY," +
+                "  first_day TEXT NOT NULL)",
+                "CREATE INDEX IF NOT EXISTS idx_kpi_first_visit_day ON kpi_first_visit(first_day)",
+                "CREATE TABLE IF NOT EXISTS kpi_watermark (" +
+                "  id INTEGER PRIMARY KEY CHECK (id = 1)," +
+                "  last_seq INTEGER NOT NULL)",
+                "CREATE TRIGGER IF NOT EXISTS trg_kpi_appt_insert AFTER INSERT ON appointments BEGIN " +
+                "  INSERT INTO kpi_changes (day) VALUES (substr(NEW.appointment_datetime, 1, 10)); " +
+                "END",
+                "CREATE TRIGGER IF NOT EXISTS trg_kpi_appt_update " +
+                "AFTER UPDATE OF status, appointment_datetime, doctor_id, patient_id ON appointments BEGIN " +
+                "  INSERT INTO kpi_changes (day) VALUES (substr(OLD.appointment_datetime, 1, 10)); " +
+                "  INSERT INTO kpi_changes (day) SELECT substr(NEW.appointment_datetime, 1, 10) " +
+                "    WHERE NEW.appointment_datetime IS NOT OLD.appointment_datetime; " +
+                "END"
+        ));
+
+        transactional(7, "duplicate-check columns and indexes", conn -> {
+            addColumnIfMissing(conn, "patients", "name_key", "TEXT");
+            exec(conn,
+                 "CREATE INDEX IF NOT EXISTS idx_patients_phone ON patients(phone)",
+                 "CREATE INDEX IF NOT EXISTS idx_patients_dob ON patients(dob)",
+                 "CREATE INDEX IF NOT EXISTS idx_patients_name_key ON patients(name_key)");
+        });
+
+        batched(8, "phonetic keys for existing patients", conn ->
+                backfill(conn, "patients", "last_name", "name_key IS NULL",
+                         "UPDATE patients SET name_key = ? WHERE rowid = ?",
+                         rs -> new Object[] { PatientDeduplicator.nameKey(rs.getString("last_name")) }));
+
+        transactional(9, "append-only audit log", conn -> exec(conn,
+                "CREATE TABLE IF NOT EXISTS audit_log (" +
+                "  id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "  at TEXT NOT NULL," +
+                "  username TEXT," +
+                "  action TEXT NOT NULL CHECK (action IN ('INSERT','UPDATE','DELETE'))," +
+                "  table_name TEXT NOT NULL," +
+                "  row_id INTEGER," +
+                "  before_values TEXT," +
+                "  after_values TEXT" +
+                ")",
+                "CREATE INDEX IF NOT EXISTS idx_audit_log_row ON audit_log(table_name, row_id)",
+                "CREATE TRIGGER IF NOT EXISTS trg_audit_log_no_update BEFORE UPDATE ON audit_log " +
+                "BEGIN SELECT RAISE(ABORT, 'audit_log is append-only'); END",
+                "CREATE TRIGGER IF NOT EXISTS trg_audit_log_no_delete BEFORE DELETE ON audit_log " +
+                "BEGIN SELECT RAISE(ABORT, 'audit_log is append-only'); END"));
+
+        transactional(10, "user roles", conn -> {
+            addColumnIfMissing(conn, "users", "role",
+                    "TEXT NOT NULL DEFAULT 'RECEPTIONIST' CHECK (role IN ('RECEPTIONIST','DOCTOR','ADMIN'))");
+            // accounts created before roles existed could do everything; keep it that way
+            exec(conn, "UPDATE users SET role = 'ADMIN'");
+        });
+
+        // values are encrypted by FieldCrypto after the first login (the key only exists then);
+        // phone and dob are looked up through their blind indexes from now on
+        transactional(11, "field encryption keys and blind indexes", conn -> {
+            addColumnIfMissing(conn, "users", "key_salt", "TEXT");
+            addColumnIfMissing(conn, "users", "wrapped_key", "TEXT");
+            addColumnIfMissing(conn, "patients", "dob_bidx", "TEXT");
+            addColumnIfMissing(conn, "patients", "phone_bidx", "TEXT");
+            addColumnIfMissing(conn, "patients", "email_bidx", "TEXT");
+            exec(conn,
+                 "DROP INDEX IF EXISTS idx_patients_phone",
+                 "DROP INDEX IF EXISTS idx_patients_dob",
+                 "CREATE INDEX IF NOT EXISTS idx_patients_dob_bidx ON patients(dob_bidx)",
+                 "CREATE INDEX IF NOT EXISTS idx_patients_phone_bidx ON patients(phone_bidx)",
+                 "CREATE INDEX IF NOT EXISTS idx_patients_email_bidx ON patients(email_bidx)");
+        });
+
+        // no foreign key: archiving deletes closed appointments, their reminders stay as history
+        transactional(12, "reminder outbox", conn -> exec(conn,
+                "CREATE TABLE IF NOT EXISTS reminder_outbox (" +
+                "  id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "  appointment_id INTEGER NOT NULL UNIQUE," +
+                "  send_at TEXT NOT NULL," +
+                "  next_attempt_at TEXT NOT NULL," +
+                "  attempts INTEGER NOT NULL DEFAULT 0," +
+                "  status TEXT NOT NULL DEFAULT 'PENDING' CHECK (status IN ('PENDING','SENT','FAILED','CANCELLED'))," +
+                "  last_error TEXT," +
+                "  sent_at TEXT)",
+                "CREATE INDEX IF NOT EXISTS idx_reminder_outbox_due ON reminder_outbox(status, next_attempt_at)"));
+
+        // Manage Appointments filters by status, listed in date order
+        transactional(13, "appointment status index", conn -> exec(conn,
+                "CREATE INDEX IF NOT EXISTS idx_appointments_status_datetime " +
+                "  ON appointments(status, appointment_datetime)"));
+
+        // Branch sync (see BranchSync): every patient and doctor gets a uid that is the same at all
+        // branches, triggers log field changes to change_log, sync_fields keeps each field's version
+        // clock. Existing rows are logged once so the first bundle to a new branch carries them.
+        transactional(14, "branch sync change log", conn -> {
+            addColumnIfMissing(conn, "patients", "uid", "TEXT");
+            addColumnIfMissing(conn, "doctors", "uid", "TEXT");
+            exec(conn,
+                    "UPDATE patients SET uid = lower(hex(randomblob(16))) WHERE uid IS NULL",
+                    "UPDATE doctors SET uid = lower(hex(randomblob(16))) WHERE uid IS NULL",
+                    "CREATE UNIQUE INDEX IF NOT EXISTS uq_patients_uid ON patients(uid)",
+                    "CREATE UNIQUE INDEX IF NOT EXISTS uq_doctors_uid ON doctors(uid)",
+
+                    // applying = 1 while an incoming bundle is written, so the triggers don't log it again
+                    "CREATE TABLE IF NOT EXISTS sync_site (" +
+                    "  id INTEGER PRIMARY KEY CHECK (id = 1)," +
+                    "  site_id TEXT NOT NULL," +
+                    "  applying INTEGER NOT NULL DEFAULT 0)",
+                    "INSERT INTO sync_site (id, site_id) SELECT 1, lower(hex(randomblob(4))) " +
+                    "WHERE NOT EXISTS (SELECT 1 FROM sync_site)",
+
+                    // clock IS NULL: a local change not yet given its version clock
+                    "CREATE TABLE IF NOT EXISTS change_log (" +
+                    "  seq INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    "  table_name TEXT NOT NULL," +
+                    "  uid TEXT NOT NULL," +
+                    "  column_name TEXT NOT NULL," +
+                    "  value TEXT," +
+                    "  at TEXT NOT NULL DEFAULT (strftime('%Y-%m-%d %H:%M:%f', 'now'))," +
+                    "  site_id TEXT," +
+                    "  clock TEXT)",
+                    "CREATE INDEX IF NOT EXISTS idx_change_log_unstamped ON change_log(seq) WHERE clock IS NULL",
+
+                    "CREATE TABLE IF NOT EXISTS sync_fields (" +
+                    "  table_name TEXT NOT NULL," +
+                    "  uid TEXT NOT NULL," +
+                    "  column_name TEXT NOT NULL," +
+                    "  clock TEXT NOT NULL," +
+                    "  at TEXT NOT NULL," +
+                    "  site_id TEXT NOT NULL," +
+                    "  PRIMARY KEY (table_name, uid, column_name)) WITHOUT ROWID",
+
+                    "CREATE TABLE IF NOT EXISTS sync_peers (" +
+                    "  peer TEXT PRIMARY KEY," +
+                    "  last_sent_seq INTEGER NOT NULL DEFAULT 0)");
+
+            syncTriggers(conn, true, "patients", PATIENT_SYNC_COLUMNS);
+            syncTriggers(conn, true, "doctors", "name", "specialization", "phone", "email", "status");
+        });
+
+        // Patient documents (see AttachmentStore): the files live in the attachment folder under their
+        // SHA-256, so a document added twice is stored once
+        transactional(15, "patient attachments", conn -> exec(conn,
+                "CREATE TABLE IF NOT EXISTS attachments (" +
+                "  id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "  patient_id INTEGER NOT NULL REFERENCES patients(id)," +
+                "  sha256 TEXT NOT NULL," +
+                "  file_name TEXT NOT NULL," +
+                "  size INTEGER NOT NULL," +
+                "  added_at TEXT NOT NULL DEFAULT (datetime('now'))," +
+                "  added_by TEXT)",
+                "CREATE INDEX IF NOT EXISTS idx_attachments_patient ON attachments(patient_id)",
+                "CREATE INDEX IF NOT EXISTS idx_attachments_sha256 ON attachments(sha256)"));
+
+        // Billing (see Billing). An invoice keeps its appointment's id without a foreign key: the
+        // appointment moves to the archive database after a year, the invoice stays.
+        // billing_state.since: appointments before billing was switched on were invoiced elsewhere.
+        transactional(16, "billing", conn -> exec(conn,
+                "CREATE TABLE IF NOT EXISTS fees (" +
+                "  specialization TEXT PRIMARY KEY COLLATE NOCASE," +
+                "  service TEXT NOT NULL," +
+                "  fee_cents INTEGER NOT NULL CHECK (fee_cents >= 0))",
+
+                "CREATE TABLE IF NOT EXISTS invoices (" +
+                "  id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "  appointment_id INTEGER NOT NULL UNIQUE," +
+                "  patient_id INTEGER NOT NULL REFERENCES patients(id)," +
+                "  doctor_id INTEGER NOT NULL REFERENCES doctors(id)," +
+                "  service TEXT NOT NULL," +
+                "  amount_cents INTEGER NOT NULL," +
+                "  paid_cents INTEGER NOT NULL DEFAULT 0," +
+                "  issued_on TEXT NOT NULL," +
+                "  status TEXT NOT NULL DEFAULT 'OPEN' CHECK (status IN ('OPEN', 'PAID', 'VOID'))," +
+                "  void_reason TEXT)",
+                // outstanding lists page through these; the patient one covers the balance sums
+                "CREATE INDEX IF NOT EXISTS idx_invoices_open_issued ON invoices(issued_on, id) WHERE status = 'OPEN'",
+                "CREATE INDEX IF NOT EXISTS idx_invoices_open_patient " +
+                "  ON invoices(patient_id, amount_cents, paid_cents, issued_on) WHERE status = 'OPEN'",
+
+                "CREATE TABLE IF NOT EXISTS payments (" +
+                "  id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "  invoice_id INTEGER NOT NULL REFERENCES invoices(id)," +
+                "  amount_cents INTEGER NOT NULL CHECK (amount_cents > 0)," +
+                "  method TEXT," +
+                "  paid_at TEXT NOT NULL DEFAULT (datetime('now', 'localtime'))," +
+                "  received_by TEXT)",
+                "CREATE INDEX IF NOT EXISTS idx_payments_invoice ON payments(invoice_id)",
+
+                "CREATE TABLE IF NOT EXISTS billing_state (" +
+                "  id INTEGER PRIMARY KEY CHECK (id = 1)," +
+                "  since TEXT NOT NULL)",
+                "INSERT OR IGNORE INTO billing_state (id, since) " +
+                "VALUES (1, strftime('%Y-%m-%d %H:%M', 'now', 'localtime'))"));
+
+        // first visits now count completed appointments only; without a watermark the next
+        // KpiEngine.refresh() rebuilds the aggregates
+        transactional(17, "first visits from completed appointments", conn -> exec(conn,
+                "DELETE FROM kpi_watermark"));
+
+        // Sensitive patient fields only reach change_log as ciphertext. Plaintext left there by the
+        // earlier triggers is encrypted by FieldCrypto.encryptExisting (idx_change_log_plain finds it).
+        transactional(18, "encrypted change log", conn -> {
+            exec(conn,
+                 "DROP TRIGGER IF EXISTS trg_patients_sync_insert",
+                 "DROP TRIGGER IF EXISTS trg_patients_sync_update",
+                 // compaction and the triggers look up the entries of one field
+                 "CREATE INDEX IF NOT EXISTS idx_change_log_field ON change_log(table_name, uid, column_name, seq)",
+                 "CREATE INDEX IF NOT EXISTS idx_change_log_plain ON change_log(seq) WHERE " + PLAINTEXT_LOGGED);
+            syncTriggers(conn, false, "patients", PATIENT_SYNC_COLUMNS);
+        });
+    }
+
+    // Change-log triggers for the synced columns of a table, and (logExisting) the initial log of
+    // existing rows. Sensitive patient values are logged only once encrypted: a plaintext value
+    // (a row from before encryption) is logged when the encryption sweep rewrites it, unless the
+    // field was logged already, in which case the sweep encrypts that entry instead.
+    private static void syncTriggers(Connection conn, boolean logExisting, String table, String... columns)
+            throws SQLException {
+        String quiet = "(SELECT applying FROM sync_site) = 0";
+
+        StringBuilder insert = new StringBuilder(
+                "CREATE TRIGGER IF NOT EXISTS trg_" + table + "_sync_insert AFTER INSERT ON " + table + " BEGIN " +
+                "UPDATE " + table + " SET uid = lower(hex(randomblob(16))) WHERE id = NEW.id AND uid IS NULL; ");
+        StringBuilder update = new StringBuilder(
+                "CREATE TRIGGER IF NOT EXISTS trg_" + table + "_sync_update AFTER UPDATE ON " + table +
+                " WHEN " + quiet + " BEGIN ");
+
+        for (String c : columns) {
+            boolean sensitive = "patients".equals(table) && FieldCrypto.isSensitive(c);
+            String encrypted = " AND (" + c + " IS NULL OR " + c + " LIKE 'enc1:%')";
+
+            insert.append("INSERT INTO change_log (table_name, uid, column_name, value) ")
+                  .append("SELECT '").append(table).append("', uid, '").append(c).append("', ").append(c)
+                  .append(" FROM ").append(table).append(" WHERE id = NEW.id AND ").append(quiet)
+                  .append(sensitive ? encrypted : "").append("; ");
+
+            update.append("INSERT INTO change_log (table_name, uid, column_name, value) ")
+                  .append("SELECT '").append(table).append("', NEW.uid, '").append(c).append("', NEW.").append(c)
+                  .append(" WHERE NEW.").append(c).append(" IS NOT OLD.").append(c);
+            if (sensitive) {
+                update.append(" AND (NEW.").append(c).append(" IS NULL OR NEW.").append(c).append(" LIKE 'enc1:%')")
+                      .append(" AND NOT (OLD.").append(c).append(" IS NOT NULL AND OLD.").append(c)
+                      .append(" NOT LIKE 'enc1:%' AND EXISTS (")
+                      .append("SELECT 1 FROM change_log WHERE table_name = 'patients' AND uid = NEW.uid")
+                      .append(" AND column_name = '").append(c).append("'))");
+            }
+            update.append("; ");
+
+            if (logExisting) {
+                exec(conn, "INSERT INTO change_log (table_name, uid, column_name, value) " +
+                           "SELECT '" + table + "', uid, '" + c + "', " + c + " FROM " + table +
+                           (sensitive ? " WHERE 1" + encrypted : ""));
+            }
+        }
+
+        exec(conn, insert.append("END").toString(), update.append("END").toString());
+    }
+
+    private SchemaMigrator() {
+    }
+
+    public static void migrate(Connection conn) throws SQLException {
+        for (Migration m : MIGRATIONS) {
+            if (currentVersion(conn) >= m.version) continue;
+
+            try {
+                if (m.batched) {
+                    m.step.apply(conn);
+                    exec(conn, "BEGIN IMMEDIATE");
+                    if (currentVersion(conn) < m.version) {
+                        setVersion(conn, m.version);
+                    }
+                    exec(conn, "COMMIT");
+                } else {
+                    // IMMEDIATE takes the write lock up front; re-check in case another desk just migrated
+                    exec(conn, "BEGIN IMMEDIATE");
+                    if (currentVersion(conn) < m.version) {
+                        m.step.apply(conn);
+                        setVersion(conn, m.version);
+                    }
+                    exec(conn, "COMMIT");
+                }
+            } catch (SQLException ex) {
+                rollbackQuietly(conn);
+                throw new SQLException("Schema migration " + m.version + " (" + m.description + ") failed: "
+                                       + ex.getMessage(), ex);
+            }
+        }
+    }
+
+    /**
+     * Updates matching rows in batches of BACKFILL_BATCH, one short transaction per batch,
+     * walking the table by rowid so each batch is an index range scan.
+     */
+    static void backfill(Connection conn, String table, String columns, String where,
+                         String updateSql, RowUpdate update) throws SQLException {
+        String selectSql = "SELECT rowid AS rid, " + columns + " FROM " + table +
+                           " WHERE rowid > ? AND (" + where + ") ORDER BY rowid LIMIT " + BACKFILL_BATCH;
+        long lastRowId = 0;
+
+        while (true) {
+            int rows = 0;
+            exec(conn, "BEGIN IMMEDIATE");
+            try (PreparedStatement select = conn.prepareStatement(selectSql);
+                 PreparedStatement upd = conn.prepareStatement(updateSql)) {
+
+                select.setLong(1, lastRowId);
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        rows++;
+                        lastRowId = rs.getLong("rid");
+                        Object[] params = update.map(rs);
+                        if (params == null) continue;
+
+                        for (int i = 0; i < params.length; i++) {
+                            upd.setObject(i + 1, params[i]);
+                        }
+                        upd.setLong(params.length + 1, lastRowId);
+                        upd.addBatch();
+                    }
+                }
+                upd.executeBatch();
+                exec(conn, "COMMIT");
+            } catch (SQLException ex) {
+                rollbackQuietly(conn);
+                throw ex;
+            }
+
+            if (rows < BACKFILL_BATCH) return;
+        }
+    }
+
+    static void addColumnIfMissing(Connection conn, String table, String column, String definition)
+            throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                if (column.equalsIgnoreCase(rs.getString("name"))) return;
+            }
+        }
+        exec(conn, "ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+    }
+
+    static void exec(Connection conn, String... statements) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            for (String sql : statements) {
+                stmt.execute(sql);
+            }
+        }
+    }
+
+    private static int currentVersion(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA user_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    private static void setVersion(Connection conn, int version) throws SQLException {
+        // PRAGMA doesn't take bind parameters; version is always one of our own ints
+        exec(conn, "PRAGMA user_version = " + version);
+    }
+
+    private static void rollbackQuietly(Connection conn) {
+        try {
+            exec(conn, "ROLLBACK");
+        } catch (SQLException ignored) {
+            // no transaction was open
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package clinic;
+
+import javax.swing.JOptionPane;
+import java.awt.Component;
+
+// The user logged in to this instance of the app and their role, set once by LoginFrame.
+// Permissions come from the role loaded at login; checks never go back to the database.
+public class Session {
+
+    private static volatile String username;
+    private static volatile Role role;
+
+    private Session() {
+    }
+
+    public static void start(String user, Role userRole) {
+        username = user;
+        role = userRole;
+    }
+
+    /** Logged-in username, or null before login (command line tools, migrations). */
+    public static String username() {
+        return username;
+    }
+
+    public static Role role() {
+        return role;
+    }
+
+    public static boolean can(Permission p) {
+        Role r = role;
+        return r != null && r.allows(p);
+    }
+
+    /** For data operations: throws if the logged-in user lacks the permission. */
+    public static void require(Permission p) {
+        if (!can(p)) {
+            throw new SecurityException("You are not allowed to " + p.description + ".");
+        }
+    }
+
+    /** For frame actions: tells the user and returns false if they lack the permission. */
+    public static boolean check(Component parent, Permission p) {
+        if (can(p)) return true;
+        JOptionPane.showMessageDialog(parent, "You are not allowed to " + p.description + ".");
+        return false;
+    }
+}
@@ -0,0 +1,137 @@
+package clinic;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Plain SMTP (no TLS, no auth) to a relay on the local network, one connection per batch.
+// Meant for a clinic mail relay or a local test server such as MailHog.
+public class SmtpReminderSender implements ReminderSender {
+
+    private static final int TIMEOUT_MS = 10_000;
+
+    private final String host;
+    private final int port;
+    private final String from;
+
+    public SmtpReminderSender(String host, int port, String from) {
+        this.host = host;
+        this.port = port;
+        this.from = from;
+    }
+
+    @Override
+    public boolean canReach(Reminder r) {
+        return r.email != null && !r.email.isEmpty();
+    }
+
+    @Override
+    public Map<Long, String> send(List<Reminder> batch) throws IOException {
+        Map<Long, String> failed = new HashMap<>();
+
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(host, port), TIMEOUT_MS);
+            socket.setSoTimeout(TIMEOUT_MS);
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+
+            expect(in, 220);
+            command(out, in, "HELO localhost", 250);
+
+            for (int i = 0; i < batch.size(); i++) {
+                Reminder r = batch.get(i);
+                try {
+                    command(out, in, "MAIL FROM:<" + from + ">", 250);
+                    command(out, in, "RCPT TO:<" + r.email + ">", 250);
+                    command(out, in, "DATA", 354);
+                    out.write(message(r));
+                    command(out, in, ".", 250);
+                } catch (SmtpException ex) {
+                    // rejected by the server: reset and carry on with the rest of the batch
+                    failed.put(r.id, ex.getMessage());
+                    try {
+                        command(out, in, "RSET", 250);
+                    } catch (IOException lost) {
+                        return failRest(batch, i + 1, lost, failed);
+                    }
+                } catch (IOException ex) {
+                    return failRest(batch, i, ex, failed);
+                }
+            }
+
+            try {
+                command(out, in, "QUIT", 221);
+            } catch (IOException ignored) {
+                // every message already has its answer; retrying the batch would send them twice
+            }
+        }
+        return failed;
+    }
+
+    // connection lost: what went before was delivered, the rest is retried
+    private static Map<Long, String> failRest(List<Reminder> batch, int from, IOException ex, Map<Long, String> failed) {
+        for (Reminder r : batch.subList(from, batch.size())) {
+            failed.put(r.id, ex.getMessage());
+        }
+        return failed;
+    }
+
+    private String message(Reminder r) {
+        String date = ZonedDateTime.now().format(DateTimeFormatter.RFC_1123_DATE_TIME);
+        StringBuilder sb = new StringBuilder()
+                .append("From: ").append(from).append("\r\n")
+                .append("To: ").append(r.email).append("\r\n")
+                .append("Date: ").append(date).append("\r\n")
+                .append("Subject: Appointment reminder\r\n")
+                .append("Content-Type: text/plain; charset=UTF-8\r\n")
+                .append("\r\n");
+        // dot-stuffing: a line starting with "." would end the message early
+        for (String line : r.text().split("\n")) {
+            if (line.startsWith(".")) sb.append('.');
+            sb.append(line).append("\r\n");
+        }
+        return sb.toString();
+    }
+
+    private static void command(Writer out, BufferedReader in, String line, int expected) throws IOException {
+        out.write(line + "\r\n");
+        out.flush();
+        expect(in, expected);
+    }
+
+    // reads a (possibly multi-line) reply and checks its code
+    private static void expect(BufferedReader in, int expected) throws IOException {
+        String line;
+        do {
+            line = in.readLine();
+            if (line == null) throw new IOException("SMTP server closed the connection");
+        } while (line.length() > 3 && line.charAt(3) == '-');
+
+        int code;
+        try {
+            code = Integer.parseInt(line.substring(0, 3));
+        } catch (RuntimeException ex) {
+            throw new IOException("Bad SMTP reply: " + line);
+        }
+        if (code != expected) {
+            throw new SmtpException(line);
+        }
+    }
+
+    private static class SmtpException extends IOException {
+        SmtpException(String reply) {
+            super(reply);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package clinic;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Records startup milestones relative to JVM process start.
+// Enable with -Dclinic.startupReport=stderr or -Dclinic.startupReport=<file> (one CSV line appended per run).
+public class StartupTimer {
+
+    public static final String LOGIN_WINDOW = "login_window";
+    public static final String DASHBOARD = "dashboard";
+
+    private static final String TARGET = System.getProperty("clinic.startupReport");
+
+    private static final long PROCESS_START_MS = ProcessHandle.current().info().startInstant()
+            .map(Instant::toEpochMilli)
+            .orElse(System.currentTimeMillis());
+
+    private static final Map<String, Long> marks = new LinkedHashMap<>();
+
+    private StartupTimer() {
+    }
+
+    public static synchronized void mark(String milestone) {
+        if (TARGET == null || marks.containsKey(milestone)) return;
+
+        marks.put(milestone, System.currentTimeMillis() - PROCESS_START_MS);
+
+        // the dashboard is the last milestone we care about
+        if (DASHBOARD.equals(milestone)) {
+            report();
+        }
+    }
+
+    private static void report() {
+        if ("stderr".equalsIgnoreCase(TARGET)) {
+            StringBuilder sb = new StringBuilder("Startup timing (ms since JVM start):");
+            marks.forEach((k, v) -> sb.append(' ').append(k).append('=').append(v));
+            System.err.println(sb);
+            return;
+        }
+
+        StringBuilder line = new StringBuilder(Instant.now().toString());
+        marks.forEach((k, v) -> line.append(',').append(k).append('=').append(v));
+
+        try (PrintWriter out = new PrintWriter(new FileWriter(TARGET, true))) {
+            out.println(line);
+        } catch (IOException ignored) {
+            // timing is diagnostic only, never block startup on it
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package clinic;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Hashed timing wheel: a ring of buckets, one per tick. An item due in d ticks goes into bucket
+// (current + d) % size with d / size full rounds still to wait, so scheduling is O(1) and each
+// tick only looks at one bucket, however many items are waiting. Not thread-safe.
+public class TimingWheel<T> {
+
+    private static final class Timer<T> {
+        final T item;
+        long rounds;
+
+        Timer(T item, long rounds) {
+            this.item = item;
+            this.rounds = rounds;
+        }
+    }
+
+    private final long tickMillis;
+    private final List<List<Timer<T>>> buckets;
+    private long tick;        // ticks processed so far
+    private final long start; // time of tick 0
+    private int size;
+
+    public TimingWheel(long tickMillis, int bucketCount, long startMillis) {
+        this.tickMillis = tickMillis;
+        this.buckets = new ArrayList<>(bucketCount);
+        for (int i = 0; i < bucketCount; i++) {
+            buckets.add(new ArrayList<>());
+        }
+        this.start = startMillis;
+    }
+
+    /** Schedules item for dueMillis; anything already due fires on the next tick. */
+    public void schedule(T item, long dueMillis) {
+        long dueTick = Math.max(tick, (dueMillis - start + tickMillis - 1) / tickMillis);
+        long ticksAway = dueTick - tick;
+        int bucket = (int) (dueTick % buckets.size());
+        buckets.get(bucket).add(new Timer<>(item, ticksAway / buckets.size()));
+        size++;
+    }
+
+    /** Processes every tick up to nowMillis, handing items that are due to the consumer. */
+    public void advance(long nowMillis, Consumer<T> expired) {
+        long target = (nowMillis - start) / tickMillis;
+        while (tick <= target) {
+            Iterator<Timer<T>> it = buckets.get((int) (tick % buckets.size())).iterator();
+            while (it.hasNext()) {
+                Timer<T> t = it.next();
+                if (t.rounds > 0) {
+                    t.rounds--;
+                } else {
+                    it.remove();
+                    size--;
+                    expired.accept(t.item);
+                }
+            }
+            tick++;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+}
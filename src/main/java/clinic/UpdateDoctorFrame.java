@@ -6,32 +6,31 @@ import java.awt.event.ItemEvent;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-
-// Wrapper for doctor combo box
-class DoctorComboItem {
-    int id;
-    String name;
-
-    DoctorComboItem(int id, String name) {
-        this.id = id;
-        this.name = name;
-    }
-
-    @Override
-    public String toString() {
-        return name; // what shows in dropdown
-    }
-}
+import java.sql.SQLException;
 
 public class UpdateDoctorFrame extends JFrame {
 
-    private JComboBox<DoctorComboItem> doctorBox;
+    private JComboBox<Integer> doctorBox;
+    private PersonComboModel doctorModel;
     private JTextField nameField;
     private JTextField specializationField;
     private JTextField phoneField;
     private JTextField emailField;
     private JComboBox<String> statusBox;
 
+    private static final String[] FIELD_LABELS = { "Name", "Specialization", "Phone", "Email", "Status" };
+    private static final String[] COLUMNS = { "name", "specialization", "phone", "email", "status" };
+
+    // snapshot of what the form was loaded from (used to detect and merge concurrent edits)
+    private long loadedVersion;
+    private String[] loadedValues;
+
+    // one doctor row as stored, in FIELD_LABELS order
+    private static class DoctorRow {
+        long version;
+        String[] values;
+    }
+
     public UpdateDoctorFrame() {
         setTitle("Update Doctor Details");
         setSize(450, 350);
@@ -48,14 +47,15 @@ public class UpdateDoctorFrame extends JFrame {
         // Top: doctor selector
         JPanel topPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
         doctorBox = new JComboBox<>();
+        doctorModel = PersonComboModel.install(doctorBox);
         topPanel.add(new JLabel("Select doctor:"));
         topPanel.add(doctorBox);
 
         doctorBox.addItemListener(e -> {
             if (e.getStateChange() == ItemEvent.SELECTED) {
-                DoctorComboItem item = (DoctorComboItem) doctorBox.getSelectedItem();
-                if (item != null) {
-                    loadDoctorDetails(item.id);
+                int id = doctorModel.getSelectedId();
+                if (id >= 0) {
+                    loadDoctorDetails(id);
                 }
             }
         });
@@ -127,58 +127,85 @@ public class UpdateDoctorFrame extends JFrame {
     }
 
     private void loadDoctors() {
-        doctorBox.removeAllItems();
-
         String sql = "SELECT id, name FROM doctors ORDER BY name";
+        PersonDirectory directory = new PersonDirectory();
 
         try (Connection conn = Database.getConnection();
              PreparedStatement ps = conn.prepareStatement(sql);
              ResultSet rs = ps.executeQuery()) {
 
             while (rs.next()) {
-                int id = rs.getInt("id");
-                String name = rs.getString("name");
-                doctorBox.addItem(new DoctorComboItem(id, name));
+                // doctors have a single name field
+                directory.add(rs.getInt("id"), rs.getString("name"), "");
             }
 
         } catch (Exception ex) {
-            JOptionPane.showMessageDialog(this, "Error loading doctors: " + ex.getMessage());
+            AppLog.showError(this, "loading doctors", ex, sql);
         }
 
-        if (doctorBox.getItemCount() > 0) {
-            doctorBox.setSelectedIndex(0);
-            DoctorComboItem item = (DoctorComboItem) doctorBox.getSelectedItem();
-            if (item != null) loadDoctorDetails(item.id);
-        }
+        directory.finish();
+        doctorModel.setDirectory(directory);
+
+        int id = doctorModel.getSelectedId();
+        if (id >= 0) loadDoctorDetails(id);
     }
 
     private void loadDoctorDetails(int doctorId) {
-        String sql = "SELECT name, specialization, phone, email, status FROM doctors WHERE id = ?";
+        try (Connection conn = Database.getConnection()) {
+            DoctorRow row = readDoctor(conn, doctorId);
+            if (row != null) {
+                showValues(row.values);
+                loadedVersion = row.version;
+                loadedValues = row.values;
+            }
 
-        try (Connection conn = Database.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
+        } catch (Exception ex) {
+            AppLog.showError(this, "loading doctor details", ex);
+        }
+    }
+
+    private DoctorRow readDoctor(Connection conn, int doctorId) throws SQLException {
+        String sql = "SELECT name, specialization, phone, email, status, row_version FROM doctors WHERE id = ?";
 
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setInt(1, doctorId);
 
             try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    nameField.setText(rs.getString("name"));
-                    specializationField.setText(rs.getString("specialization"));
-                    phoneField.setText(rs.getString("phone"));
-                    emailField.setText(rs.getString("email"));
-                    String status = rs.getString("status");
-                    statusBox.setSelectedItem(status != null ? status : "ACTIVE");
-                }
+                if (!rs.next()) return null;
+
+                String status = rs.getString("status");
+
+                DoctorRow row = new DoctorRow();
+                row.version = rs.getLong("row_version");
+                row.values = new String[] {
+                        nz(rs.getString("name")),
+                        nz(rs.getString("specialization")),
+                        nz(rs.getString("phone")),
+                        nz(rs.getString("email")),
+                        status != null ? status : "ACTIVE"
+                };
+                return row;
             }
-
-        } catch (Exception ex) {
-            JOptionPane.showMessageDialog(this, "Error loading doctor details: " + ex.getMessage());
         }
     }
 
+    private void showValues(String[] v) {
+        nameField.setText(v[0]);
+        specializationField.setText(v[1]);
+        phoneField.setText(v[2]);
+        emailField.setText(v[3]);
+        statusBox.setSelectedItem(v[4]);
+    }
+
+    private static String nz(String s) {
+        return s == null ? "" : s;
+    }
+
     private void onSave() {
-        DoctorComboItem item = (DoctorComboItem) doctorBox.getSelectedItem();
-        if (item == null) {
+        if (!Session.check(this, Permission.EDIT_DOCTOR)) return;
+
+        int doctorId = doctorModel.getSelectedId();
+        if (doctorId < 0) {
             JOptionPane.showMessageDialog(this, "No doctor selected.");
             return;
         }
@@ -215,32 +242,61 @@ public class UpdateDoctorFrame extends JFrame {
             }
         }
 
-        String sql = "UPDATE doctors SET name = ?, specialization = ?, phone = ?, email = ?, status = ? WHERE id = ?";
+        String[] mine = { name, specialization, phoneDigits, email, status };
+        saveChanges(doctorId, mine);
+    }
 
-        try (Connection conn = Database.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
+    // UPDATE only succeeds if nobody saved the row since we loaded it; otherwise merge and retry
+    private void saveChanges(int doctorId, String[] values) {
+        String sql = "UPDATE doctors SET name = ?, specialization = ?, phone = ?, email = ?, status = ?, " +
+                     "row_version = row_version + 1 WHERE id = ? AND row_version = ?";
 
-            ps.setString(1, name);
-            ps.setString(2, specialization);
-            ps.setString(3, phoneDigits);
-            ps.setString(4, email.isEmpty() ? null : email);
-            ps.setString(5, status);
-            ps.setInt(6, item.id);
+        while (true) {
+            DoctorRow current;
 
-            int updated = ps.executeUpdate();
-            if (updated == 0) {
-                JOptionPane.showMessageDialog(this, "Doctor not found (it may have been deleted).");
+            try (Connection conn = Database.getConnection();
+                 PreparedStatement ps = conn.prepareStatement(sql)) {
+
+                ps.setString(1, values[0]);
+                ps.setString(2, values[1]);
+                ps.setString(3, values[2]);
+                ps.setString(4, values[3].isEmpty() ? null : values[3]);
+                ps.setString(5, values[4]);
+                ps.setInt(6, doctorId);
+                ps.setLong(7, loadedVersion);
+
+                if (ps.executeUpdate() == 1) {
+                    AuditLog.updated("doctors", doctorId, COLUMNS, loadedValues, values);
+                    loadedVersion++;
+                    loadedValues = values;
+                    showValues(values);
+
+                    // keep combo display in sync if name changed
+                    doctorModel.rename(doctorId, values[0], "");
+
+                    JOptionPane.showMessageDialog(this, "Doctor details updated.");
+                    return;
+                }
+
+                current = readDoctor(conn, doctorId);
+
+            } catch (Exception ex) {
+                AppLog.showError(this, "updating doctor", ex, sql);
                 return;
             }
 
-            // keep combo display in sync if name changed
-            item.name = name;
-            doctorBox.repaint();
-
-            JOptionPane.showMessageDialog(this, "Doctor details updated.");
+            if (current == null) {
+                JOptionPane.showMessageDialog(this, "Doctor not found (it may have been deleted).");
+                return;
+            }
 
-        } catch (Exception ex) {
-            JOptionPane.showMessageDialog(this, "Error updating doctor: " + ex.getMessage());
+            String[] merged = ConflictDialog.resolve(this, FIELD_LABELS, loadedValues, values, current.values);
+            if (merged == null) {
+                return; // keep the old snapshot so the next save is checked again
+            }
+            loadedVersion = current.version;
+            loadedValues = current.values;
+            values = merged;
         }
     }
 }
@@ -6,28 +6,16 @@ import java.awt.event.ItemEvent;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.time.LocalDate;
 import java.time.format.DateTimeParseException;
-
-// Reuse a small wrapper for patients in combo box
-class PatientComboItem {
-    int id;
-    String name;
-
-    PatientComboItem(int id, String name) {
-        this.id = id;
-        this.name = name;
-    }
-
-    @Override
-    public String toString() {
-        return name; // what shows in dropdown
-    }
-}
+import java.util.ArrayList;
+import java.util.List;
 
 public class UpdatePatientFrame extends JFrame {
 
-    private JComboBox<PatientComboItem> patientBox;
+    private JComboBox<Integer> patientBox;
+    private PersonComboModel patientModel;
     private JTextField firstNameField;
     private JTextField lastNameField;
     private JTextField dobField;
@@ -36,6 +24,21 @@ public class UpdatePatientFrame extends JFrame {
     private JTextField emailField;
     private JTextArea addressArea;
 
+    private static final String[] FIELD_LABELS =
+            { "First name", "Last name", "DOB", "Gender", "Phone", "Email", "Address" };
+    private static final String[] COLUMNS =
+            { "first_name", "last_name", "dob", "gender", "phone", "email", "address" };
+
+    // snapshot of what the form was loaded from (used to detect and merge concurrent edits)
+    private long loadedVersion;
+    private String[] loadedValues;
+
+    // one patient row as stored, in FIELD_LABELS order
+    private static class PatientRow {
+        long version;
+        String[] values;
+    }
+
     public UpdatePatientFrame() {
         setTitle("Update Patient Details");
         setSize(450, 450);
@@ -52,13 +55,14 @@ public class UpdatePatientFrame extends JFrame {
         // Top: patient selector
         JPanel topPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
         patientBox = new JComboBox<>();
+        patientModel = PersonComboModel.install(patientBox);
         topPanel.add(new JLabel("Select patient:"));
         topPanel.add(patientBox);
 
         patientBox.addItemListener(e -> {
             if (e.getStateChange() == ItemEvent.SELECTED) {
-                PatientComboItem item = (PatientComboItem) patientBox.getSelectedItem();
-                if (item != null) loadPatientDetails(item.id);
+                int id = patientModel.getSelectedId();
+                if (id >= 0) loadPatientDetails(id);
             }
         });
 
@@ -131,11 +135,14 @@ public class UpdatePatientFrame extends JFrame {
         // Bottom: buttons
         JPanel buttonPanel = new JPanel();
         JButton saveButton = new JButton("Save Changes");
+        JButton documentsButton = new JButton("Documents...");
         JButton closeButton = new JButton("Close");
         buttonPanel.add(saveButton);
+        buttonPanel.add(documentsButton);
         buttonPanel.add(closeButton);
 
         saveButton.addActionListener(e -> onSave());
+        documentsButton.addActionListener(e -> onDocuments());
         closeButton.addActionListener(e -> dispose());
 
         mainPanel.add(topPanel, BorderLayout.NORTH);
@@ -146,63 +153,100 @@ public class UpdatePatientFrame extends JFrame {
     }
 
     private void loadPatients() {
-        patientBox.removeAllItems();
-
         String sql = "SELECT id, first_name, last_name FROM patients ORDER BY last_name, first_name";
+        PersonDirectory directory = new PersonDirectory();
 
         try (Connection conn = Database.getConnection();
              PreparedStatement ps = conn.prepareStatement(sql);
              ResultSet rs = ps.executeQuery()) {
 
             while (rs.next()) {
-                int id = rs.getInt("id");
-                String name = rs.getString("first_name") + " " + rs.getString("last_name");
-                patientBox.addItem(new PatientComboItem(id, name));
+                directory.add(rs.getInt("id"), rs.getString("first_name"), rs.getString("last_name"));
             }
 
         } catch (Exception ex) {
-            JOptionPane.showMessageDialog(this, "Error loading patients: " + ex.getMessage());
+            AppLog.showError(this, "loading patients", ex, sql);
         }
 
-        if (patientBox.getItemCount() > 0) {
-            patientBox.setSelectedIndex(0);
-            PatientComboItem item = (PatientComboItem) patientBox.getSelectedItem();
-            if (item != null) loadPatientDetails(item.id);
-        }
+        directory.finish();
+        patientModel.setDirectory(directory);
+
+        int id = patientModel.getSelectedId();
+        if (id >= 0) loadPatientDetails(id);
     }
 
     private void loadPatientDetails(int patientId) {
-        String sql = "SELECT first_name, last_name, dob, gender, phone, email, address FROM patients WHERE id = ?";
+        try (Connection conn = Database.getConnection()) {
+            PatientRow row = readPatient(conn, patientId);
+            if (row != null) {
+                showValues(row.values);
+                loadedVersion = row.version;
+                loadedValues = row.values;
+            }
 
-        try (Connection conn = Database.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
+        } catch (Exception ex) {
+            AppLog.showError(this, "loading patient details", ex);
+        }
+    }
+
+    private PatientRow readPatient(Connection conn, int patientId) throws SQLException {
+        String sql = "SELECT first_name, last_name, dob, gender, phone, email, address, row_version " +
+                     "FROM patients WHERE id = ?";
 
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setInt(1, patientId);
 
             try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    firstNameField.setText(rs.getString("first_name"));
-                    lastNameField.setText(rs.getString("last_name"));
-                    dobField.setText(rs.getString("dob"));
-
-                    String g = rs.getString("gender");
-                    if (g == null || g.isBlank()) g = "N/A";
-                    genderBox.setSelectedItem(g);
-
-                    phoneField.setText(rs.getString("phone"));
-                    emailField.setText(rs.getString("email"));
-                    addressArea.setText(rs.getString("address"));
-                }
+                if (!rs.next()) return null;
+
+                String g = rs.getString("gender");
+                if (g == null || g.isBlank()) g = "N/A";
+
+                PatientRow row = new PatientRow();
+                row.version = rs.getLong("row_version");
+                row.values = new String[] {
+                        nz(rs.getString("first_name")),
+                        nz(rs.getString("last_name")),
+                        nz(FieldCrypto.decrypt("dob", rs.getString("dob"))),
+                        g,
+                        nz(FieldCrypto.decrypt("phone", rs.getString("phone"))),
+                        nz(FieldCrypto.decrypt("email", rs.getString("email"))),
+                        nz(FieldCrypto.decrypt("address", rs.getString("address")))
+                };
+                return row;
             }
+        }
+    }
 
-        } catch (Exception ex) {
-            JOptionPane.showMessageDialog(this, "Error loading patient details: " + ex.getMessage());
+    private void showValues(String[] v) {
+        firstNameField.setText(v[0]);
+        lastNameField.setText(v[1]);
+        dobField.setText(v[2]);
+        genderBox.setSelectedItem(v[3]);
+        phoneField.setText(v[4]);
+        emailField.setText(v[5]);
+        addressArea.setText(v[6]);
+    }
+
+    private static String nz(String s) {
+        return s == null ? "" : s;
+    }
+
+    private void onDocuments() {
+        int patientId = patientModel.getSelectedId();
+        if (patientId < 0) {
+            JOptionPane.showMessageDialog(this, "No patient selected.");
+            return;
         }
+        String name = (firstNameField.getText().trim() + " " + lastNameField.getText().trim()).trim();
+        new AttachmentsFrame(patientId, name).setVisible(true);
     }
 
     private void onSave() {
-        PatientComboItem item = (PatientComboItem) patientBox.getSelectedItem();
-        if (item == null) {
+        if (!Session.check(this, Permission.EDIT_PATIENT)) return;
+
+        int patientId = patientModel.getSelectedId();
+        if (patientId < 0) {
             JOptionPane.showMessageDialog(this, "No patient selected.");
             return;
         }
@@ -256,35 +300,84 @@ public class UpdatePatientFrame extends JFrame {
             }
         }
 
-        String sql = "UPDATE patients SET first_name = ?, last_name = ?, dob = ?, gender = ?, " +
-                     "phone = ?, email = ?, address = ? WHERE id = ?";
+        String[] mine = { firstName, lastName, dob.toString(), gender, phoneDigits, email, address };
+        saveChanges(patientId, mine);
+    }
 
-        try (Connection conn = Database.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-
-            ps.setString(1, firstName);
-            ps.setString(2, lastName);
-            ps.setString(3, dob.toString());
-            ps.setString(4, gender);
-            ps.setString(5, phoneDigits);
-            ps.setString(6, email.isEmpty() ? null : email);
-            ps.setString(7, address.isEmpty() ? null : address);
-            ps.setInt(8, item.id);
-
-            int updated = ps.executeUpdate();
-            if (updated == 0) {
+    // UPDATE only succeeds if nobody saved the row since we loaded it; otherwise merge and retry
+    private void saveChanges(int patientId, String[] values) {
+        while (true) {
+            PatientRow current;
+
+            List<String> params = new ArrayList<>();
+            String sql = updateSql(values, params);
+
+            try (Connection conn = Database.getConnection();
+                 PreparedStatement ps = conn.prepareStatement(sql)) {
+
+                for (int i = 0; i < params.size(); i++) {
+                    ps.setString(i + 1, params.get(i));
+                }
+                ps.setInt(params.size() + 1, patientId);
+                ps.setLong(params.size() + 2, loadedVersion);
+
+                if (ps.executeUpdate() == 1) {
+                    AuditLog.updated("patients", patientId, COLUMNS, loadedValues, values);
+                    loadedVersion++;
+                    loadedValues = values;
+                    showValues(values);
+
+                    // keep combo display in sync if name changed
+                    patientModel.rename(patientId, values[0], values[1]);
+
+                    JOptionPane.showMessageDialog(this, "Patient details updated.");
+                    return;
+                }
+
+                current = readPatient(conn, patientId);
+
+            } catch (Exception ex) {
+                AppLog.showError(this, "updating patient", ex, sql);
+                return;
+            }
+
+            if (current == null) {
                 JOptionPane.showMessageDialog(this, "Patient not found (it may have been deleted).");
                 return;
             }
 
-            // keep combo display in sync if name changed
-            item.name = firstName + " " + lastName;
-            patientBox.repaint();
+            String[] merged = ConflictDialog.resolve(this, FIELD_LABELS, loadedValues, values, current.values);
+            if (merged == null) {
+                return; // keep the old snapshot so the next save is checked again
+            }
+            loadedVersion = current.version;
+            loadedValues = current.values;
+            values = merged;
+        }
+    }
 
-            JOptionPane.showMessageDialog(this, "Patient details updated.");
+    // Sensitive fields are only rewritten when their plaintext changed: encrypting again gives new
+    // ciphertext (fresh IV), which the sync triggers would log as an edit and ship to other branches.
+    private String updateSql(String[] values, List<String> params) {
+        StringBuilder set = new StringBuilder("UPDATE patients SET ");
+        for (int i = 0; i < COLUMNS.length; i++) {
+            String column = COLUMNS[i];
+            if (!FieldCrypto.isSensitive(column)) {
+                set.append(column).append(" = ?, ");
+                params.add(values[i]);
+                continue;
+            }
+            if (values[i].equals(loadedValues[i])) continue;
 
-        } catch (Exception ex) {
-            JOptionPane.showMessageDialog(this, "Error updating patient: " + ex.getMessage());
+            set.append(column).append(" = ?, ");
+            params.add(FieldCrypto.encrypt(column, values[i].isEmpty() ? null : values[i]));
+            if (!"address".equals(column)) {
+                set.append(column).append("_bidx = ?, ");
+                params.add(FieldCrypto.blindIndex(column, values[i]));
+            }
         }
+        set.append("name_key = ?, row_version = row_version + 1 WHERE id = ? AND row_version = ?");
+        params.add(PatientDeduplicator.nameKey(values[1]));
+        return set.toString();
     }
 }
@@ -0,0 +1,224 @@
+package clinic;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+// Per-doctor waitlist. The waitlist table is the source of truth; this class keeps the WAITING
+// entries in one ordered set per doctor (highest priority first, then longest waiting), so a
+// freed slot is matched without touching the appointments table.
+// Entries past their latest date are marked REMOVED when the sets are reloaded.
+public class Waitlist {
+
+    public static final int NORMAL = 0;
+    public static final int URGENT = 1;
+
+    public static class Entry {
+        public final int id;
+        public final int patientId;
+        public final int doctorId;
+        public final String patientName;
+        public final int priority;
+        public final String latestDate; // YYYY-MM-DD or null = any date
+        public final String reason;
+
+        Entry(int id, int patientId, int doctorId, String patientName, int priority, String latestDate, String reason) {
+            this.id = id;
+            this.patientId = patientId;
+            this.doctorId = doctorId;
+            this.patientName = patientName;
+            this.priority = priority;
+            this.latestDate = latestDate;
+            this.reason = reason;
+        }
+
+        boolean accepts(String slot) {
+            return latestDate == null || slot.substring(0, 10).compareTo(latestDate) <= 0;
+        }
+    }
+
+    // ids grow with time, so a lower id has been waiting longer
+    private static final Comparator<Entry> BEST_FIRST =
+            Comparator.<Entry>comparingInt(e -> -e.priority).thenComparingInt(e -> e.id);
+
+    // entries added on other desks show up after at most this long
+    private static final long RELOAD_AFTER_MS = 60_000;
+
+    private static final String[] AUDIT_COLUMNS = { "patient_id", "doctor_id", "priority", "latest_date", "reason" };
+    private static final String[] STATUS_COLUMN = { "status" };
+
+    private static final Map<Integer, NavigableSet<Entry>> queues = new HashMap<>();
+    private static long loadedAt = 0;
+
+    private Waitlist() {
+    }
+
+    public static synchronized void add(int patientId, int doctorId, int priority, String latestDate, String reason)
+            throws SQLException {
+        Session.require(Permission.BOOK_APPOINTMENT);
+
+        String sql = "INSERT INTO waitlist (patient_id, doctor_id, priority, latest_date, reason) VALUES (?, ?, ?, ?, ?)";
+
+        try (Connection conn = Database.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+
+            ps.setInt(1, patientId);
+            ps.setInt(2, doctorId);
+            ps.setInt(3, priority);
+            ps.setString(4, latestDate);
+            ps.setString(5, reason);
+            ps.executeUpdate();
+
+            try (ResultSet keys = ps.getGeneratedKeys()) {
+                if (keys.next()) {
+                    AuditLog.inserted("waitlist", keys.getLong(1), AUDIT_COLUMNS,
+                                      new Object[] { patientId, doctorId, priority, latestDate, reason });
+                }
+            }
+        }
+
+        // next match reloads and picks up the new entry with its name
+        loadedAt = 0;
+    }
+
+    /**
+     * Best waiting patient for a freed slot, or null. Entries that can't take this slot
+     * (latest date before it) are passed over and stay where they are.
+     */
+    public static synchronized Entry bestFor(int doctorId, String slot) throws SQLException {
+        reloadIfStale();
+
+        NavigableSet<Entry> queue = queues.get(doctorId);
+        if (queue == null) return null;
+
+        String today = LocalDate.now().toString();
+        for (Entry e : queue) {
+            // expired since the last reload; the next reload marks it REMOVED
+            if (e.latestDate != null && e.latestDate.compareTo(today) < 0) continue;
+            if (e.accepts(slot)) return e;
+        }
+        return null;
+    }
+
+    /**
+     * Books the entry into the slot and marks it BOOKED, in one transaction.
+     * Returns false if another desk already booked or removed the entry.
+     */
+    public static synchronized boolean book(Entry entry, String slot) throws SQLException {
+        Session.require(Permission.BOOK_APPOINTMENT);
+
+        long appointmentId;
+
+        try (Connection conn = Database.getConnection();
+             Statement tx = conn.createStatement()) {
+
+            tx.execute("BEGIN IMMEDIATE");
+            try {
+                try (PreparedStatement ps = conn.prepareStatement(
+                        "UPDATE waitlist SET status = 'BOOKED' WHERE id = ? AND status = 'WAITING'")) {
+                    ps.setInt(1, entry.id);
+                    if (ps.executeUpdate() == 0) {
+                        tx.execute("ROLLBACK");
+                        remove(entry);
+                        return false;
+                    }
+                }
+
+                try (PreparedStatement ps = conn.prepareStatement(
+                        "INSERT INTO appointments (patient_id, doctor_id, appointment_datetime, reason, status) " +
+                        "VALUES (?, ?, ?, ?, 'BOOKED')", Statement.RETURN_GENERATED_KEYS)) {
+                    ps.setInt(1, entry.patientId);
+                    ps.setInt(2, entry.doctorId);
+                    ps.setString(3, slot);
+                    ps.setString(4, entry.reason);
+                    ps.executeUpdate();
+
+                    try (ResultSet keys = ps.getGeneratedKeys()) {
+                        appointmentId = keys.next() ? keys.getLong(1) : -1;
+                    }
+                }
+
+                tx.execute("COMMIT");
+            } catch (SQLException ex) {
+                tx.execute("ROLLBACK");
+                throw ex;
+            }
+        }
+
+        Metrics.booked("waitlist", 1);
+        AuditLog.updated("waitlist", entry.id, STATUS_COLUMN, new Object[] { "WAITING" }, new Object[] { "BOOKED" });
+        AuditLog.inserted("appointments", appointmentId, AppointmentSeries.AUDIT_COLUMNS,
+                          new Object[] { entry.patientId, entry.doctorId, slot, entry.reason, "BOOKED" });
+
+        remove(entry);
+        return true;
+    }
+
+    private static void remove(Entry entry) {
+        NavigableSet<Entry> queue = queues.get(entry.doctorId);
+        if (queue != null) queue.remove(entry);
+    }
+
+    private static void reloadIfStale() throws SQLException {
+        if (System.currentTimeMillis() - loadedAt < RELOAD_AFTER_MS) return;
+
+        String today = LocalDate.now().toString();
+        String sql = "SELECT w.id, w.patient_id, w.doctor_id, w.priority, w.latest_date, w.reason, " +
+                     "       p.first_name, p.last_name " +
+                     "FROM waitlist w JOIN patients p ON w.patient_id = p.id " +
+                     "WHERE w.status = 'WAITING' AND (w.latest_date IS NULL OR w.latest_date >= ?)";
+
+        Map<Integer, NavigableSet<Entry>> fresh = new HashMap<>();
+
+        try (Connection conn = Database.getConnection()) {
+            removeExpired(conn, today);
+
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setString(1, today);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        Entry e = new Entry(
+                                rs.getInt("id"),
+                                rs.getInt("patient_id"),
+                                rs.getInt("doctor_id"),
+                                rs.getString("first_name") + " " + rs.getString("last_name"),
+                                rs.getInt("priority"),
+                                rs.getString("latest_date"),
+                                rs.getString("reason")
+                        );
+                        fresh.computeIfAbsent(e.doctorId, k -> new TreeSet<>(BEST_FIRST)).add(e);
+                    }
+                }
+            }
+        }
+
+        queues.clear();
+        queues.putAll(fresh);
+        loadedAt = System.currentTimeMillis();
+    }
+
+    // the patient can no longer be offered anything, so the entry is closed instead of reloaded forever
+    private static void removeExpired(Connection conn, String today) throws SQLException {
+        List<Long> expired = new ArrayList<>();
+        try (PreparedStatement ps = conn.prepareStatement(
+                "UPDATE waitlist SET status = 'REMOVED' WHERE status = 'WAITING' AND latest_date < ? RETURNING id")) {
+            ps.setString(1, today);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) expired.add(rs.getLong(1));
+            }
+        }
+        for (long id : expired) {
+            AuditLog.updated("waitlist", id, STATUS_COLUMN, new Object[] { "WAITING" }, new Object[] { "REMOVED" });
+        }
+    }
+}
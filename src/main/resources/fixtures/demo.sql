@@ -0,0 +1,37 @@
+-- Demo data for training sessions and tests (-Dclinic.db.memory=true loads it by default).
+-- Runs once on a brand-new database, after the schema migrations. Log in as admin / admin123;
+-- patient contact details are encrypted in the background after the first login.
+
+INSERT INTO doctors (name, specialization, phone, email) VALUES
+  ('Dr. Amelia Hart', 'General Practice', '5550100001', 'hart@clinic.example'),
+  ('Dr. Rafael Ortiz', 'Pediatrics', '5550100002', 'ortiz@clinic.example'),
+  ('Dr. Grace Lin', 'Cardiology', '5550100003', 'lin@clinic.example'),
+  ('Dr. Samuel Reed', 'Dermatology', '5550100004', 'reed@clinic.example');
+
+INSERT INTO patients (first_name, last_name, gender, dob, phone, email, address, name_key) VALUES
+  ('John', 'Smith', 'M', '1980-04-12', '5550200001', 'john.smith@example.com', '12 Oak Street', 'S530'),
+  ('Mary', 'Johnson', 'F', '1975-09-30', '5550200002', 'mary.j@example.com', '4 Elm Avenue', 'J525'),
+  ('David', 'Brown', 'M', '1992-01-05', '5550200003', NULL, '88 Pine Road', 'B650'),
+  ('Lucia', 'Garcia', 'F', '2015-06-21', '5550200004', 'garcia.family@example.com', '3 Birch Lane', 'G620'),
+  ('Peter', 'Miller', 'M', '1958-11-02', '5550200005', NULL, '19 Cedar Court', 'M460'),
+  ('Anna', 'Davis', 'F', '1988-03-17', '5550200006', 'anna.davis@example.com', '7 Maple Drive', 'D120'),
+  ('Tom', 'Wilson', 'M', '2001-07-08', '5550200007', 'tom.w@example.com', '51 Willow Way', 'W425'),
+  ('Emma', 'Taylor', 'F', '1969-12-24', '5550200008', NULL, '26 Aspen Close', 'T460'),
+  ('Minh', 'Nguyen', 'M', '1995-05-14', '5550200009', 'minh.nguyen@example.com', '10 Spruce Street', 'N250'),
+  ('Chioma', 'Okafor', 'F', '1983-08-29', '5550200010', 'c.okafor@example.com', '62 Laurel Row', 'O216');
+
+-- dates relative to today so the schedule always has something to show
+INSERT INTO appointments (patient_id, doctor_id, appointment_datetime, reason, status) VALUES
+  (1, 1, date('now', '-7 days') || ' 09:00', 'Annual check-up', 'COMPLETED'),
+  (2, 3, date('now', '-3 days') || ' 10:30', 'Blood pressure review', 'COMPLETED'),
+  (5, 3, date('now', '-1 days') || ' 14:00', 'ECG follow-up', 'CANCELLED'),
+  (4, 2, date('now', '+1 days') || ' 09:15', 'Vaccination', 'BOOKED'),
+  (3, 1, date('now', '+1 days') || ' 11:00', 'Back pain', 'BOOKED'),
+  (6, 4, date('now', '+2 days') || ' 15:45', 'Skin rash', 'BOOKED'),
+  (7, 1, date('now', '+3 days') || ' 08:30', 'Sports injury', 'BOOKED'),
+  (8, 3, date('now', '+5 days') || ' 13:00', 'Chest pain follow-up', 'BOOKED'),
+  (9, 4, date('now', '+8 days') || ' 10:00', 'Mole check', 'BOOKED'),
+  (10, 2, date('now', '+10 days') || ' 16:15', 'Child fever', 'BOOKED');
+
+INSERT INTO waitlist (patient_id, doctor_id, priority, reason) VALUES
+  (5, 3, 0, 'Wants an earlier cardiology slot');
@@ -0,0 +1,71 @@
+package clinic;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// version clocks as stored in change_log.clock: "site:count" pairs, sorted by site
+class BranchSyncTest {
+
+    private static Map<String, Long> clock(String text) {
+        return BranchSync.parseClock(text);
+    }
+
+    @Test
+    void parseAndFormatRoundTrip() {
+        Map<String, Long> c = clock("a1:3,b2:12");
+        assertEquals(Map.of("a1", 3L, "b2", 12L), c);
+        assertEquals("a1:3,b2:12", BranchSync.formatClock(c));
+    }
+
+    @Test
+    void formatSortsBySite() {
+        Map<String, Long> c = new HashMap<>();
+        c.put("zz", 1L);
+        c.put("aa", 2L);
+        c.put("mm", 3L);
+        assertEquals("aa:2,mm:3,zz:1", BranchSync.formatClock(c));
+    }
+
+    @Test
+    void missingClockIsEmpty() {
+        assertTrue(clock(null).isEmpty());
+        assertTrue(clock("").isEmpty());
+        assertEquals("", BranchSync.formatClock(Map.of()));
+    }
+
+    @Test
+    void equalClocksCoverEachOther() {
+        assertTrue(BranchSync.covers(clock("a:2,b:1"), clock("a:2,b:1")));
+        assertTrue(BranchSync.covers(clock(""), clock("")));
+    }
+
+    @Test
+    void laterClockCoversEarlier() {
+        Map<String, Long> earlier = clock("a:1");
+        Map<String, Long> later = clock("a:2,b:1");
+        assertTrue(BranchSync.covers(later, earlier));
+        assertFalse(BranchSync.covers(earlier, later));
+    }
+
+    @Test
+    void siteMissingFromAClockCountsAsZero() {
+        assertTrue(BranchSync.covers(clock("a:1"), clock("a:1,b:0")));
+        assertFalse(BranchSync.covers(clock("a:1"), clock("b:1")));
+        assertTrue(BranchSync.covers(clock("a:1"), clock("")));
+    }
+
+    @Test
+    void concurrentClocksCoverNeitherWay() {
+        // both branches edited after seeing a:1
+        Map<String, Long> atA = clock("a:2");
+        Map<String, Long> atB = clock("a:1,b:1");
+        assertFalse(BranchSync.covers(atA, atB));
+        assertFalse(BranchSync.covers(atB, atA));
+    }
+}
@@ -0,0 +1,73 @@
+package clinic;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PatientDeduplicatorTest {
+
+    @Test
+    void soundexOfKnownNames() {
+        assertEquals("R163", PatientDeduplicator.nameKey("Robert"));
+        assertEquals("R163", PatientDeduplicator.nameKey("Rupert"));
+        assertEquals("T522", PatientDeduplicator.nameKey("Tymczak"));
+        assertEquals("L000", PatientDeduplicator.nameKey("Lee"));
+    }
+
+    @Test
+    void soundexHAndWDoNotSeparateEqualCodes() {
+        assertEquals("A261", PatientDeduplicator.nameKey("Ashcraft"));
+        assertEquals("A261", PatientDeduplicator.nameKey("Ashcroft"));
+    }
+
+    @Test
+    void soundexFirstLetterCodeIsNotRepeated() {
+        assertEquals("P236", PatientDeduplicator.nameKey("Pfister"));
+    }
+
+    @Test
+    void soundexIgnoresCaseAndPunctuation() {
+        assertEquals(PatientDeduplicator.nameKey("obrien"), PatientDeduplicator.nameKey("O'Brien"));
+        assertEquals("", PatientDeduplicator.nameKey("123"));
+        assertEquals("", PatientDeduplicator.nameKey(null));
+    }
+
+    @Test
+    void jaroWinklerReferenceValues() {
+        assertEquals(0.961, PatientDeduplicator.jaroWinkler("martha", "marhta"), 0.001);
+        assertEquals(0.840, PatientDeduplicator.jaroWinkler("dwayne", "duane"), 0.001);
+        assertEquals(0.813, PatientDeduplicator.jaroWinkler("dixon", "dicksonx"), 0.001);
+    }
+
+    @Test
+    void jaroWinklerEdgeCases() {
+        assertEquals(1.0, PatientDeduplicator.jaroWinkler("", ""));
+        assertEquals(0.0, PatientDeduplicator.jaroWinkler("anna", ""));
+        assertEquals(0.0, PatientDeduplicator.jaroWinkler("abc", "xyz"));
+        assertEquals(1.0, PatientDeduplicator.jaroWinkler("smith", "smith"));
+        assertEquals(PatientDeduplicator.jaroWinkler("jon", "john"), PatientDeduplicator.jaroWinkler("john", "jon"));
+    }
+
+    @Test
+    void namesAloneNeverMatch() {
+        assertTrue(PatientDeduplicator.score(person("Mary", "Johnson", null, null),
+                                             person("Mary", "Johnson", null, null)) < PatientDeduplicator.THRESHOLD);
+    }
+
+    @Test
+    void swappedNamesWithSamePhoneAndDobMatch() {
+        assertTrue(PatientDeduplicator.score(person("Mary", "Johnson", "5550200002", "1975-09-30"),
+                                             person("Johnson", "Mary", "5550200002", "1975-09-30"))
+                   >= PatientDeduplicator.THRESHOLD);
+    }
+
+    private static PatientDeduplicator.Person person(String first, String last, String phone, String dob) {
+        PatientDeduplicator.Person p = new PatientDeduplicator.Person();
+        p.firstName = first;
+        p.lastName = last;
+        p.phone = phone;
+        p.dob = dob;
+        return p;
+    }
+}
@@ -0,0 +1,112 @@
+package clinic;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PersonDirectoryTest {
+
+    // Brown(2) Davis(5) Garcia(3) Miller(4) Smith(1)
+    private static PersonDirectory directory() {
+        PersonDirectory d = new PersonDirectory();
+        d.add(1, "John", "Smith");
+        d.add(2, "David", "Brown");
+        d.add(3, "Lucia", "Garcia");
+        d.add(4, "Peter", "Miller");
+        d.add(5, "Anna", "Davis");
+        d.finish();
+        return d;
+    }
+
+    private static List<Integer> order(PersonDirectory d) {
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < d.size(); i++) {
+            ids.add(d.idAt(i));
+        }
+        return ids;
+    }
+
+    @Test
+    void unsortedInputIsSortedByLastThenFirstName() {
+        assertEquals(List.of(2, 5, 3, 4, 1), order(directory()));
+    }
+
+    @Test
+    void equalNamesAreOrderedById() {
+        PersonDirectory d = new PersonDirectory();
+        d.add(9, "Tom", "Wilson");
+        d.add(7, "Tom", "Wilson");
+        d.add(8, "Amy", "Wilson");
+        d.finish();
+        assertEquals(List.of(8, 7, 9), order(d));
+        assertEquals(1, d.positionOf(7));
+    }
+
+    @Test
+    void renameMovesTowardsTheFront() {
+        PersonDirectory d = directory();
+        d.rename(1, "John", "Adams");
+        assertEquals(List.of(1, 2, 5, 3, 4), order(d));
+        assertEquals(0, d.positionOf(1));
+        assertEquals("John Adams", d.displayName(1));
+    }
+
+    @Test
+    void renameMovesTowardsTheBack() {
+        PersonDirectory d = directory();
+        d.rename(2, "David", "Young");
+        assertEquals(List.of(5, 3, 4, 1, 2), order(d));
+        for (int i = 0; i < d.size(); i++) {
+            assertEquals(i, d.positionOf(d.idAt(i)));
+        }
+    }
+
+    @Test
+    void renameWithinTheSamePlace() {
+        PersonDirectory d = directory();
+        d.rename(3, "Luz", "Garcia");
+        assertEquals(List.of(2, 5, 3, 4, 1), order(d));
+        assertEquals("Luz Garcia", d.displayName(3));
+    }
+
+    @Test
+    void renameOfAnUnknownIdChangesNothing() {
+        PersonDirectory d = directory();
+        d.rename(42, "Nobody", "Aaron");
+        assertEquals(List.of(2, 5, 3, 4, 1), order(d));
+        assertEquals(-1, d.positionOf(42));
+    }
+
+    @Test
+    void lookupsSurviveGrowth() {
+        PersonDirectory d = new PersonDirectory();
+        for (int id = 1; id <= 1000; id++) {
+            d.add(id, "P" + id, String.format("Name%04d", 1001 - id));
+        }
+        d.finish();
+        assertEquals(1000, d.size());
+        assertEquals(1000, d.idAt(0));
+        for (int id = 1; id <= 1000; id++) {
+            assertTrue(d.contains(id));
+            assertEquals(1000 - id, d.positionOf(id));
+        }
+        assertFalse(d.contains(0));
+        assertFalse(d.contains(1001));
+    }
+
+    @Test
+    void displayName() {
+        PersonDirectory d = new PersonDirectory();
+        d.add(1, "Reception", null);
+        d.add(2, "Anna", "Davis");
+        d.finish();
+        assertEquals("Reception", d.displayName(1));
+        assertEquals("Anna Davis", d.displayName(2));
+        assertEquals("", d.displayName(3));
+    }
+}
@@ -0,0 +1,80 @@
+package clinic;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RecurrenceRuleTest {
+
+    // Monday
+    private static final LocalDateTime START = LocalDateTime.of(2026, 1, 5, 9, 30);
+
+    @Test
+    void countStopsTheSeries() {
+        List<LocalDateTime> dates = RecurrenceRule.parse("FREQ=DAILY;INTERVAL=2;COUNT=3").expand(START);
+        assertEquals(List.of(START, START.plusDays(2), START.plusDays(4)), dates);
+    }
+
+    @Test
+    void untilIsInclusive() {
+        List<LocalDateTime> dates = RecurrenceRule.parse("FREQ=WEEKLY;UNTIL=20260126").expand(START);
+        assertEquals(List.of(START, START.plusWeeks(1), START.plusWeeks(2), START.plusWeeks(3)), dates);
+    }
+
+    @Test
+    void untilWithATimePartIsReadAsItsDate() {
+        List<LocalDateTime> dates = RecurrenceRule.parse("FREQ=DAILY;UNTIL=20260106T000000Z").expand(START);
+        assertEquals(List.of(START, START.plusDays(1)), dates);
+    }
+
+    @Test
+    void whicheverOfCountAndUntilComesFirst() {
+        assertEquals(2, RecurrenceRule.parse("FREQ=DAILY;COUNT=2;UNTIL=20261231").expand(START).size());
+        assertEquals(3, RecurrenceRule.parse("FREQ=DAILY;COUNT=10;UNTIL=20260107").expand(START).size());
+    }
+
+    @Test
+    void seriesIsCapped() {
+        assertEquals(RecurrenceRule.MAX_OCCURRENCES,
+                     RecurrenceRule.parse("FREQ=DAILY;COUNT=500").expand(START).size());
+        assertEquals(RecurrenceRule.MAX_OCCURRENCES,
+                     RecurrenceRule.parse("FREQ=DAILY;UNTIL=20301231").expand(START).size());
+    }
+
+    @Test
+    void byDaySkipsDaysBeforeTheStart() {
+        LocalDateTime wednesday = START.plusDays(2);
+        List<LocalDateTime> dates = RecurrenceRule.parse("FREQ=WEEKLY;COUNT=4;BYDAY=FR,MO,WE").expand(wednesday);
+        assertEquals(List.of(wednesday, START.plusDays(4), START.plusDays(7), START.plusDays(9)), dates);
+    }
+
+    @Test
+    void byDayWithIntervalAndUntil() {
+        List<LocalDateTime> dates = RecurrenceRule.parse("FREQ=WEEKLY;INTERVAL=2;BYDAY=MO,TH;UNTIL=20260121")
+                .expand(START);
+        assertEquals(List.of(START, START.plusDays(3), START.plusDays(14)), dates);
+    }
+
+    @Test
+    void monthlyKeepsTheDayOfTheStart() {
+        LocalDateTime endOfJanuary = LocalDateTime.of(2026, 1, 31, 10, 0);
+        List<LocalDateTime> dates = RecurrenceRule.parse("FREQ=MONTHLY;COUNT=3").expand(endOfJanuary);
+        assertEquals(List.of(endOfJanuary, LocalDateTime.of(2026, 2, 28, 10, 0), LocalDateTime.of(2026, 3, 31, 10, 0)),
+                     dates);
+    }
+
+    @Test
+    void rejectsRulesItCannotExpand() {
+        assertThrows(IllegalArgumentException.class, () -> RecurrenceRule.parse("COUNT=3"));
+        assertThrows(IllegalArgumentException.class, () -> RecurrenceRule.parse("FREQ=DAILY"));
+        assertThrows(IllegalArgumentException.class, () -> RecurrenceRule.parse("FREQ=DAILY;COUNT=3;BYDAY=MO"));
+        assertThrows(IllegalArgumentException.class, () -> RecurrenceRule.parse("FREQ=DAILY;COUNT=3;INTERVAL=0"));
+        assertThrows(IllegalArgumentException.class, () -> RecurrenceRule.parse("FREQ=YEARLY;COUNT=3"));
+        assertThrows(IllegalArgumentException.class, () -> RecurrenceRule.parse("FREQ=DAILY;UNTIL=2026"));
+        assertThrows(IllegalArgumentException.class, () -> RecurrenceRule.parse("FREQ=DAILY;COUNT=3;BYSETPOS=1"));
+    }
+}
@@ -0,0 +1,118 @@
+package clinic;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RingBufferTest {
+
+    @Test
+    void capacityIsRoundedUpToAPowerOfTwo() {
+        RingBuffer<Integer> ring = new RingBuffer<>(5);
+        for (int i = 0; i < 8; i++) {
+            assertTrue(ring.offer(i));
+        }
+        assertFalse(ring.offer(8));
+    }
+
+    @Test
+    void fullRingAcceptsAgainOnceDrained() {
+        RingBuffer<Integer> ring = new RingBuffer<>(4);
+        for (int i = 0; i < 4; i++) {
+            ring.offer(i);
+        }
+        assertFalse(ring.offer(4));
+
+        List<Integer> out = new ArrayList<>();
+        assertEquals(1, ring.drain(out::add, 1));
+        assertTrue(ring.offer(4));
+        assertFalse(ring.offer(5));
+
+        assertEquals(4, ring.drain(out::add, 10));
+        assertEquals(List.of(0, 1, 2, 3, 4), out);
+    }
+
+    @Test
+    void drainStopsAtMaxAndWhenEmpty() {
+        RingBuffer<Integer> ring = new RingBuffer<>(8);
+        List<Integer> out = new ArrayList<>();
+        assertEquals(0, ring.drain(out::add, 10));
+
+        for (int i = 0; i < 5; i++) {
+            ring.offer(i);
+        }
+        assertEquals(3, ring.drain(out::add, 3));
+        assertEquals(2, ring.drain(out::add, 3));
+        assertEquals(List.of(0, 1, 2, 3, 4), out);
+    }
+
+    @Test
+    void staysInOrderAcrossManyLaps() {
+        RingBuffer<Integer> ring = new RingBuffer<>(4);
+        List<Integer> out = new ArrayList<>();
+        int next = 0;
+        // three in, two out: the positions wrap many times while the ring is never empty
+        for (int round = 0; round < 1000; round++) {
+            while (ring.offer(next)) {
+                next++;
+            }
+            ring.drain(out::add, 2);
+        }
+        ring.drain(out::add, Integer.MAX_VALUE);
+
+        assertEquals(next, out.size());
+        for (int i = 0; i < out.size(); i++) {
+            assertEquals(i, out.get(i));
+        }
+    }
+
+    @Test
+    @Timeout(30)
+    void concurrentProducersLoseNothing() throws InterruptedException {
+        int producers = 4;
+        int perProducer = 20_000;
+        RingBuffer<long[]> ring = new RingBuffer<>(64);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            Thread t = new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    long[] item = { producer, i };
+                    while (!ring.offer(item)) {
+                        Thread.yield();
+                    }
+                }
+            });
+            t.setDaemon(true);
+            threads.add(t);
+            t.start();
+        }
+
+        // each producer's items come out in the order it offered them
+        long[] expected = new long[producers];
+        int received = 0;
+        while (received < producers * perProducer) {
+            int n = ring.drain(item -> {
+                assertEquals(expected[(int) item[0]], item[1]);
+                expected[(int) item[0]]++;
+            }, 100);
+            if (n == 0) Thread.yield();
+            received += n;
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        for (long count : expected) {
+            assertEquals(perProducer, count);
+        }
+        assertEquals(0, ring.drain(item -> { }, 1));
+    }
+}
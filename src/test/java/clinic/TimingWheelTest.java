@@ -0,0 +1,83 @@
+package clinic;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// 100 ms ticks, 8 buckets: one turn of the wheel is 800 ms
+class TimingWheelTest {
+
+    private final TimingWheel<String> wheel = new TimingWheel<>(100, 8, 0);
+    private final List<String> fired = new ArrayList<>();
+
+    @Test
+    void firesOnTheTickItIsDue() {
+        wheel.schedule("a", 250); // rounded up to tick 3
+        wheel.advance(299, fired::add);
+        assertTrue(fired.isEmpty());
+        wheel.advance(300, fired::add);
+        assertEquals(List.of("a"), fired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void waitsFullRoundsBeforeFiring() {
+        wheel.schedule("later", 1700); // tick 17: bucket 1, two rounds
+        wheel.schedule("soon", 100);   // tick 1: same bucket, no rounds
+        wheel.advance(100, fired::add);
+        assertEquals(List.of("soon"), fired);
+
+        wheel.advance(1699, fired::add);
+        assertEquals(List.of("soon"), fired);
+        assertEquals(1, wheel.size());
+
+        wheel.advance(1700, fired::add);
+        assertEquals(List.of("soon", "later"), fired);
+    }
+
+    @Test
+    void roundsCountFromTheCurrentTick() {
+        wheel.advance(500, fired::add);   // ticks 0..5 done
+        wheel.schedule("x", 2500);        // 19 ticks away, two rounds
+        wheel.advance(2499, fired::add);
+        assertTrue(fired.isEmpty());
+        wheel.advance(2500, fired::add);
+        assertEquals(List.of("x"), fired);
+    }
+
+    @Test
+    void overdueItemsFireOnTheNextTick() {
+        wheel.advance(1000, fired::add); // ticks 0..10 done
+        wheel.schedule("missed", 200);
+        wheel.advance(1099, fired::add);
+        assertTrue(fired.isEmpty());
+        wheel.advance(1100, fired::add);
+        assertEquals(List.of("missed"), fired);
+    }
+
+    @Test
+    void oneAdvanceCoversALongGap() {
+        for (int i = 1; i <= 50; i++) {
+            wheel.schedule("t" + i, i * 130L);
+        }
+        wheel.advance(10_000, fired::add);
+        assertEquals(50, fired.size());
+        assertEquals("t1", fired.get(0));
+        assertEquals("t50", fired.get(49));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void startTimeIsTickZero() {
+        TimingWheel<String> offset = new TimingWheel<>(100, 8, 1_000_000);
+        offset.schedule("a", 1_000_900);
+        offset.advance(1_000_899, fired::add);
+        assertTrue(fired.isEmpty());
+        offset.advance(1_000_900, fired::add);
+        assertEquals(List.of("a"), fired);
+    }
+}